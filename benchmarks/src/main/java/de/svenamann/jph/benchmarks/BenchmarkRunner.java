@@ -0,0 +1,53 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the given JMH command line options, with the
+ * GC profiler enabled, such that the results include the allocation rate and
+ * the bytes allocated per operation.
+ * 
+ * @author Sven Amann
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build())
+                .run();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.svenamann.jph.Hasher;
+
+/**
+ * Measures the cost of creating a {@link Hasher}, with and without hashing a
+ * first tag, which is what a single command line call pays in addition to the
+ * JVM start.
+ * 
+ * @author Sven Amann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+
+    @Benchmark
+    public Hasher newHasher() {
+        return new Hasher();
+    }
+
+    @Benchmark
+    public String newHasherAndHash() {
+        return new Hasher().generateHashWord(Tags.MASTER, "sven-amann.de", 16, true, true,
+                true, false, false);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+
+/**
+ * Measures the time to generate a hash word for all combinations of the
+ * hashing flags and different lengths. The flags are given as a bit mask:
+ * <ul>
+ * <li>1 - requireDigit</li>
+ * <li>2 - requirePunctuation</li>
+ * <li>4 - requireMixed</li>
+ * <li>8 - restrictSpecial</li>
+ * <li>16 - restrictDigits</li>
+ * </ul>
+ * To measure all lengths, pass <code>-p length=1,2,...,27</code>.
+ * 
+ * @author Sven Amann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashWordBenchmark {
+
+    /**
+     * The hashing flags, see class comment.
+     */
+    @Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14",
+            "15", "16", "17", "18", "19", "20", "21", "22", "23", "24", "25", "26", "27", "28",
+            "29", "30", "31" })
+    public int flags;
+
+    /**
+     * The length of the hash words.
+     */
+    @Param({ "1", "8", "16", "27" })
+    public int length;
+
+    private Hasher hasher;
+    private String[] tags;
+    private char[] hashWord;
+    private int next;
+
+    private boolean requireDigit;
+    private boolean requirePunctuation;
+    private boolean requireMixed;
+    private boolean restrictSpecial;
+    private boolean restrictDigits;
+    private HashPolicy policy;
+
+    @Setup
+    public void setUp() {
+        hasher = new Hasher();
+        tags = Tags.create(64);
+        hashWord = new char[Hasher.MAX_HASH_WORD_SIZE];
+        requireDigit = (flags & 1) != 0;
+        requirePunctuation = (flags & 2) != 0;
+        requireMixed = (flags & 4) != 0;
+        restrictSpecial = (flags & 8) != 0;
+        restrictDigits = (flags & 16) != 0;
+        policy = HashPolicy.of(length, requireDigit, requirePunctuation, requireMixed,
+                restrictSpecial, restrictDigits);
+    }
+
+    /**
+     * @return the next tag to hash, cycling through the tags
+     */
+    private String nextTag() {
+        next = (next + 1) & (tags.length - 1);
+        return tags[next];
+    }
+
+    @Benchmark
+    public String generateHashWord() {
+        return hasher.generateHashWord(Tags.MASTER, nextTag(), length, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits);
+    }
+
+    @Benchmark
+    public char[] generateHashWordIntoBuffer() {
+        hasher.generateHashWord(Tags.MASTER, nextTag(), length, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits, hashWord);
+        return hashWord;
+    }
+
+    @Benchmark
+    public char[] generateHashWordWithPolicy() {
+        hasher.generateHashWord(Tags.MASTER, nextTag(), policy, hashWord);
+        return hashWord;
+    }
+}
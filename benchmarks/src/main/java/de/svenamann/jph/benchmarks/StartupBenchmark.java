@@ -0,0 +1,123 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.svenamann.jph.JPasswordHasher;
+
+/**
+ * Measures the wall-clock time from launching a JVM that hashes a single tag
+ * on the command line until the hash is printed and the JVM exits, i.e., the
+ * latency of an interactive call. Each operation launches a new process.<br>
+ * <br>
+ * By default, the launched JVM uses the same runtime as the benchmark and the
+ * class path the {@link JPasswordHasher} is loaded from. To measure the start
+ * with a class data sharing archive, pass the archive with the JVM options,
+ * e.g., <code>-p jvmOptions=-XX:SharedArchiveFile=target/jph.jsa -p classPath=target/jph.jar</code>.
+ * Note that the archive requires the class path it was created with.
+ * 
+ * @author Sven Amann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    /**
+     * Options of the launched JVM, separated by whitespace.
+     */
+    @Param({ "", "-XX:TieredStopAtLevel=1" })
+    public String jvmOptions;
+
+    /**
+     * The class path of the launched JVM, or empty for the class path the
+     * {@link JPasswordHasher} is loaded from.
+     */
+    @Param({ "" })
+    public String classPath;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws Exception {
+        command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        if (jvmOptions.trim().length() > 0) {
+            command.addAll(Arrays.asList(jvmOptions.trim().split("\\s+")));
+        }
+        command.add("-cp");
+        command.add(classPath.length() > 0 ? classPath : new File(JPasswordHasher.class
+                .getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        command.add(JPasswordHasher.class.getName());
+        command.add("sven-amann.de");
+        command.add(Tags.MASTER);
+    }
+
+    @Benchmark
+    public String launchAndHash() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String hash = out.readLine();
+            if (process.waitFor() != 0 || hash == null) {
+                throw new IllegalStateException("Launch failed: " + hash);
+            }
+            return hash;
+        } finally {
+            out.close();
+        }
+    }
+}
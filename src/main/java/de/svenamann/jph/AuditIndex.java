@@ -0,0 +1,322 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index of the hash words generated for an inventory of tags, to audit
+ * leaked passwords against. The inventory consists of rows in the format of
+ * the stream mode of {@link JPasswordHasher}, i.e., a tag, optionally followed
+ * by options for this tag, all hashed with the same master password.<br>
+ * <br>
+ * The index keeps the hash words as 64 bit fingerprints in an open addressing
+ * table of primitive longs outside of the heap, next to the inventory row they
+ * belong to. Auditing streams the candidate passwords of a dump as bytes,
+ * fingerprints them without creating strings and looks them up in the table.
+ * Since fingerprints may collide, a reported match is certain only up to a
+ * probability of about one in 2^64 per hash word. The fingerprints are seeded
+ * per index, such that they are not comparable across indices.
+ * 
+ * @author Sven Amann
+ */
+public final class AuditIndex {
+
+    /**
+     * The number of bytes per table slot, i.e., the fingerprint and the row.
+     */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * The initial number of table slots.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The seed of the fingerprints.
+     */
+    private final long seed = Fingerprints.seed();
+
+    /**
+     * The tags of the inventory rows.
+     */
+    private final List<String> tags = new ArrayList<String>();
+
+    /**
+     * The table slots, each holding a fingerprint, which is 0 for empty slots,
+     * and the index of the row.
+     */
+    private ByteBuffer table = allocate(INITIAL_CAPACITY);
+
+    /**
+     * The number of slots minus 1.
+     */
+    private int mask = INITIAL_CAPACITY - 1;
+
+    /**
+     * The number of indexed hash words.
+     */
+    private int size;
+
+    /**
+     * Buffer for the bytes of a hash word.
+     */
+    private final byte[] hashWordBytes = new byte[Hasher.MAX_HASH_WORD_SIZE];
+
+    /**
+     * Creates an empty index.
+     */
+    public AuditIndex() {
+    }
+
+    /**
+     * Creates an index of the hash words for the given inventory.
+     * 
+     * @param master
+     *            the master password
+     * @param defaults
+     *            the policy of rows without options
+     * @param inventory
+     *            the input to read the inventory rows from
+     * @return the index
+     * @throws IOException
+     *             if reading fails
+     * @throws IllegalArgumentException
+     *             if a row has illegal options
+     */
+    public static AuditIndex create(String master, HashPolicy defaults, Reader inventory)
+            throws IOException {
+        AuditIndex index = new AuditIndex();
+        Options options = new Options(defaults);
+        Hasher hasher = new Hasher(1, HmacEngine.BUILT_IN);
+        BufferedReader reader = new BufferedReader(inventory);
+        String row;
+        while ((row = reader.readLine()) != null) {
+            String hashWord = options.hashLine(hasher, master, row);
+            if (hashWord.length() > 0) {
+                index.add(row.trim().split("\\s+")[0], hashWord);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds a hash word to this index.
+     * 
+     * @param tag
+     *            the tag the hash word was generated for
+     * @param hashWord
+     *            the hash word
+     */
+    public void add(String tag, String hashWord) {
+        if (2 * (size + 1) > mask + 1) {
+            grow();
+        }
+        // hash words consist of ASCII characters only
+        int length = Math.min(hashWord.length(), hashWordBytes.length);
+        for (int i = 0; i < length; i++) {
+            hashWordBytes[i] = (byte) hashWord.charAt(i);
+        }
+        insert(fingerprint(hashWordBytes, 0, length), tags.size());
+        tags.add(tag);
+        size++;
+    }
+
+    /**
+     * @return the number of indexed hash words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Audits the candidate passwords read from the given dump, one per line,
+     * and writes a line for each match, consisting of the line number of the
+     * candidate, a tab and the tag whose hash word it matches. Candidates
+     * are compared by their bytes, i.e., a trailing carriage return is
+     * ignored, but no other whitespace.
+     * 
+     * @param dump
+     *            the input to read candidates from
+     * @param out
+     *            the output to write matches to
+     * @return the number of matches
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public long audit(InputStream dump, Writer out) throws IOException {
+        final byte[] buffer = new byte[1 << 16];
+        long line = 1;
+        long matches = 0;
+        // the number of bytes of a candidate that spans two reads
+        int carry = 0;
+        // whether the rest of an overlong candidate is skipped
+        boolean skipping = false;
+        int read;
+        while ((read = dump.read(buffer, carry, buffer.length - carry)) >= 0) {
+            int end = carry + read;
+            int start = 0;
+            for (int i = carry; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    if (!skipping) {
+                        matches += audit(buffer, start, i, line, out);
+                    }
+                    skipping = false;
+                    line++;
+                    start = i + 1;
+                }
+            }
+            carry = end - start;
+            if (carry == buffer.length) {
+                // a single candidate fills the buffer, which is far longer
+                // than any hash word, hence, it cannot match
+                skipping = true;
+                carry = 0;
+            } else {
+                System.arraycopy(buffer, start, buffer, 0, carry);
+            }
+        }
+        if (carry > 0 && !skipping) {
+            matches += audit(buffer, 0, carry, line, out);
+        }
+        out.flush();
+        return matches;
+    }
+
+    /**
+     * Audits a single candidate.
+     * 
+     * @param bytes
+     *            the buffer holding the candidate
+     * @param start
+     *            the start of the candidate in the buffer
+     * @param end
+     *            the end of the candidate in the buffer
+     * @param line
+     *            the line number of the candidate
+     * @param out
+     *            the output to write matches to
+     * @return the number of matches
+     */
+    private long audit(byte[] bytes, int start, int end, long line, Writer out)
+            throws IOException {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        int length = end - start;
+        if (length == 0 || length > Hasher.MAX_HASH_WORD_SIZE) {
+            return 0;
+        }
+        long fingerprint = fingerprint(bytes, start, length);
+        long matches = 0;
+        for (int slot = (int) fingerprint & mask;; slot = (slot + 1) & mask) {
+            long current = table.getLong(slot * SLOT_SIZE);
+            if (current == 0) {
+                return matches;
+            } else if (current == fingerprint) {
+                out.write(line + "\t" + tags.get(table.getInt(slot * SLOT_SIZE + 8)) + "\n");
+                matches++;
+            }
+        }
+    }
+
+    /**
+     * Inserts a fingerprint into the table, which must have a free slot.
+     * 
+     * @param fingerprint
+     *            the fingerprint
+     * @param row
+     *            the index of the row
+     */
+    private void insert(long fingerprint, int row) {
+        int slot = (int) fingerprint & mask;
+        while (table.getLong(slot * SLOT_SIZE) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.putLong(slot * SLOT_SIZE, fingerprint);
+        table.putInt(slot * SLOT_SIZE + 8, row);
+    }
+
+    /**
+     * Doubles the number of table slots, keeping the table at most half full.
+     */
+    private void grow() {
+        ByteBuffer old = table;
+        int oldCapacity = mask + 1;
+        if (oldCapacity > Integer.MAX_VALUE / (2 * SLOT_SIZE)) {
+            throw new IllegalStateException("Audit index full: size = " + size);
+        }
+        table = allocate(2 * oldCapacity);
+        mask = 2 * oldCapacity - 1;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long fingerprint = old.getLong(slot * SLOT_SIZE);
+            if (fingerprint != 0) {
+                insert(fingerprint, old.getInt(slot * SLOT_SIZE + 8));
+            }
+        }
+    }
+
+    /**
+     * Allocates an empty table outside of the heap.
+     * 
+     * @param capacity
+     *            the number of slots
+     * @return the table
+     */
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Computes the fingerprint of a hash word or candidate, which is never 0.
+     * 
+     * @param bytes
+     *            the buffer holding the hash word
+     * @param offset
+     *            the start of the hash word in the buffer
+     * @param length
+     *            the length of the hash word
+     * @return the fingerprint
+     */
+    private long fingerprint(byte[] bytes, int offset, int length) {
+        long h = Fingerprints.of(seed, bytes, offset, length);
+        return h != 0 ? h : 1;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hashes the rows of large inputs on all processors. Each row consists of a
+ * tag, optionally followed by options for this tag, separated by whitespace,
+ * just like the lines of the stream mode of {@link JPasswordHasher}. All rows
+ * are hashed with the same master password.<br>
+ * <br>
+ * Rows are read in chunks, which are hashed concurrently. The hashes are
+ * written in the order of the rows, one per line. Invalid rows yield a line
+ * with <code>ERROR</code> and a message, empty rows yield empty lines. Only a
+ * bounded number of chunks is read ahead, such that the memory use does not
+ * depend on the size of the input.
+ * 
+ * @author Sven Amann
+ */
+public class BulkHasher {
+
+    /**
+     * The prefix of the output lines of invalid rows.
+     */
+    public static final String ERROR = "ERROR ";
+
+    /**
+     * The number of rows hashed as one task by default.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    /**
+     * The number of threads to hash with.
+     */
+    private final int threads;
+
+    /**
+     * The number of rows hashed as one task.
+     */
+    private final int chunkSize;
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher = new ConcurrentHasher();
+
+    /**
+     * Creates a bulk hasher using one thread per processor.
+     */
+    public BulkHasher() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a bulk hasher.
+     * 
+     * @param threads
+     *            the number of threads to hash with, must be positive
+     * @param chunkSize
+     *            the number of rows hashed as one task, must be positive
+     */
+    public BulkHasher(int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Illegal bulk configuration: threads = "
+                    + threads + ", chunk size = " + chunkSize + ", required 0 < both");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Hashes all rows read from the given input and writes the hashes to the
+     * given output, in the order of the rows.
+     * 
+     * @param master
+     *            the master password
+     * @param defaults
+     *            the policy of rows without options
+     * @param in
+     *            the input to read rows from
+     * @param out
+     *            the output to write hashes to
+     * @return the number of rows processed
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public long hash(String master, HashPolicy defaults, Reader in, Writer out)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jph-bulk");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            return hash(executor, master, new Options(defaults), new BufferedReader(in),
+                    new BufferedWriter(out));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Hashes all rows using the given executor. Keeps at most a few chunks
+     * per thread in flight and writes the oldest chunk, whenever the limit is
+     * reached.
+     */
+    private long hash(ExecutorService executor, String master, Options defaults,
+            BufferedReader reader, BufferedWriter writer) throws IOException {
+        int maxInFlight = 4 * threads;
+        Queue<Future<String[]>> inFlight = new ArrayDeque<Future<String[]>>(maxInFlight);
+        long rows = 0;
+        String[] chunk;
+        while ((chunk = readChunk(reader)) != null) {
+            rows += chunk.length;
+            if (inFlight.size() == maxInFlight) {
+                write(inFlight.remove(), writer);
+            }
+            inFlight.add(executor.submit(hashChunk(master, defaults, chunk)));
+        }
+        while (!inFlight.isEmpty()) {
+            write(inFlight.remove(), writer);
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Reads the next chunk of rows.
+     * 
+     * @param reader
+     *            the input
+     * @return the rows, or <code>null</code> at the end of the input
+     * @throws IOException
+     *             if reading fails
+     */
+    private String[] readChunk(BufferedReader reader) throws IOException {
+        String[] chunk = new String[chunkSize];
+        int size = 0;
+        String line;
+        while (size < chunkSize && (line = reader.readLine()) != null) {
+            chunk[size++] = line;
+        }
+        if (size == 0) {
+            return null;
+        } else if (size < chunkSize) {
+            String[] rest = new String[size];
+            System.arraycopy(chunk, 0, rest, 0, size);
+            return rest;
+        }
+        return chunk;
+    }
+
+    /**
+     * Creates the task that hashes a chunk of rows. The task replaces the rows
+     * by their hashes.
+     */
+    private Callable<String[]> hashChunk(final String master, final Options defaults,
+            final String[] chunk) {
+        return new Callable<String[]>() {
+            public String[] call() {
+                Hasher jph = hasher.getHasher();
+                for (int i = 0; i < chunk.length; i++) {
+                    try {
+                        chunk[i] = defaults.hashLine(jph, master, chunk[i]);
+                    } catch (IllegalArgumentException iae) {
+                        chunk[i] = ERROR + iae.getMessage();
+                    }
+                }
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Waits for a chunk to be hashed and writes the hashes.
+     * 
+     * @param hashed
+     *            the hashed chunk
+     * @param writer
+     *            the output
+     * @throws IOException
+     *             if writing or hashing fails
+     */
+    private static void write(Future<String[]> hashed, BufferedWriter writer)
+            throws IOException {
+        String[] hashes;
+        try {
+            hashes = hashed.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing");
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Hashing failed", ee.getCause());
+        }
+        for (String hash : hashes) {
+            writer.write(hash);
+            writer.newLine();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe front end to {@link Hasher} that memoizes the generated hash
+ * words, for services that request the same hash word repeatedly. Results are
+ * cached for a limited time and the least recently used ones are evicted when
+ * the cache is full.<br>
+ * <br>
+ * Cache entries are identified by a 128 bit fingerprint of master, tag and
+ * policy, which is an HMAC-SHA256 keyed with a random secret per cache.
+ * Hence, the cache holds no master passwords and its keys reveal nothing
+ * about them, even to someone who reads the heap. The fingerprint is the only
+ * identity of an entry, which is safe since collisions of the MAC are out of
+ * reach. The hash words of evicted and expired entries are overwritten with
+ * zeros. Since the fingerprint costs about as much as a hash word of the
+ * legacy algorithm, a hit saves the policy transformations and the key setup,
+ * but not the MAC computation itself.<br>
+ * <br>
+ * The cache is split into stripes, each with its own lock, such that
+ * concurrent lookups rarely contend. Hash words are generated outside of the
+ * locks.
+ * 
+ * @author Sven Amann
+ */
+public class CachingHasher {
+
+    /**
+     * The algorithm of the fingerprints.
+     */
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The encoding of master and tag in fingerprints.
+     */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+
+    /**
+     * The maximum number of stripes.
+     */
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * The minimum capacity of a stripe, unless the cache is smaller. Smaller
+     * stripes would evict entries long before the cache is full, whenever
+     * keys collide on a stripe.
+     */
+    private static final int MIN_STRIPE_CAPACITY = 64;
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher;
+
+    /**
+     * The stripes of the cache.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The time to live of the entries, in nanoseconds.
+     */
+    private final long ttlNanos;
+
+    /**
+     * The secret to compute fingerprints with, drawn once per cache.
+     */
+    private final byte[] secret = new byte[32];
+
+    /**
+     * The fingerprint MAC of each thread, initialized with the secret.
+     */
+    private final ThreadLocal<Hmac> fingerprints = new ThreadLocal<Hmac>() {
+        @Override
+        protected Hmac initialValue() {
+            Hmac mac = new JcaHmac(FINGERPRINT_ALGORITHM);
+            mac.init(secret);
+            return mac;
+        }
+    };
+
+    /**
+     * Creates a caching hasher using a {@link ConcurrentHasher}.
+     * 
+     * @param capacity
+     *            the maximum number of cached hash words, must be positive
+     * @param ttlMillis
+     *            the time in milliseconds after which cached hash words
+     *            expire, must be positive
+     */
+    public CachingHasher(int capacity, long ttlMillis) {
+        this(new ConcurrentHasher(), capacity, ttlMillis);
+    }
+
+    /**
+     * Creates a caching hasher.
+     * 
+     * @param hasher
+     *            the hasher to generate uncached hash words with
+     * @param capacity
+     *            the maximum number of cached hash words, must be positive
+     * @param ttlMillis
+     *            the time in milliseconds after which cached hash words
+     *            expire, must be positive
+     */
+    public CachingHasher(ConcurrentHasher hasher, int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Illegal cache configuration: capacity = "
+                    + capacity + ", ttl = " + ttlMillis + ", required 0 < both");
+        }
+        this.hasher = hasher;
+        this.ttlNanos = ttlMillis * 1000000L;
+        new SecureRandom().nextBytes(secret);
+        int count = Math.min(Integer.highestOneBit(Math.max(capacity / MIN_STRIPE_CAPACITY, 1)),
+                MAX_STRIPES);
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            // distribute the capacity, such that the total is exact
+            stripes[i] = new Stripe(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * Gets the hash word of a data string with a given key according to the
+     * given policy, from the cache or by generating and caching it. See
+     * {@link Hasher#generateHashWord(String, String, HashPolicy)} for details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @return the hash
+     */
+    public String generateHashWord(String key, String data, HashPolicy policy) {
+        char[] hashWord = new char[policy.getLength()];
+        generateHashWord(key, data, policy, hashWord);
+        return new String(hashWord);
+    }
+
+    /**
+     * Gets the hash word of a data string with a given key according to the
+     * given policy and writes it to the first positions of the given buffer.
+     * Apart from the buffer, this is equivalent to
+     * {@link #generateHashWord(String, String, HashPolicy)}.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(String key, String data, HashPolicy policy, char[] hashWord) {
+        Fingerprint fingerprint = fingerprint(key, data, policy);
+        Stripe stripe = stripes[(int) fingerprint.low & (stripes.length - 1)];
+        if (stripe.get(fingerprint, hashWord)) {
+            return;
+        }
+        hasher.getHasher().generateHashWord(key, data, policy, hashWord);
+        char[] cached = new char[policy.getLength()];
+        System.arraycopy(hashWord, 0, cached, 0, cached.length);
+        stripe.put(fingerprint, cached, System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * @return the number of hash words served from the cache
+     */
+    public long getHits() {
+        long hits = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of hash words generated, since they were not cached
+     *         or expired
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * @return the number of cached hash words, including expired ones not
+     *         yet evicted
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Evicts all cached hash words, overwriting them with zeros.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Cached cached : stripe.entries.values()) {
+                    Arrays.fill(cached.hashWord, '\0');
+                }
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a request. The lengths of key and data and
+     * the policy, whose hash code is unique, are included, such that
+     * different requests never have the same input.
+     */
+    private Fingerprint fingerprint(String key, String data, HashPolicy policy) {
+        byte[] keyBytes = key.getBytes(ENCODING);
+        byte[] dataBytes = data.getBytes(ENCODING);
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(keyBytes.length).putInt(dataBytes.length).putInt(policy.hashCode());
+        header.flip();
+        Hmac mac = fingerprints.get().begin();
+        mac.update(header);
+        mac.update(keyBytes);
+        mac.update(dataBytes);
+        Arrays.fill(keyBytes, (byte) 0);
+        byte[] digest = new byte[mac.getMacLength()];
+        mac.doFinal(digest);
+        ByteBuffer print = ByteBuffer.wrap(digest);
+        return new Fingerprint(print.getLong(), print.getLong());
+    }
+
+    /**
+     * The fingerprint of a request.
+     */
+    private static final class Fingerprint {
+
+        /**
+         * The halves of the fingerprint.
+         */
+        private final long high, low;
+
+        /**
+         * Creates a fingerprint.
+         */
+        private Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) obj;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+    }
+
+    /**
+     * A cached hash word.
+     */
+    private static final class Cached {
+
+        /**
+         * The hash word.
+         */
+        private final char[] hashWord;
+
+        /**
+         * The time at which the entry expires, as given by
+         * {@link System#nanoTime()}.
+         */
+        private final long expiry;
+
+        /**
+         * Creates an entry.
+         */
+        private Cached(char[] hashWord, long expiry) {
+            this.hashWord = hashWord;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * A stripe of the cache, i.e., a LRU map guarded by the stripe's monitor.
+     */
+    private static final class Stripe {
+
+        /**
+         * The entries, least recently used first.
+         */
+        private final LinkedHashMap<Fingerprint, Cached> entries;
+
+        /**
+         * The number of hits.
+         */
+        private long hits;
+
+        /**
+         * The number of misses.
+         */
+        private long misses;
+
+        /**
+         * Creates an empty stripe.
+         * 
+         * @param capacity
+         *            the maximum number of entries
+         */
+        private Stripe(final int capacity) {
+            entries = new LinkedHashMap<Fingerprint, Cached>(2 * capacity, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Fingerprint, Cached> eldest) {
+                    if (size() > capacity) {
+                        Arrays.fill(eldest.getValue().hashWord, '\0');
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Looks up a hash word and copies it to the given buffer. Evicts the
+         * entry, if it expired.
+         * 
+         * @return whether the hash word was cached
+         */
+        private synchronized boolean get(Fingerprint fingerprint, char[] hashWord) {
+            Cached cached = entries.get(fingerprint);
+            if (cached != null) {
+                if (cached.expiry - System.nanoTime() > 0) {
+                    System.arraycopy(cached.hashWord, 0, hashWord, 0, cached.hashWord.length);
+                    hits++;
+                    return true;
+                }
+                entries.remove(fingerprint);
+                Arrays.fill(cached.hashWord, '\0');
+            }
+            misses++;
+            return false;
+        }
+
+        /**
+         * Caches a hash word, replacing and wiping any former one. Evicts
+         * expired entries from the least recently used end on the way.
+         */
+        private synchronized void put(Fingerprint fingerprint, char[] hashWord, long expiry) {
+            Cached former = entries.put(fingerprint, new Cached(hashWord, expiry));
+            if (former != null) {
+                Arrays.fill(former.hashWord, '\0');
+            }
+            long now = System.nanoTime();
+            Iterator<Cached> eldest = entries.values().iterator();
+            while (eldest.hasNext()) {
+                Cached cached = eldest.next();
+                if (cached.expiry - now > 0) {
+                    break;
+                }
+                eldest.remove();
+                Arrays.fill(cached.hashWord, '\0');
+            }
+        }
+    }
+}
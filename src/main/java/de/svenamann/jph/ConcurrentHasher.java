@@ -0,0 +1,250 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * A thread-safe front end to {@link Hasher}. Since a {@link Hasher} keeps its
+ * MAC as mutable state it must not be shared between threads. This class
+ * keeps one {@link Hasher} per calling thread instead, i.e., each thread pays
+ * for the MAC lookup once and then hashes without any synchronization.<br>
+ * <br>
+ * A single instance may be shared freely between any number of threads. The
+ * per-thread hashers live as long as their thread does, hence, instances are
+ * best used from long-lived (pool) threads.
+ * 
+ * @author Sven Amann
+ */
+public class ConcurrentHasher {
+
+    /**
+     * The algorithm of the per-thread hashers.
+     */
+    private final HashAlgorithm algorithm;
+
+    /**
+     * The metrics the per-thread hashers record to, or null.
+     */
+    private final HasherMetrics metrics;
+
+    /**
+     * The hasher of each calling thread.
+     */
+    private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+        @Override
+        protected Hasher initialValue() {
+            Hasher hasher = createHasher();
+            if (metrics != null) {
+                hasher.setMetrics(metrics);
+            }
+            return hasher;
+        }
+    };
+
+    /**
+     * Creates a concurrent hasher that records no metrics.
+     */
+    public ConcurrentHasher() {
+        this(null);
+    }
+
+    /**
+     * Creates a concurrent hasher whose per-thread hashers record to the given
+     * metrics.
+     * 
+     * @param metrics
+     *            the metrics, or null to record nothing
+     */
+    public ConcurrentHasher(HasherMetrics metrics) {
+        this(HashAlgorithm.PASSWORD_HASHER, metrics);
+    }
+
+    /**
+     * Creates a concurrent hasher whose per-thread hashers use the given
+     * algorithm and record to the given metrics.
+     * 
+     * @param algorithm
+     *            the algorithm to derive hash words with
+     * @param metrics
+     *            the metrics, or null to record nothing
+     */
+    public ConcurrentHasher(HashAlgorithm algorithm, HasherMetrics metrics) {
+        this.algorithm = algorithm;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates the hasher for a calling thread. Called once per thread.
+     * 
+     * @return the created hasher
+     */
+    protected Hasher createHasher() {
+        return new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, algorithm);
+    }
+
+    /**
+     * Gets the hasher of the calling thread. The returned instance must not be
+     * passed on to other threads.
+     * 
+     * @return the calling thread's hasher
+     */
+    public Hasher getHasher() {
+        return hashers.get();
+    }
+
+    /**
+     * Hashes a data string with a given key and the passed parameters, using
+     * the calling thread's hasher. See
+     * {@link Hasher#generateHashWord(String, String, int, boolean, boolean, boolean, boolean, boolean)}
+     * for details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param hashWordSize
+     *            the length of the has to generate, must be positive and
+     *            smaller than 27
+     * @param requireDigit
+     *            set to ensure that at least one digit appears in the result
+     *            hash
+     * @param requirePunctuation
+     *            set to ensure that at least one punctuation character appears
+     *            in the result hash
+     * @param requireMixed
+     *            set to ensure that the result hash is mixed case
+     * @param restrictSpecial
+     *            set to ensure that no special characters are in the result
+     *            hash. Overrules requirePunctuation
+     * @param restrictDigits
+     *            set to ensure that only digits are in the result hash.
+     *            Overrules all other flags
+     * @return the generated hash
+     */
+    public String generateHashWord(String key, String data, int hashWordSize,
+            boolean requireDigit, boolean requirePunctuation, boolean requireMixed,
+            boolean restrictSpecial, boolean restrictDigits) {
+        return getHasher().generateHashWord(key, data, hashWordSize, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits);
+    }
+
+    /**
+     * Hashes many data strings with the same key and parameters, using the
+     * calling thread's hasher. See
+     * {@link Hasher#generateHashWords(String, String[], int, boolean, boolean, boolean, boolean, boolean)}
+     * for details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data strings to hash
+     * @param hashWordSize
+     *            the length of the hashes to generate, must be positive and
+     *            smaller than 27
+     * @param requireDigit
+     *            set to ensure that at least one digit appears in the result
+     *            hashes
+     * @param requirePunctuation
+     *            set to ensure that at least one punctuation character appears
+     *            in the result hashes
+     * @param requireMixed
+     *            set to ensure that the result hashes are mixed case
+     * @param restrictSpecial
+     *            set to ensure that no special characters are in the result
+     *            hashes. Overrules requirePunctuation
+     * @param restrictDigits
+     *            set to ensure that only digits are in the result hashes.
+     *            Overrules all other flags
+     * @return the generated hashes, in the order of the data strings
+     */
+    public String[] generateHashWords(String key, String[] data, int hashWordSize,
+            boolean requireDigit, boolean requirePunctuation, boolean requireMixed,
+            boolean restrictSpecial, boolean restrictDigits) {
+        return getHasher().generateHashWords(key, data, hashWordSize, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits);
+    }
+
+    /**
+     * Hashes a data string with a given key according to the given policy,
+     * using the calling thread's hasher. See
+     * {@link Hasher#generateHashWord(String, String, HashPolicy)} for details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @return the generated hash
+     */
+    public String generateHashWord(String key, String data, HashPolicy policy) {
+        return getHasher().generateHashWord(key, data, policy);
+    }
+
+    /**
+     * Hashes a tag and its bumps with a given key according to the given
+     * policy, using the calling thread's hasher. See
+     * {@link Hasher#generateBumpSeries(String, String, int, HashPolicy)} for
+     * details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param tag
+     *            the tag to hash the bumps of, without bump suffix
+     * @param bumps
+     *            the number of bumps to hash, must not be negative
+     * @param policy
+     *            the length of and requirements on the hashes
+     * @return the generated hashes, the one of the tag itself first and the
+     *         one of bump i at position i
+     */
+    public String[] generateBumpSeries(String key, String tag, int bumps, HashPolicy policy) {
+        return getHasher().generateBumpSeries(key, tag, bumps, policy);
+    }
+
+    /**
+     * Hashes many data strings with the same key and policy, using the calling
+     * thread's hasher. See
+     * {@link Hasher#generateHashWords(String, String[], HashPolicy)} for
+     * details.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data strings to hash
+     * @param policy
+     *            the length of and requirements on the hashes
+     * @return the generated hashes, in the order of the data strings
+     */
+    public String[] generateHashWords(String key, String[] data, HashPolicy policy) {
+        return getHasher().generateHashWords(key, data, policy);
+    }
+}
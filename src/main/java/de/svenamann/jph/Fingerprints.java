@@ -0,0 +1,208 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * Seeded 64 bit hashes, which identify keys and hash words by fingerprints
+ * without holding a copy of them. The seeds are drawn from a
+ * {@link SecureRandom}, such that fingerprints are neither stable nor
+ * comparable across owners.<br>
+ * <br>
+ * The plain fingerprints are non-cryptographic and may be inverted by
+ * someone who knows the seed. Secret input, such as keys, is fingerprinted
+ * with SipHash-2-4 instead, which is a keyed cryptographic hash that costs
+ * about as much as hashing a single block with SHA-1.
+ * 
+ * @author Sven Amann
+ */
+final class Fingerprints {
+
+    /**
+     * The source of seeds, shared such that it is initialized only once.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The multiplier of the hash, i.e., 2^64 divided by the golden ratio.
+     */
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /**
+     * No instances.
+     */
+    private Fingerprints() {
+    }
+
+    /**
+     * Draws a new seed, which may also serve as half of a SipHash key.
+     * 
+     * @return the seed
+     */
+    static long seed() {
+        return RANDOM.nextLong();
+    }
+
+    /**
+     * Computes the fingerprint of the given bytes.
+     * 
+     * @param seed
+     *            the seed
+     * @param bytes
+     *            the buffer holding the bytes
+     * @param offset
+     *            the start of the bytes in the buffer
+     * @param length
+     *            the number of bytes
+     * @return the fingerprint
+     */
+    static long of(long seed, byte[] bytes, int offset, int length) {
+        long h = seed ^ length;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * MULTIPLIER;
+            h ^= h >>> 29;
+        }
+        return avalanche(h);
+    }
+
+    /**
+     * Computes the SipHash-2-4 of the given bytes.
+     * 
+     * @param key0
+     *            the first half of the key
+     * @param key1
+     *            the second half of the key
+     * @param bytes
+     *            the buffer holding the bytes
+     * @param offset
+     *            the start of the bytes in the buffer
+     * @param length
+     *            the number of bytes
+     * @return the fingerprint
+     */
+    static long keyed(long key0, long key1, byte[] bytes, int offset, int length) {
+        return keyed(key0, key1, bytes, null, offset, length);
+    }
+
+    /**
+     * Computes the SipHash-2-4 of the remaining bytes of a buffer. The
+     * position of the buffer is not changed.
+     * 
+     * @param key0
+     *            the first half of the key
+     * @param key1
+     *            the second half of the key
+     * @param bytes
+     *            the buffer
+     * @return the fingerprint
+     */
+    static long keyed(long key0, long key1, ByteBuffer bytes) {
+        return keyed(key0, key1, null, bytes, bytes.position(), bytes.remaining());
+    }
+
+    /**
+     * Computes the SipHash-2-4 of the bytes of either an array or a buffer,
+     * without wrapping the array, which would allocate on every lookup.
+     * 
+     * @param key0
+     *            the first half of the key
+     * @param key1
+     *            the second half of the key
+     * @param array
+     *            the array holding the bytes, or null
+     * @param buffer
+     *            the buffer holding the bytes, if the array is null
+     * @param start
+     *            the start of the bytes
+     * @param length
+     *            the number of bytes
+     * @return the fingerprint
+     */
+    private static long keyed(long key0, long key1, byte[] array, ByteBuffer buffer, int start,
+            int length) {
+        long v0 = key0 ^ 0x736f6d6570736575L;
+        long v1 = key1 ^ 0x646f72616e646f6dL;
+        long v2 = key0 ^ 0x6c7967656e657261L;
+        long v3 = key1 ^ 0x7465646279746573L;
+        // the last message block holds the remaining bytes and the length in
+        // its top byte, the block after it stands for the finalization
+        int blocks = length / 8 + 1;
+        for (int block = 0; block <= blocks; block++) {
+            long m = 0;
+            int rounds = 2;
+            if (block < blocks) {
+                int end = Math.min(8 * block + 8, length);
+                for (int i = 8 * block; i < end; i++) {
+                    byte b = array != null ? array[start + i] : buffer.get(start + i);
+                    m |= (b & 0xffL) << (8 * (i & 7));
+                }
+                if (block == blocks - 1) {
+                    m |= (long) length << 56;
+                }
+            } else {
+                v2 ^= 0xff;
+                rounds = 4;
+            }
+            v3 ^= m;
+            for (int round = 0; round < rounds; round++) {
+                v0 += v1;
+                v1 = Long.rotateLeft(v1, 13) ^ v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3;
+                v3 = Long.rotateLeft(v3, 16) ^ v2;
+                v0 += v3;
+                v3 = Long.rotateLeft(v3, 21) ^ v0;
+                v2 += v1;
+                v1 = Long.rotateLeft(v1, 17) ^ v2;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Mixes the bits of the given value, such that each input bit affects all
+     * output bits.
+     * 
+     * @param h
+     *            the value
+     * @return the mixed value
+     */
+    static long avalanche(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
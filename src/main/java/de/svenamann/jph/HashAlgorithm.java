@@ -0,0 +1,215 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * The functions a {@link Hasher} may derive hash words with. The derived
+ * bytes are encoded and transformed according to the {@link HashPolicy} in
+ * the same way for all algorithms, hence, all algorithms share the hash word
+ * lengths and requirements. Use {@link #PASSWORD_HASHER} for hash words
+ * compatible with PasswordHasher and a stretched algorithm, such as
+ * {@link #pbkdf2(int)}, for new credentials, whose hash words are costly to
+ * guess from a known master password candidate.
+ * 
+ * @author Sven Amann
+ */
+public abstract class HashAlgorithm {
+
+    /**
+     * The algorithm of PasswordHasher, i.e., HMAC-SHA1 of the tag with the
+     * master password as key, computed by the {@link HmacEngine#JCA JCA}.
+     */
+    public static final HashAlgorithm PASSWORD_HASHER = passwordHasher(HmacEngine.JCA);
+
+    /**
+     * The number of iterations {@link #calibratePbkdf2(long)} measures with
+     * first.
+     */
+    private static final int PROBE_ITERATIONS = 1000;
+
+    /**
+     * The minimum duration of the measurements the calibration is
+     * extrapolated from, in nanoseconds.
+     */
+    private static final long MIN_PROBE_NANOS = 20000000L;
+
+    /**
+     * The default time {@link #calibratePbkdf2(long, long)} measures before
+     * the measurements that count, in milliseconds. The derivation takes
+     * several times longer until the JIT compiler optimized it, which may take
+     * a few hundred milliseconds.
+     */
+    public static final long DEFAULT_WARM_UP_MILLIS = 1000;
+
+    /**
+     * The number of measurements the calibration is extrapolated from.
+     */
+    private static final int MEASUREMENTS = 5;
+
+    /**
+     * Only the algorithms declared here.
+     */
+    private HashAlgorithm() {
+    }
+
+    /**
+     * Gets the algorithm of PasswordHasher, computed by the given HMAC
+     * implementation. All implementations yield the same hash words.
+     * 
+     * @param engine
+     *            the HMAC implementation
+     * @return the algorithm
+     */
+    public static HashAlgorithm passwordHasher(final HmacEngine engine) {
+        return new HashAlgorithm() {
+            @Override
+            Hmac create() {
+                return engine.create();
+            }
+
+            @Override
+            public String toString() {
+                return "PasswordHasher (HMAC-SHA1, " + engine + ")";
+            }
+        };
+    }
+
+    /**
+     * Gets the PBKDF2 algorithm with HMAC-SHA256 as pseudo-random function.
+     * The master password is the password, the tag is the salt and the
+     * derived key has the length of the HMAC-SHA1 values of PasswordHasher.
+     * Each iteration costs about as much as one hash word of PasswordHasher.
+     * 
+     * @param iterations
+     *            the number of iterations, must be positive
+     * @return the algorithm
+     * @see #calibratePbkdf2(long)
+     */
+    public static HashAlgorithm pbkdf2(final int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Illegal number of iterations: iterations = "
+                    + iterations + ", required 0 < iterations");
+        }
+        return new HashAlgorithm() {
+            @Override
+            Hmac create() {
+                return new Pbkdf2(new JcaHmac("HmacSHA256"), iterations);
+            }
+
+            @Override
+            public String toString() {
+                return "PBKDF2 (HMAC-SHA256, " + iterations + " iterations)";
+            }
+        };
+    }
+
+    /**
+     * Determines the number of iterations of {@link #pbkdf2(int)}, for which
+     * generating a hash word takes the given time on this machine. Measures
+     * with growing numbers of iterations until a measurement takes long
+     * enough to be reliable, then warms up and extrapolates from the fastest
+     * of a few measurements. The calibration takes about a second plus a few
+     * times the target time.
+     * 
+     * @param targetMillis
+     *            the time to generate a hash word in, in milliseconds, must
+     *            be positive
+     * @return the number of iterations, at least 1
+     * @see #DEFAULT_WARM_UP_MILLIS
+     */
+    public static int calibratePbkdf2(long targetMillis) {
+        return calibratePbkdf2(targetMillis, DEFAULT_WARM_UP_MILLIS);
+    }
+
+    /**
+     * Determines the number of iterations of {@link #pbkdf2(int)}, for which
+     * generating a hash word takes the given time on this machine, warming up
+     * for the given time. Without a warm-up, the result may be several times
+     * too small. See {@link #calibratePbkdf2(long)} for details.
+     * 
+     * @param targetMillis
+     *            the time to generate a hash word in, in milliseconds, must
+     *            be positive
+     * @param warmUpMillis
+     *            the time to measure before the measurements that count, in
+     *            milliseconds, must not be negative
+     * @return the number of iterations, at least 1
+     */
+    public static int calibratePbkdf2(long targetMillis, long warmUpMillis) {
+        if (targetMillis < 1 || warmUpMillis < 0) {
+            throw new IllegalArgumentException("Illegal calibration: target = " + targetMillis
+                    + ", warm-up = " + warmUpMillis + ", required 0 < target, 0 <= warm-up");
+        }
+        long target = targetMillis * 1000000L;
+        long warmUp = warmUpMillis * 1000000L;
+        long minProbe = Math.min(MIN_PROBE_NANOS, target / 2);
+        int iterations = PROBE_ITERATIONS;
+        double fastest = Double.MAX_VALUE;
+        long spent = 0;
+        int measurements = 0;
+        while (measurements < MEASUREMENTS) {
+            long nanos = measure(iterations);
+            if (nanos < minProbe && iterations <= Integer.MAX_VALUE / 2) {
+                iterations *= 2;
+            } else if (spent >= warmUp) {
+                fastest = Math.min(fastest, (double) Math.max(nanos, 1) / iterations);
+                measurements++;
+            }
+            spent += nanos;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(target / fastest)));
+    }
+
+    /**
+     * Measures the derivation of a key with PBKDF2.
+     * 
+     * @param iterations
+     *            the number of iterations
+     * @return the duration in nanoseconds
+     */
+    private static long measure(int iterations) {
+        Hmac mac = pbkdf2(iterations).create();
+        byte[] key = new byte[Pbkdf2.LENGTH];
+        mac.init("calibration-master".getBytes());
+        long start = System.nanoTime();
+        mac.update("calibration-tag".getBytes());
+        mac.doFinal(key);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Creates an uninitialized MAC computing this algorithm.
+     * 
+     * @return the MAC
+     */
+    abstract Hmac create();
+}
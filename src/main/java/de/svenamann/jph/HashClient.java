@@ -0,0 +1,174 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * A client of a {@link HashServer}. A client finds the server in the file the
+ * server published itself in and sends requests only after the server proved
+ * to know the token of this file. A client keeps its connection open, such
+ * that it may send any number of requests. Clients are not thread-safe.
+ * 
+ * @author Sven Amann
+ */
+public class HashClient {
+
+    /**
+     * The connection to the server.
+     */
+    private final Socket socket;
+
+    /**
+     * Reads responses from the server.
+     */
+    private final BufferedReader reader;
+
+    /**
+     * Writes requests to the server.
+     */
+    private final BufferedWriter writer;
+
+    /**
+     * Connects to the server published in the given file and performs the
+     * handshake.
+     * 
+     * @param file
+     *            the file the server published itself in
+     * @throws IOException
+     *             if reading the file or connecting fails, or if the server
+     *             fails the handshake
+     */
+    public HashClient(File file) throws IOException {
+        Properties address = HashServer.read(file);
+        socket = new Socket(InetAddress.getByName(null), HashServer.port(address));
+        try {
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    HashServer.ENCODING));
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    HashServer.ENCODING));
+            socket.setSoTimeout(HashServer.HANDSHAKE_TIMEOUT_MILLIS);
+            authenticate(HashServer.token(address));
+            socket.setSoTimeout(0);
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Performs the client side of the handshake, see
+     * {@link HashServer}.
+     * 
+     * @param token
+     *            the token of the server
+     * @throws IOException
+     *             if the communication fails or the server does not prove to
+     *             know the token
+     */
+    private void authenticate(byte[] token) throws IOException {
+        String challenge = HashServer.nonce();
+        writer.write(challenge);
+        writer.newLine();
+        writer.flush();
+        String reply = reader.readLine();
+        int separator = reply == null ? -1 : reply.indexOf(' ');
+        if (separator < 0
+                || !MessageDigest.isEqual(reply.substring(0, separator).getBytes(
+                        HashServer.ENCODING), HashServer.proof(token,
+                        HashServer.SERVER_ROLE, challenge).getBytes(HashServer.ENCODING))) {
+            throw new IOException("Server failed to authenticate");
+        }
+        writer.write(HashServer.proof(token, HashServer.CLIENT_ROLE,
+                reply.substring(separator + 1)));
+        writer.newLine();
+        writer.flush();
+        if (!HashServer.ACCEPTED.equals(reader.readLine())) {
+            throw new IOException("Server rejected authentication");
+        }
+    }
+
+    /**
+     * Requests the hash of a tag.
+     * 
+     * @param master
+     *            the master password, must not contain tabs or line breaks
+     * @param line
+     *            the tag, optionally followed by options for this tag,
+     *            separated by whitespace
+     * @return the hash
+     * @throws IOException
+     *             if the communication with the server fails
+     * @throws IllegalArgumentException
+     *             if the server rejects the request
+     */
+    public String hash(String master, String line) throws IOException {
+        if (master.indexOf('\t') >= 0 || master.indexOf('\n') >= 0
+                || master.indexOf('\r') >= 0 || line.indexOf('\n') >= 0
+                || line.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Illegal separator in request");
+        }
+        writer.write(master);
+        writer.write('\t');
+        writer.write(line);
+        writer.newLine();
+        writer.flush();
+        String response = reader.readLine();
+        if (response == null) {
+            throw new EOFException("Server closed connection");
+        } else if (response.startsWith(HashServer.ERROR)) {
+            throw new IllegalArgumentException(response.substring(HashServer.ERROR.length()));
+        }
+        return response;
+    }
+
+    /**
+     * Closes the connection to the server.
+     * 
+     * @throws IOException
+     *             if closing fails
+     */
+    public void close() throws IOException {
+        socket.close();
+    }
+}
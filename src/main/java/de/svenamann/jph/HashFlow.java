@@ -0,0 +1,144 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * Interfaces for asynchronous streams with non-blocking backpressure, as
+ * specified by <a href="http://www.reactive-streams.org/">Reactive Streams</a>.
+ * They declare the same methods as the nested interfaces of
+ * <code>java.util.concurrent.Flow</code>, which is not available on the Java
+ * versions supported by this project, such that adapting between both takes
+ * a single delegating method per signal.
+ * 
+ * @author Sven Amann
+ */
+public final class HashFlow {
+
+    /**
+     * No instances.
+     */
+    private HashFlow() {
+    }
+
+    /**
+     * A producer of items received by subscribers.
+     * 
+     * @param <T>
+     *            the type of items
+     */
+    public static interface Publisher<T> {
+
+        /**
+         * Adds the given subscriber. The publisher calls
+         * {@link Subscriber#onSubscribe(Subscription)} first and, if the
+         * subscription fails, {@link Subscriber#onError(Throwable)}
+         * afterwards.
+         * 
+         * @param subscriber
+         *            the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods are called in order, never
+     * concurrently, and items are only passed as requested by the
+     * subscription.
+     * 
+     * @param <T>
+     *            the type of items
+     */
+    public static interface Subscriber<T> {
+
+        /**
+         * Called before any other method, with the subscription to request
+         * items from.
+         * 
+         * @param subscription
+         *            the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item.
+         * 
+         * @param item
+         *            the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the subscription fails. No further methods are called.
+         * 
+         * @param throwable
+         *            the cause
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called when all items have been passed. No further methods are
+         * called.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a subscriber.
+     */
+    public static interface Subscription {
+
+        /**
+         * Adds the given number of items to the items the subscriber is
+         * willing to receive.
+         * 
+         * @param n
+         *            the number of items, must be positive
+         */
+        void request(long n);
+
+        /**
+         * Causes the publisher to stop passing items, eventually.
+         */
+        void cancel();
+    }
+
+    /**
+     * A subscriber that publishes items derived from the items it receives.
+     * 
+     * @param <T>
+     *            the type of items received
+     * @param <R>
+     *            the type of items published
+     */
+    public static interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
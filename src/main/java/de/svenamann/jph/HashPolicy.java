@@ -0,0 +1,545 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * An immutable set of hashing options, i.e., the length of the hash words and
+ * the requirements on their characters. A policy is checked once on creation
+ * and compiles the options into the transformations to apply to the encoded
+ * MAC. Policies may be shared freely between threads and hashers.<br>
+ * <br>
+ * The transformations are equivalent to the ones of the original
+ * PasswordHasher, which applies each character injection only if the
+ * respective character class is missing outside a reserved block. Since the
+ * reserved block is the same for all injections and the injections themselves
+ * only modify characters inside the block, the policy determines the classes
+ * outside the block in a single pass, before it applies any injection.
+ * 
+ * @author Sven Amann
+ */
+public final class HashPolicy {
+
+    /**
+     * The width of the reserved block.
+     */
+    private static final int RESERVED_WIDTH = 4;
+
+    /**
+     * Character class of digits, as checked by the digit injection.
+     */
+    private static final int DIGIT = 1;
+
+    /**
+     * Character class of punctuation, as checked by the punctuation injection.
+     */
+    private static final int PUNCTUATION = 2;
+
+    /**
+     * Character class of upper case letters, as checked by the mixed case
+     * injection.
+     */
+    private static final int UPPER = 4;
+
+    /**
+     * Character class of lower case letters, as checked by the mixed case
+     * injection.
+     */
+    private static final int LOWER = 8;
+
+    /**
+     * Character class of special characters, i.e., non alpha-numerical ones.
+     */
+    private static final int SPECIAL = 16;
+
+    /**
+     * The character classes of the ASCII characters. Note that the injection
+     * checks include the character following the respective range, e.g., '0'
+     * counts as punctuation.
+     */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (int c = 0; c < CLASSES.length; c++) {
+            int classes = 0;
+            if (inRange(c, 48, 48 + 10)) {
+                classes |= DIGIT;
+            }
+            if (inRange(c, 33, 33 + 15)) {
+                classes |= PUNCTUATION;
+            }
+            if (inRange(c, 65, 65 + 26)) {
+                classes |= UPPER;
+            }
+            if (inRange(c, 97, 97 + 26)) {
+                classes |= LOWER;
+            }
+            if (!(inRange(c, 48, 57) || inRange(c, 65, 90) || inRange(c, 97, 122))) {
+                classes |= SPECIAL;
+            }
+            CLASSES[c] = (byte) classes;
+        }
+    }
+
+    /**
+     * The policies created so far, indexed by length and flags.
+     */
+    private static final HashPolicy[] POLICIES = new HashPolicy[32 * Hasher.MAX_HASH_WORD_SIZE];
+
+    /**
+     * The default policy of PasswordHasher, i.e., 16 characters with at least
+     * one digit, one punctuation and mixed case.
+     */
+    public static final HashPolicy DEFAULT = of(16, true, true, true, false, false);
+
+    /**
+     * The length of the hash words.
+     */
+    private final int length;
+
+    /**
+     * Whether the hash words contain a digit.
+     */
+    private final boolean requireDigit;
+
+    /**
+     * Whether the hash words contain a punctuation character.
+     */
+    private final boolean requirePunctuation;
+
+    /**
+     * Whether the hash words are mixed case.
+     */
+    private final boolean requireMixed;
+
+    /**
+     * Whether the hash words contain no special characters.
+     */
+    private final boolean restrictSpecial;
+
+    /**
+     * Whether the hash words contain only digits.
+     */
+    private final boolean restrictDigits;
+
+    /**
+     * Whether to convert all characters to digits. Excludes all other
+     * transformations.
+     */
+    private final boolean convertToDigits;
+
+    /**
+     * Whether to inject a digit if missing.
+     */
+    private final boolean injectDigit;
+
+    /**
+     * Whether to replace special characters.
+     */
+    private final boolean removeSpecial;
+
+    /**
+     * Whether to inject a punctuation character if missing.
+     */
+    private final boolean injectPunctuation;
+
+    /**
+     * Whether to inject upper and lower case letters if missing.
+     */
+    private final boolean injectMixed;
+
+    /**
+     * Creates a policy and compiles its transformations.
+     */
+    private HashPolicy(int length, boolean requireDigit, boolean requirePunctuation,
+            boolean requireMixed, boolean restrictSpecial, boolean restrictDigits) {
+        this.length = length;
+        this.requireDigit = requireDigit;
+        this.requirePunctuation = requirePunctuation;
+        this.requireMixed = requireMixed;
+        this.restrictSpecial = restrictSpecial;
+        this.restrictDigits = restrictDigits;
+        convertToDigits = restrictDigits;
+        injectDigit = !restrictDigits && requireDigit;
+        removeSpecial = !restrictDigits && restrictSpecial;
+        injectPunctuation = !restrictDigits && !restrictSpecial && requirePunctuation;
+        injectMixed = !restrictDigits && requireMixed;
+    }
+
+    /**
+     * Gets the policy for the given options. Policies are created once and
+     * shared.
+     * 
+     * @param length
+     *            the length of the hash words, must be positive and smaller
+     *            than 27
+     * @param requireDigit
+     *            set to ensure that at least one digit appears in the hash
+     *            words
+     * @param requirePunctuation
+     *            set to ensure that at least one punctuation character appears
+     *            in the hash words
+     * @param requireMixed
+     *            set to ensure that the hash words are mixed case
+     * @param restrictSpecial
+     *            set to ensure that no special characters are in the hash
+     *            words. Overrules requirePunctuation
+     * @param restrictDigits
+     *            set to ensure that only digits are in the hash words.
+     *            Overrules all other flags
+     * @return the policy
+     */
+    public static HashPolicy of(int length, boolean requireDigit, boolean requirePunctuation,
+            boolean requireMixed, boolean restrictSpecial, boolean restrictDigits) {
+        if (length < 1 || length > Hasher.MAX_HASH_WORD_SIZE) {
+            throw new IllegalArgumentException("Illegal hash length requested: length = "
+                    + length + ", required 0 < length <=27");
+        }
+        int index = 32 * (length - 1) + (requireDigit ? 1 : 0) + (requirePunctuation ? 2 : 0)
+                + (requireMixed ? 4 : 0) + (restrictSpecial ? 8 : 0) + (restrictDigits ? 16 : 0);
+        // racing threads may create equal policies, which is harmless
+        HashPolicy policy = POLICIES[index];
+        if (policy == null) {
+            policy = new HashPolicy(length, requireDigit, requirePunctuation, requireMixed,
+                    restrictSpecial, restrictDigits);
+            POLICIES[index] = policy;
+        }
+        return policy;
+    }
+
+    /**
+     * @return the length of the hash words
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return whether at least one digit appears in the hash words
+     */
+    public boolean isRequireDigit() {
+        return requireDigit;
+    }
+
+    /**
+     * @return whether at least one punctuation character appears in the hash
+     *         words
+     */
+    public boolean isRequirePunctuation() {
+        return requirePunctuation;
+    }
+
+    /**
+     * @return whether the hash words are mixed case
+     */
+    public boolean isRequireMixed() {
+        return requireMixed;
+    }
+
+    /**
+     * @return whether no special characters are in the hash words
+     */
+    public boolean isRestrictSpecial() {
+        return restrictSpecial;
+    }
+
+    /**
+     * @return whether only digits are in the hash words
+     */
+    public boolean isRestrictDigits() {
+        return restrictDigits;
+    }
+
+    /**
+     * @return the type of this policy, i.e., the bitmask of its flags
+     */
+    int type() {
+        return (requireDigit ? 1 : 0) + (requirePunctuation ? 2 : 0) + (requireMixed ? 4 : 0)
+                + (restrictSpecial ? 8 : 0) + (restrictDigits ? 16 : 0);
+    }
+
+    /**
+     * Gets the policy of the given length and type.
+     * 
+     * @param length
+     *            the length of the hash words
+     * @param type
+     *            the bitmask of the flags, as returned by {@link #type()}
+     * @return the policy
+     */
+    static HashPolicy of(int length, int type) {
+        return of(length, (type & 1) != 0, (type & 2) != 0, (type & 4) != 0, (type & 8) != 0,
+                (type & 16) != 0);
+    }
+
+    /**
+     * Names a policy type by the command line options of its flags.
+     * 
+     * @param type
+     *            the bitmask of the flags
+     * @return the names of the set flags, separated by '+', or "none"
+     */
+    static String typeName(int type) {
+        String[] names = { "requireDigit", "requirePunct", "requireMixed", "noSpecial",
+                "onlyDigits" };
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if ((type & (1 << i)) != 0) {
+                if (name.length() > 0) {
+                    name.append('+');
+                }
+                name.append(names[i]);
+            }
+        }
+        return name.length() > 0 ? name.toString() : "none";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HashPolicy)) {
+            return false;
+        }
+        HashPolicy other = (HashPolicy) obj;
+        return length == other.length && requireDigit == other.requireDigit
+                && requirePunctuation == other.requirePunctuation
+                && requireMixed == other.requireMixed
+                && restrictSpecial == other.restrictSpecial
+                && restrictDigits == other.restrictDigits;
+    }
+
+    @Override
+    public int hashCode() {
+        return 32 * length + type();
+    }
+
+    @Override
+    public String toString() {
+        return "--length=" + length + " --requireDigit=" + requireDigit + " --requirePunct="
+                + requirePunctuation + " --requireMixed=" + requireMixed + " --noSpecial="
+                + restrictSpecial + " --onlyDigits=" + restrictDigits;
+    }
+
+    /**
+     * Transforms the encoded MAC into the hash word, in place. The hash word
+     * is found on the first {@link #getLength()} positions afterwards.
+     * 
+     * @param data
+     *            the encoded MAC
+     * @param seed
+     *            random seed, used to determine positions and replacements
+     * @param recorder
+     *            the recorder, or null to not record anything
+     */
+    void apply(final char[] data, final int seed, final HasherMetrics.Recorder recorder) {
+        long time = recorder != null ? System.nanoTime() : 0;
+        if (convertToDigits) {
+            convertToDigits(data, seed, length);
+            if (recorder != null) {
+                recorder.stage(HasherMetrics.Recorder.CONVERT_TO_DIGITS, time);
+            }
+            return;
+        }
+        // determine the character classes outside of the "random" reserved
+        // block and whether there are special characters at all
+        int reservedStart = seed % length;
+        int outside = 0;
+        int all = 0;
+        for (int i = 0; i < length; i++) {
+            int c = data[i];
+            int classes = c < CLASSES.length ? CLASSES[c] : SPECIAL;
+            all |= classes;
+            int distance = i - reservedStart;
+            if (distance < 0) {
+                distance += length;
+            }
+            if (distance >= RESERVED_WIDTH) {
+                outside |= classes;
+            }
+        }
+        if (injectDigit && (outside & DIGIT) == 0) {
+            inject(data, seed, reservedStart, 0, 48, 10);
+        }
+        if (recorder != null) {
+            time = recorder.stage(HasherMetrics.Recorder.INJECT_CHARACTER, time);
+        }
+        if (removeSpecial) {
+            if ((all & SPECIAL) != 0) {
+                removeSpecial(data, seed, length);
+                if ((outside & SPECIAL) != 0) {
+                    // special characters are replaced by upper case letters
+                    outside |= UPPER;
+                }
+            }
+            if (recorder != null) {
+                time = recorder.stage(HasherMetrics.Recorder.REMOVE_SPECIAL, time);
+            }
+        } else if (injectPunctuation && (outside & PUNCTUATION) == 0) {
+            inject(data, seed, reservedStart, 1, 33, 15);
+        }
+        if (injectMixed) {
+            if ((outside & UPPER) == 0) {
+                inject(data, seed, reservedStart, 2, 65, 26);
+            }
+            if ((outside & LOWER) == 0) {
+                inject(data, seed, reservedStart, 3, 97, 26);
+            }
+        }
+        if (recorder != null) {
+            recorder.stage(HasherMetrics.Recorder.INJECT_CHARACTER, time);
+        }
+    }
+
+    /**
+     * Converts all non-number characters on the first length positions of data
+     * to number characters (char code modulo 10), in place.<br>
+     * <br>
+     * Note: This implementation takes over the index offset bug from
+     * PasswordHasher in order to generate corresponding results.
+     * 
+     * @param data
+     *            the chars to reduce to number characters
+     * @param seed
+     *            random seed, used to determine replacements
+     * @param length
+     *            the number of chars from data to consider
+     */
+    private static void convertToDigits(final char[] data, final int seed, final int length) {
+        // whenever a sequence of chars is kept (because they are already
+        // numbers) the first non-number char afterwards is replaced using the
+        // first char of the sequence which is then treated as a non-number
+        // char. This is an offset bug in PasswordHasher which we keep here to
+        // achieve same output. Since kept chars are never modified, reading
+        // the first of them from data yields the original char.
+        boolean charKept = false;
+        int firstKeptIndex = 0;
+        for (int i = 0; i < data.length && i < length; i++) {
+            int cur = data[i];
+            // keep numbers already present
+            if (48 <= cur && cur <= 57) {
+                if (!charKept) {
+                    charKept = true;
+                    firstKeptIndex = i;
+                }
+            } else {
+                if (charKept) {
+                    charKept = false;
+                    cur = data[firstKeptIndex];
+                }
+                data[i] = (char) (48 + (cur + seed) % 10);
+            }
+        }
+    }
+
+    /**
+     * Injects a character from a certain char range into the data chars, in
+     * place. The injection happens with a given offset from the start of the
+     * reserved block. The caller checks that no character of the range is
+     * present outside of the reserved block.
+     * 
+     * @param data
+     *            the data chars to inject into
+     * @param seed
+     *            random information
+     * @param reservedStart
+     *            the start of the reserved block
+     * @param offset
+     *            offset of the injection from the start of the reserved block
+     * @param charStart
+     *            the first char code of the range to inject from
+     * @param charWidth
+     *            the width of the range to inject from
+     */
+    private void inject(final char[] data, final int seed, final int reservedStart,
+            final int offset, final int charStart, final int charWidth) {
+        // replace the character at pos by a "random" character
+        int pos = (reservedStart + offset) % length;
+        data[pos] = (char) (((seed + data[pos]) % charWidth) + charStart);
+    }
+
+    /**
+     * Removes special characters, i.e., non alpha-numerical characters, from
+     * the first length positions of the given data chars, in place.<br>
+     * <br>
+     * Note: This implementation takes over the index offset bug and the index
+     * for char bug from PasswordHasher in order to generate corresponding
+     * results.
+     * 
+     * @param data
+     *            the data chars to free from special chars
+     * @param seed
+     *            random seed, used to determine replacements
+     * @param length
+     *            the number of characters from data to consider
+     */
+    private static void removeSpecial(final char[] data, final int seed, final int length) {
+        // whenever a sequence of chars is kept (because they are already
+        // non-special) the first special char afterwards is replaced using the
+        // index of the first non-special of the sequence. This is an offset and
+        // a index-for-char bug in PasswordHasher which we keep here to achieve
+        // same output.
+        boolean charKept = false;
+        int firstKeptIndex = 0;
+        for (int i = 0; i < length; i++) {
+            int cur = data[i];
+            if (inRange(cur, 48, 57) || inRange(cur, 65, 90) || inRange(cur, 97, 122)) {
+                if (!charKept) {
+                    charKept = true;
+                    firstKeptIndex = i;
+                }
+            } else {
+                // when replace the index is used to determine the replacement
+                // this is a bug in the original implementation
+                if (charKept) {
+                    charKept = false;
+                    cur = firstKeptIndex;
+                } else {
+                    cur = i;
+                }
+                data[i] = (char) (((cur + seed) % 26) + 65);
+            }
+        }
+    }
+
+    /**
+     * Checks l <= c <= h.
+     * 
+     * @param c
+     *            value
+     * @param l
+     *            lower bound
+     * @param h
+     *            upper bound
+     * @return <code>true</code> if contained, <code>false</code> otherwise
+     */
+    private static boolean inRange(int c, int l, int h) {
+        return (l <= c && c <= h);
+    }
+}
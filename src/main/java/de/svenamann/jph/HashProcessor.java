@@ -0,0 +1,581 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashes a stream of requests asynchronously and publishes the results,
+ * propagating the demand of its subscriber to its publisher. At most a
+ * configured number of requests are requested ahead, hashed or buffered at any
+ * time, such that a slow subscriber throttles the publisher instead of
+ * letting results pile up.<br>
+ * <br>
+ * Requests refer to master passwords by handles, which are obtained from
+ * {@link #addMaster(String)}, such that the request stream does not carry
+ * the master passwords. Requests are hashed on the given executor. Results
+ * are published in the order of the requests or, if not required, in the
+ * order of their completion. Invalid requests yield error results, such that
+ * one bad request does not terminate the stream.<br>
+ * <br>
+ * A processor serves a single subscription on either side.
+ * 
+ * @author Sven Amann
+ */
+public class HashProcessor implements HashFlow.Processor<HashProcessor.Request, HashProcessor.Result> {
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher;
+
+    /**
+     * The executor to hash on.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of requests requested from the publisher, but not
+     * yet published.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Whether results are published in the order of the requests.
+     */
+    private final boolean ordered;
+
+    /**
+     * The master passwords by handle.
+     */
+    private final ConcurrentHashMap<Long, String> masters = new ConcurrentHashMap<Long, String>();
+
+    /**
+     * The last master handle issued.
+     */
+    private final AtomicLong lastHandle = new AtomicLong();
+
+    /**
+     * The requests in flight in request order, if results are ordered.
+     */
+    private final Queue<Slot> inFlight = new ArrayDeque<Slot>();
+
+    /**
+     * The results ready to publish.
+     */
+    private final Queue<Result> done = new ArrayDeque<Result>();
+
+    /**
+     * The subscription to the publisher of requests, guarded by the
+     * processor's monitor like all following fields.
+     */
+    private HashFlow.Subscription upstream;
+
+    /**
+     * The subscriber to results.
+     */
+    private HashFlow.Subscriber<? super Result> downstream;
+
+    /**
+     * Whether the subscriber is ready to receive signals.
+     */
+    private boolean ready;
+
+    /**
+     * The number of requests requested but not yet received.
+     */
+    private long requested;
+
+    /**
+     * The number of requests received but not yet published.
+     */
+    private int outstanding;
+
+    /**
+     * The number of results requested by the subscriber but not yet
+     * published.
+     */
+    private long demand;
+
+    /**
+     * Whether the publisher of requests completed.
+     */
+    private boolean completed;
+
+    /**
+     * The failure to pass to the subscriber, if any.
+     */
+    private Throwable failure;
+
+    /**
+     * Whether the processor terminated, by completion, failure or
+     * cancellation.
+     */
+    private boolean terminated;
+
+    /**
+     * Whether a thread is publishing signals.
+     */
+    private boolean draining;
+
+    /**
+     * Creates a processor publishing results in request order.
+     * 
+     * @param executor
+     *            the executor to hash on
+     * @param maxInFlight
+     *            the maximum number of requests in flight, must be positive
+     */
+    public HashProcessor(Executor executor, int maxInFlight) {
+        this(new ConcurrentHasher(), executor, maxInFlight, true);
+    }
+
+    /**
+     * Creates a processor.
+     * 
+     * @param hasher
+     *            the hashers to hash with
+     * @param executor
+     *            the executor to hash on
+     * @param maxInFlight
+     *            the maximum number of requests in flight, must be positive
+     * @param ordered
+     *            whether results are published in the order of the requests
+     */
+    public HashProcessor(ConcurrentHasher hasher, Executor executor, int maxInFlight,
+            boolean ordered) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Illegal number of requests in flight: "
+                    + "maxInFlight = " + maxInFlight + ", required 0 < maxInFlight");
+        }
+        this.hasher = hasher;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Adds a master password to refer to by requests.
+     * 
+     * @param master
+     *            the master password
+     * @return the handle to refer to the master password by
+     */
+    public long addMaster(String master) {
+        long handle = lastHandle.incrementAndGet();
+        masters.put(handle, master);
+        return handle;
+    }
+
+    /**
+     * Removes a master password. Subsequent requests referring to it yield
+     * error results.
+     * 
+     * @param handle
+     *            the handle of the master password
+     */
+    public void removeMaster(long handle) {
+        masters.remove(handle);
+    }
+
+    public void subscribe(HashFlow.Subscriber<? super Result> subscriber) {
+        synchronized (this) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber = null;
+            }
+        }
+        if (subscriber != null) {
+            subscriber.onSubscribe(new HashFlow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Already subscribed"));
+            return;
+        }
+        downstream.onSubscribe(new HashFlow.Subscription() {
+            public void request(long n) {
+                if (n < 1) {
+                    fail(new IllegalArgumentException("Illegal demand: n = " + n
+                            + ", required 0 < n"));
+                    return;
+                }
+                synchronized (HashProcessor.this) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                drain();
+            }
+
+            public void cancel() {
+                HashFlow.Subscription subscription;
+                synchronized (HashProcessor.this) {
+                    terminated = true;
+                    inFlight.clear();
+                    done.clear();
+                    subscription = upstream;
+                }
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            }
+        });
+        synchronized (this) {
+            ready = true;
+        }
+        drain();
+    }
+
+    public void onSubscribe(HashFlow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream == null) {
+                upstream = subscription;
+                subscription = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    public void onNext(Request request) {
+        final Slot slot = new Slot(request);
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            requested--;
+            outstanding++;
+            if (ordered) {
+                inFlight.add(slot);
+            }
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    complete(slot, hash(slot.request));
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            fail(ree);
+        }
+    }
+
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = throwable;
+            }
+        }
+        drain();
+    }
+
+    public void onComplete() {
+        synchronized (this) {
+            completed = true;
+        }
+        drain();
+    }
+
+    /**
+     * Hashes a request.
+     */
+    private Result hash(Request request) {
+        String master = masters.get(request.getMaster());
+        if (master == null) {
+            return new Result(request, null, "Unknown master: handle = " + request.getMaster());
+        }
+        try {
+            return new Result(request, hasher.getHasher().generateHashWord(master,
+                    request.getTag(), request.getPolicy()), null);
+        } catch (RuntimeException e) {
+            return new Result(request, null, e.getMessage());
+        }
+    }
+
+    /**
+     * Makes a result available for publishing.
+     */
+    private void complete(Slot slot, Result result) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            if (ordered) {
+                slot.result = result;
+                while (!inFlight.isEmpty() && inFlight.peek().result != null) {
+                    done.add(inFlight.remove().result);
+                }
+            } else {
+                done.add(result);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Cancels the publisher and passes a failure to the subscriber.
+     */
+    private void fail(Throwable throwable) {
+        HashFlow.Subscription subscription;
+        synchronized (this) {
+            if (failure == null) {
+                failure = throwable;
+            }
+            subscription = upstream;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        drain();
+    }
+
+    /**
+     * Publishes the results and terminal signals that are due and requests
+     * further requests, as far as the subscriber's demand and the limit of
+     * requests in flight allow. Only one thread drains at a time, the others
+     * leave their signals to it. The draining thread checks for further
+     * signals while holding the monitor, before it stops, such that none is
+     * missed.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        List<Result> results = new ArrayList<Result>();
+        while (true) {
+            HashFlow.Subscriber<? super Result> subscriber;
+            HashFlow.Subscription subscription;
+            Throwable error = null;
+            boolean complete = false;
+            long request = 0;
+            synchronized (this) {
+                subscriber = downstream;
+                subscription = upstream;
+                if (terminated || !ready) {
+                    draining = false;
+                    return;
+                }
+                while (demand > 0 && !done.isEmpty()) {
+                    results.add(done.remove());
+                    outstanding--;
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                }
+                if (failure != null) {
+                    error = failure;
+                    terminated = true;
+                    results.clear();
+                } else if (completed && outstanding == 0 && done.isEmpty()) {
+                    complete = true;
+                    terminated = true;
+                } else if (subscription != null && !completed) {
+                    long limit = Math.min(demand, maxInFlight);
+                    request = limit - requested - outstanding;
+                    if (request > 0) {
+                        requested += request;
+                    }
+                }
+                if (results.isEmpty() && error == null && !complete && request <= 0) {
+                    draining = false;
+                    return;
+                }
+            }
+            for (Result result : results) {
+                subscriber.onNext(result);
+            }
+            results.clear();
+            if (error != null) {
+                subscriber.onError(error);
+            } else if (complete) {
+                subscriber.onComplete();
+            } else if (request > 0) {
+                subscription.request(request);
+            }
+        }
+    }
+
+    /**
+     * A request in flight.
+     */
+    private static final class Slot {
+
+        /**
+         * The request.
+         */
+        private final Request request;
+
+        /**
+         * The result, once hashed, guarded by the processor's monitor.
+         */
+        private Result result;
+
+        /**
+         * Creates a slot.
+         */
+        private Slot(Request request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * A request to hash a tag.
+     */
+    public static final class Request {
+
+        /**
+         * The handle of the master password.
+         */
+        private final long master;
+
+        /**
+         * The tag.
+         */
+        private final String tag;
+
+        /**
+         * The policy.
+         */
+        private final HashPolicy policy;
+
+        /**
+         * Creates a request.
+         * 
+         * @param master
+         *            the handle of the master password to hash with
+         * @param tag
+         *            the tag to hash
+         * @param policy
+         *            the length of and requirements on the hash
+         */
+        public Request(long master, String tag, HashPolicy policy) {
+            this.master = master;
+            this.tag = tag;
+            this.policy = policy;
+        }
+
+        /**
+         * @return the handle of the master password
+         */
+        public long getMaster() {
+            return master;
+        }
+
+        /**
+         * @return the tag
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * @return the policy
+         */
+        public HashPolicy getPolicy() {
+            return policy;
+        }
+    }
+
+    /**
+     * The result of a request, i.e., either the hash or an error message.
+     */
+    public static final class Result {
+
+        /**
+         * The request.
+         */
+        private final Request request;
+
+        /**
+         * The hash, or <code>null</code> in case of an error.
+         */
+        private final String hashWord;
+
+        /**
+         * The error message, or <code>null</code> in case of success.
+         */
+        private final String error;
+
+        /**
+         * Creates a result.
+         */
+        private Result(Request request, String hashWord, String error) {
+            this.request = request;
+            this.hashWord = hashWord;
+            this.error = error;
+        }
+
+        /**
+         * @return the request
+         */
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return the hash, or <code>null</code> if the request is invalid
+         */
+        public String getHashWord() {
+            return hashWord;
+        }
+
+        /**
+         * @return the error message, or <code>null</code> if the request was
+         *         hashed
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return whether the request is invalid
+         */
+        public boolean isError() {
+            return hashWord == null;
+        }
+    }
+}
@@ -0,0 +1,661 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A local hashing daemon. It keeps a warm JVM and a pool of threads with warmed
+ * up hashers, such that clients get their hashes without paying for the JVM
+ * start.<br>
+ * <br>
+ * The server listens on the loopback interface only, on a free port by
+ * default. It publishes the port and a random token in a file that only the
+ * user may read, see {@link #publish(File)}. Clients and server prove each
+ * other that they know the token, before a client sends its first request.
+ * Hence, only the user's processes may connect and a client never sends a
+ * master password to another process that happens to listen on the port,
+ * e.g., after the server stopped.<br>
+ * <br>
+ * After the handshake, clients send one request per line and receive one
+ * response per line, both encoded in UTF-8. A request consists of the master
+ * password and a tab, followed by a tag and optionally options for this tag,
+ * separated by whitespace, e.g., <code>topsecret&#92;texample.com --length=8</code>.
+ * The response is the hash, or <code>ERROR</code> followed by a message, if the
+ * request is invalid. Each connection may send any number of requests. Every
+ * connection is served by a thread of its own, such that idle connections do
+ * not delay others. The given number of threads is kept warm for subsequent
+ * connections. Connections beyond a maximum number are closed right away, such
+ * that opening many connections cannot exhaust threads and memory.<br>
+ * <br>
+ * The server does not store master passwords beyond the key caches of its
+ * hashers.
+ * 
+ * @author Sven Amann
+ */
+public class HashServer {
+
+    /**
+     * The maximum number of connections served at the same time by default.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /**
+     * The encoding of requests and responses.
+     */
+    static final Charset ENCODING = Charset.forName("UTF-8");
+
+    /**
+     * The prefix of responses to invalid requests.
+     */
+    static final String ERROR = "ERROR ";
+
+    /**
+     * The response that completes a successful handshake.
+     */
+    static final String ACCEPTED = "OK";
+
+    /**
+     * The role of the server in the handshake proofs.
+     */
+    static final String SERVER_ROLE = "server";
+
+    /**
+     * The role of the client in the handshake proofs.
+     */
+    static final String CLIENT_ROLE = "client";
+
+    /**
+     * The time either side waits for the other during the handshake.
+     */
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The property of the published file that holds the port.
+     */
+    private static final String PORT_PROPERTY = "port";
+
+    /**
+     * The property of the published file that holds the token.
+     */
+    private static final String TOKEN_PROPERTY = "token";
+
+    /**
+     * The number of random bytes of tokens and handshake nonces.
+     */
+    private static final int RANDOM_BYTES = 16;
+
+    /**
+     * The algorithm of the handshake proofs.
+     */
+    private static final String PROOF_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The number of hashes every thread computes to warm up.
+     */
+    private static final int WARM_UP_HASHES = 20000;
+
+    /**
+     * The source of tokens and nonces.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The socket to accept connections on.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * The number of threads kept warm.
+     */
+    private final int threads;
+
+    /**
+     * The threads serving connections.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * The connections being served, such that closing the server may close
+     * them, too.
+     */
+    private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+
+    /**
+     * The token clients have to know.
+     */
+    private final byte[] token = new byte[RANDOM_BYTES];
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher = new ConcurrentHasher();
+
+    /**
+     * The options that apply to requests that do not override them.
+     */
+    private final Options defaults = new Options();
+
+    /**
+     * The file the port and token were published in, if any.
+     */
+    private volatile File published;
+
+    /**
+     * Creates a server listening on the given port of the loopback interface,
+     * which serves up to {@link #DEFAULT_MAX_CONNECTIONS} connections at the
+     * same time.
+     * 
+     * @param port
+     *            the port to listen on, or 0 for any free port
+     * @param threads
+     *            the number of threads to keep warm for serving connections
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public HashServer(int port, int threads) throws IOException {
+        this(port, threads, Math.max(threads, DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * Creates a server listening on the given port of the loopback interface.
+     * 
+     * @param port
+     *            the port to listen on, or 0 for any free port
+     * @param threads
+     *            the number of threads to keep warm for serving connections
+     * @param maxConnections
+     *            the maximum number of connections to serve at the same time,
+     *            must not be less than the number of threads
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public HashServer(int port, int threads, int maxConnections) throws IOException {
+        if (threads < 0 || maxConnections < Math.max(threads, 1)) {
+            throw new IllegalArgumentException("Illegal server configuration: threads = "
+                    + threads + ", connections = " + maxConnections
+                    + ", required 0 <= threads <= connections, 0 < connections");
+        }
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        this.threads = threads;
+        // a handoff queue starts a thread per connection, if no idle one is
+        // left, and rejects connections beyond the maximum
+        this.pool = new ThreadPoolExecutor(threads, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "jph-server");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        RANDOM.nextBytes(token);
+    }
+
+    /**
+     * @return the default file of the user to publish the server in, i.e., the
+     *         file <code>.jph-server</code> in the home directory
+     */
+    public static File defaultFile() {
+        return new File(System.getProperty("user.home"), ".jph-server");
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Writes the port and the token of the server to the given file, which
+     * only the user may read or write, such that the user's {@link HashClient}s
+     * may connect. Replaces the previous content of the file. The file is
+     * deleted when the server is closed.
+     * 
+     * @param file
+     *            the file to publish the server in
+     * @throws IOException
+     *             if writing the file fails
+     */
+    public void publish(File file) throws IOException {
+        Properties address = new Properties();
+        address.setProperty(PORT_PROPERTY, Integer.toString(getPort()));
+        address.setProperty(TOKEN_PROPERTY, hex(token));
+        // creating the file in a directory that only the user may enter keeps
+        // others from opening it before its permissions are restricted
+        File directory = new File(file.getAbsoluteFile().getParentFile(), file.getName() + "."
+                + hex(random()) + ".tmp");
+        if (!directory.mkdir()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        File temp = new File(directory, file.getName());
+        try {
+            restrict(directory, true);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                restrict(temp, false);
+                address.store(out, "JPasswordHasher server");
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            // a lost file only keeps clients away until the server is
+            // restarted, so replacing it need not be atomic on all platforms
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Failed to write " + file);
+            }
+            published = file;
+        } finally {
+            temp.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Starts all core threads and has each of them compute some hashes, such
+     * that the threads' hashers exist and the hashing code is compiled before
+     * the first request arrives. Blocks until all threads are done.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    public void warmUp() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    // keep each thread busy until all started, such that
+                    // every thread gets a warm-up task
+                    started.countDown();
+                    try {
+                        started.await();
+                        Hasher jph = hasher.getHasher();
+                        for (int j = 0; j < WARM_UP_HASHES; j++) {
+                            defaults.hashLine(jph, "master", "warm-up" + (j % 16));
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * Accepts and serves connections until the server is closed.
+     * 
+     * @throws IOException
+     *             if accepting connections fails for another reason than the
+     *             server being closed
+     */
+    public void serve() throws IOException {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException ioe) {
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+                    throw ioe;
+                }
+                connections.add(socket);
+                // close() may have missed the connection
+                if (serverSocket.isClosed()) {
+                    close(socket);
+                    break;
+                }
+                try {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            handle(socket);
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    // too many connections
+                    close(socket);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes all served connections and deletes
+     * the published file, unless another server replaced it meanwhile.
+     * 
+     * @throws IOException
+     *             if closing the server socket fails
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        pool.shutdownNow();
+        // closing the sockets unblocks threads waiting for requests
+        List<Socket> open;
+        synchronized (connections) {
+            open = new ArrayList<Socket>(connections);
+        }
+        for (Socket socket : open) {
+            close(socket);
+        }
+        File file = published;
+        if (file != null) {
+            published = null;
+            try {
+                if (Arrays.equals(token, token(read(file)))) {
+                    file.delete();
+                }
+            } catch (IOException ioe) {
+                // file is gone or not ours anymore
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection, until the client closes it or fails
+     * the handshake.
+     * 
+     * @param socket
+     *            the connection
+     */
+    private void handle(Socket socket) {
+        Hasher jph = hasher.getHasher();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), ENCODING));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), ENCODING));
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            if (!authenticate(reader, writer)) {
+                return;
+            }
+            socket.setSoTimeout(0);
+            String request;
+            while ((request = reader.readLine()) != null) {
+                writer.write(respond(jph, request));
+                writer.newLine();
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        } catch (IOException ioe) {
+            // connection broke down or timed out, nothing to respond to
+        } finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Performs the server side of the handshake. The client sends a nonce, the
+     * server answers with its proof for this nonce and a nonce of its own, and
+     * the client answers with its proof for the server's nonce. Neither side
+     * reveals the token.
+     * 
+     * @param reader
+     *            reads from the client
+     * @param writer
+     *            writes to the client
+     * @return whether the client proved to know the token
+     * @throws IOException
+     *             if the communication with the client fails
+     */
+    private boolean authenticate(BufferedReader reader, BufferedWriter writer)
+            throws IOException {
+        String challenge = reader.readLine();
+        if (challenge == null || challenge.length() != 2 * RANDOM_BYTES) {
+            return false;
+        }
+        String nonce = hex(random());
+        writer.write(proof(token, SERVER_ROLE, challenge) + " " + nonce);
+        writer.newLine();
+        writer.flush();
+        String response = reader.readLine();
+        if (response == null
+                || !MessageDigest.isEqual(response.getBytes(ENCODING),
+                        proof(token, CLIENT_ROLE, nonce).getBytes(ENCODING))) {
+            return false;
+        }
+        writer.write(ACCEPTED);
+        writer.newLine();
+        writer.flush();
+        return true;
+    }
+
+    /**
+     * Computes the response to a request.
+     * 
+     * @param jph
+     *            the hasher to use
+     * @param request
+     *            the request line
+     * @return the response line
+     */
+    private String respond(Hasher jph, String request) {
+        int separator = request.indexOf('\t');
+        if (separator < 0) {
+            return ERROR + "Missing master password";
+        }
+        try {
+            return defaults.hashLine(jph, request.substring(0, separator),
+                    request.substring(separator + 1));
+        } catch (IllegalArgumentException iae) {
+            return ERROR + iae.getMessage();
+        }
+    }
+
+    /**
+     * Closes a connection, ignoring failures, and stops tracking it.
+     * 
+     * @param socket
+     *            the connection
+     */
+    private void close(Socket socket) {
+        connections.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // nothing left to do
+        }
+    }
+
+    /**
+     * Reads a file published by a server.
+     * 
+     * @param file
+     *            the published file
+     * @return the port and token of the server
+     * @throws IOException
+     *             if reading fails or the file is no published file
+     */
+    static Properties read(File file) throws IOException {
+        Properties address = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            address.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            port(address);
+            token(address);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Not a server file: " + file);
+        }
+        return address;
+    }
+
+    /**
+     * @param address
+     *            the content of a published file
+     * @return the port of the server
+     * @throws IllegalArgumentException
+     *             if the port is missing or invalid
+     */
+    static int port(Properties address) {
+        String port = address.getProperty(PORT_PROPERTY);
+        if (port == null) {
+            throw new IllegalArgumentException("Missing port");
+        }
+        return Integer.parseInt(port);
+    }
+
+    /**
+     * @param address
+     *            the content of a published file
+     * @return the token of the server
+     * @throws IllegalArgumentException
+     *             if the token is missing or invalid
+     */
+    static byte[] token(Properties address) {
+        String hex = address.getProperty(TOKEN_PROPERTY);
+        if (hex == null || hex.length() != 2 * RANDOM_BYTES) {
+            throw new IllegalArgumentException("Missing token");
+        }
+        byte[] token = new byte[RANDOM_BYTES];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return token;
+    }
+
+    /**
+     * @return a fresh handshake nonce
+     */
+    static String nonce() {
+        return hex(random());
+    }
+
+    /**
+     * Computes the proof that one side of the handshake knows the token.
+     * 
+     * @param token
+     *            the token
+     * @param role
+     *            the role of the proving side, such that a proof cannot be
+     *            reflected to its sender
+     * @param nonce
+     *            the nonce of the other side
+     * @return the proof
+     */
+    static String proof(byte[] token, String role, String nonce) {
+        try {
+            Mac mac = Mac.getInstance(PROOF_ALGORITHM);
+            mac.init(new SecretKeySpec(token, PROOF_ALGORITHM));
+            return hex(mac.doFinal((role + " " + nonce).getBytes(ENCODING)));
+        } catch (GeneralSecurityException gse) {
+            // every Java platform supports HMAC-SHA256
+            throw new IllegalStateException(gse);
+        }
+    }
+
+    /**
+     * @return fresh random bytes for a token or nonce
+     */
+    private static byte[] random() {
+        byte[] bytes = new byte[RANDOM_BYTES];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param bytes
+     *            the bytes to encode
+     * @return the bytes in lower case hexadecimal notation
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Restricts the permissions of a file to the owner. Best effort, as not
+     * all platforms support these permissions.
+     * 
+     * @param file
+     *            the file
+     * @param directory
+     *            whether the file is a directory, which the owner must be
+     *            allowed to enter
+     */
+    private static void restrict(File file, boolean directory) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+        file.setExecutable(false, false);
+        if (directory) {
+            file.setExecutable(true, true);
+        }
+    }
+}
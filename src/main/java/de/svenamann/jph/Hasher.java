@@ -31,61 +31,176 @@
  */
 package de.svenamann.jph;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
-import sun.misc.BASE64Encoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 /**
  * A Java implementation of the PassHashCommon class from the original
  * JavaScript implementation of PasswordHasher by Steve Cooper.<br>
  * <br>
  * The API for generating hash words has been taken over. Naturally, all browser
- * based functionality has been omitted.
+ * based functionality has been omitted.<br>
+ * <br>
+ * Each hasher caches the MAC state derived from the most recently used keys,
+ * such that hashing many tags with the same master key does not repeat the key
+ * setup. The MACs are computed by the Java Cryptography Architecture or by the
+ * {@link HmacEngine#BUILT_IN built-in} implementation, which is faster for
+ * short tags. Instead of the MAC of PasswordHasher, hashers may derive hash
+ * words with another {@link HashAlgorithm}, such as a stretched one for new
+ * credentials. Instances are not thread-safe, since they reuse their MACs and buffers
+ * between calls. Use one instance per thread or a {@link ConcurrentHasher} instead.
  * 
  * @author Sven Amann
  */
 public class Hasher {
 
     /**
-     * The algorithm used for encoding.
+     * The number of keys a hasher caches the MAC state of by default.
      */
-    private static final String ALGORITHM = "HmacSHA1";
+    public static final int DEFAULT_KEY_CACHE_SIZE = 8;
 
     /**
-     * The encoder used to encode the encrypted value.
+     * The maximum length of a hash word, i.e., the length of the encoded MAC
+     * without base64 padding.
      */
-    private static final BASE64Encoder ENCODER = new BASE64Encoder();
+    public static final int MAX_HASH_WORD_SIZE = 27;
 
     /**
-     * The MAC used for encryption.
+     * The separator of a tag and its bump counter.
      */
-    private final Mac mac;
+    private static final String BUMP_SEPARATOR = ":";
 
     /**
-     * Creates a MAC instance for {@link #ALGORITHM}. A
-     * {@link NoSuchAlgorithmException} will be suppressed since the constant
-     * value of {@link #ALGORITHM} is expected to refer to a valid algorithm.
-     * 
-     * @return the created instance
+     * The {@link #BUMP_SEPARATOR} encoded in the platform's default charset.
      */
-    private static Mac createMac() {
-        try {
-            return Mac.getInstance(ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            // cannot happen since algorithm is hardcoded and exists
-            return null;
-        }
+    private static final byte[] BUMP_SEPARATOR_BYTES = BUMP_SEPARATOR.getBytes();
+
+    /**
+     * The base64 alphabet used to encode the encrypted value.
+     */
+    private static final char[] BASE64 = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789+/").toCharArray();
+
+    /**
+     * The MACs used for encryption, by key.
+     */
+    private final KeyCache keys;
+
+    /**
+     * Buffer for the encrypted value.
+     */
+    private final byte[] encrypted;
+
+    /**
+     * Buffer for the encoded value, which is transformed into the hash word in
+     * place.
+     */
+    private final char[] base = new char[MAX_HASH_WORD_SIZE];
+
+    /**
+     * The encoder of the charset used most recently, or null.
+     */
+    private CharsetEncoder encoder;
+
+    /**
+     * Buffer for the characters to encode, which is wiped after use, since
+     * they may be the key.
+     */
+    private CharBuffer decoded = CharBuffer.allocate(64);
+
+    /**
+     * Buffer for encoded keys, which is wiped after use.
+     */
+    private ByteBuffer encodedKey = ByteBuffer.allocate(64);
+
+    /**
+     * Buffer for encoded data.
+     */
+    private ByteBuffer encodedData = ByteBuffer.allocate(256);
+
+    /**
+     * Buffer for the digits of bump counters, which end at its capacity.
+     */
+    private final ByteBuffer bumpDigits = ByteBuffer.allocate(10);
+
+    /**
+     * The recorder of the metrics, or null if no metrics are recorded.
+     */
+    private HasherMetrics.Recorder recorder;
+
+    /**
+     * Creates a hasher instance that caches the MAC state of up to
+     * {@link #DEFAULT_KEY_CACHE_SIZE} keys.
+     */
+    public Hasher() {
+        this(DEFAULT_KEY_CACHE_SIZE);
     }
 
     /**
      * Creates a hasher instance.
+     * 
+     * @param keyCacheSize
+     *            the number of keys to cache the MAC state of, must be
+     *            positive
      */
-    public Hasher() {
-        mac = createMac();
+    public Hasher(int keyCacheSize) {
+        this(keyCacheSize, HmacEngine.JCA);
+    }
+
+    /**
+     * Creates a hasher instance using the given HMAC implementation. All
+     * implementations yield the same hash words.
+     * 
+     * @param keyCacheSize
+     *            the number of keys to cache the MAC state of, must be
+     *            positive
+     * @param engine
+     *            the HMAC implementation
+     */
+    public Hasher(int keyCacheSize, HmacEngine engine) {
+        this(keyCacheSize, HashAlgorithm.passwordHasher(engine));
+    }
+
+    /**
+     * Creates a hasher instance using the given algorithm. Only the
+     * {@link HashAlgorithm#passwordHasher(HmacEngine) PasswordHasher}
+     * algorithm yields the hash words of the original PasswordHasher.
+     * 
+     * @param keyCacheSize
+     *            the number of keys to cache the MAC state of, must be
+     *            positive
+     * @param algorithm
+     *            the algorithm to derive hash words with
+     */
+    public Hasher(int keyCacheSize, HashAlgorithm algorithm) {
+        keys = new KeyCache(algorithm, keyCacheSize);
+        encrypted = new byte[keys.getMacLength()];
+    }
+
+    /**
+     * Wipes the MAC state of all cached keys. The hasher remains usable.
+     */
+    public void clearKeyCache() {
+        keys.clear();
+    }
+
+    /**
+     * Sets the metrics to record the generation of hash words to. Hashers
+     * without metrics record nothing. The former metrics keep what this
+     * hasher recorded so far.
+     * 
+     * @param metrics
+     *            the metrics, or null to stop recording
+     */
+    public void setMetrics(HasherMetrics metrics) {
+        if (recorder != null) {
+            recorder.detach();
+        }
+        recorder = metrics != null ? metrics.newRecorder(this) : null;
     }
 
     /**
@@ -118,15 +233,416 @@ public class Hasher {
     public String generateHashWord(String key, String data, int hashWordSize, boolean requireDigit,
             boolean requirePunctuation, boolean requireMixed, boolean restrictSpecial,
             boolean restrictDigits) {
-        if (hashWordSize < 1 || hashWordSize > 27) {
-            throw new IllegalArgumentException("Illegal hash length requested: length = "
-                    + hashWordSize + ", required 0 < length <=27");
+        return generateHashWord(key, data, policy(hashWordSize, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits));
+    }
+
+    /**
+     * Hashes a data string with a given key according to the given policy. The
+     * implementation complies with the original PasswordHasher.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @return the generated hash
+     */
+    public String generateHashWord(String key, String data, HashPolicy policy) {
+        long start = startTime();
+        Hmac mac = keyedMac(key);
+        mac.update(data.getBytes());
+        generate(mac, policy, start);
+        return new String(base, 0, policy.getLength());
+    }
+
+    /**
+     * Hashes a data string with a given key and the passed parameters and
+     * writes the result to the first hashWordSize positions of the given
+     * buffer. Apart from the buffer, this is equivalent to
+     * {@link #generateHashWord(String, String, int, boolean, boolean, boolean, boolean, boolean)}
+     * , but does not create a string for the result.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param hashWordSize
+     *            the length of the has to generate, must be positive and
+     *            smaller than 27
+     * @param requireDigit
+     *            set to ensure that at least one digit appears in the result
+     *            hash
+     * @param requirePunctuation
+     *            set to ensure that at least one punctuation character appears
+     *            in the result hash
+     * @param requireMixed
+     *            set to ensure that the result hash is mixed case
+     * @param restrictSpecial
+     *            set to ensure that no special characters are in the result
+     *            hash. Overrules requirePunctuation
+     * @param restrictDigits
+     *            set to ensure that only digits are in the result hash.
+     *            Overrules all other flags
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least
+     *            hashWordSize characters
+     */
+    public void generateHashWord(String key, String data, int hashWordSize,
+            boolean requireDigit, boolean requirePunctuation, boolean requireMixed,
+            boolean restrictSpecial, boolean restrictDigits, char[] hashWord) {
+        generateHashWord(key, data, policy(hashWordSize, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits), hashWord);
+    }
+
+    /**
+     * Hashes a data string with a given key according to the given policy and
+     * writes the result to the first positions of the given buffer. Apart from
+     * the buffer, this is equivalent to
+     * {@link #generateHashWord(String, String, HashPolicy)}, but does not create
+     * a string for the result.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(String key, String data, HashPolicy policy, char[] hashWord) {
+        checkBuffer(hashWord, policy);
+        long start = startTime();
+        Hmac mac = keyedMac(key);
+        mac.update(data.getBytes());
+        generate(mac, policy, start);
+        System.arraycopy(base, 0, hashWord, 0, policy.getLength());
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer with a given key according to
+     * the given policy and writes the result to the first positions of the
+     * given buffer. The bytes are passed to the MAC directly, hence, the
+     * result equals the one of
+     * {@link #generateHashWord(String, String, HashPolicy, char[])} for a data
+     * string, whose encoding in the platform's default charset are these
+     * bytes.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data to hash with, whose position is advanced to its
+     *            limit
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(String key, ByteBuffer data, HashPolicy policy,
+            char[] hashWord) {
+        checkBuffer(hashWord, policy);
+        long start = startTime();
+        Hmac mac = keyedMac(key);
+        mac.update(data);
+        generate(mac, policy, start);
+        System.arraycopy(base, 0, hashWord, 0, policy.getLength());
+    }
+
+    /**
+     * Hashes a data string with a given key according to the given policy and
+     * writes the result to the first positions of the given buffer. Key and
+     * data are encoded in the given charset, rather than in the platform's
+     * default charset, hence, the results are the same on all platforms.
+     * Unmappable characters are replaced like by {@link String#getBytes()}.
+     * The encoded key is wiped after use.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param charset
+     *            the charset to encode key and data in
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(String key, String data, Charset charset, HashPolicy policy,
+            char[] hashWord) {
+        checkBuffer(hashWord, policy);
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
         }
+        try {
+            encodedKey = encode(key, encodedKey);
+            encodedData = encode(data, encodedData);
+            generateHashWord(encodedKey, encodedData, policy, hashWord);
+        } finally {
+            wipe(encodedKey);
+            Arrays.fill(decoded.array(), '\0');
+        }
+    }
+
+    /**
+     * Hashes data bytes with given key bytes according to the given policy and
+     * writes the result to the first positions of the given buffer. The
+     * result equals the one of
+     * {@link #generateHashWord(String, String, HashPolicy, char[])} for key and
+     * data strings, whose encodings in the platform's default charset are
+     * these bytes. The key bytes are not copied, apart from initializing the
+     * MAC with a key for the first time.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data the hash with
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(byte[] key, byte[] data, HashPolicy policy, char[] hashWord) {
+        checkBuffer(hashWord, policy);
+        long start = startTime();
+        Hmac mac = keys.get(key);
+        mac.update(data);
+        generate(mac, policy, start);
+        System.arraycopy(base, 0, hashWord, 0, policy.getLength());
+    }
 
-        String base = encrypt(key, data);
-        // PasswordHasher drops base64 padding '=' (and trailing newline) by
-        // crypto configuration
-        base = base.substring(0, base.length() - 2);
+    /**
+     * Hashes the remaining data bytes with the remaining key bytes according
+     * to the given policy and writes the result to the first positions of the
+     * given buffer. Apart from the buffers, this is equivalent to
+     * {@link #generateHashWord(byte[], byte[], HashPolicy, char[])}. Direct
+     * buffers, e.g., of mapped files or sockets, are hashed without copying
+     * them to the heap.
+     * 
+     * @param key
+     *            the key to hash with, whose position is not changed
+     * @param data
+     *            the data to hash with, whose position is advanced to its
+     *            limit
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param hashWord
+     *            the buffer to write the hash to, must hold at least the
+     *            policy's length of characters
+     */
+    public void generateHashWord(ByteBuffer key, ByteBuffer data, HashPolicy policy,
+            char[] hashWord) {
+        checkBuffer(hashWord, policy);
+        long start = startTime();
+        Hmac mac = keys.get(key);
+        mac.update(data);
+        generate(mac, policy, start);
+        System.arraycopy(base, 0, hashWord, 0, policy.getLength());
+    }
+
+    /**
+     * Hashes many data strings with the same key and parameters. This is
+     * equivalent to calling
+     * {@link #generateHashWord(String, String, int, boolean, boolean, boolean, boolean, boolean)}
+     * for each data string, but sets up the key and checks the parameters only
+     * once.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data strings to hash
+     * @param hashWordSize
+     *            the length of the hashes to generate, must be positive and
+     *            smaller than 27
+     * @param requireDigit
+     *            set to ensure that at least one digit appears in the result
+     *            hashes
+     * @param requirePunctuation
+     *            set to ensure that at least one punctuation character appears
+     *            in the result hashes
+     * @param requireMixed
+     *            set to ensure that the result hashes are mixed case
+     * @param restrictSpecial
+     *            set to ensure that no special characters are in the result
+     *            hashes. Overrules requirePunctuation
+     * @param restrictDigits
+     *            set to ensure that only digits are in the result hashes.
+     *            Overrules all other flags
+     * @return the generated hashes, in the order of the data strings
+     */
+    public String[] generateHashWords(String key, String[] data, int hashWordSize,
+            boolean requireDigit, boolean requirePunctuation, boolean requireMixed,
+            boolean restrictSpecial, boolean restrictDigits) {
+        return generateHashWords(key, data, policy(hashWordSize, requireDigit,
+                requirePunctuation, requireMixed, restrictSpecial, restrictDigits));
+    }
+
+    /**
+     * Hashes many data strings with the same key and policy. This is
+     * equivalent to calling
+     * {@link #generateHashWord(String, String, HashPolicy)} for each data
+     * string, but sets up the key only once.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param data
+     *            the data strings to hash
+     * @param policy
+     *            the length of and requirements on the hashes
+     * @return the generated hashes, in the order of the data strings
+     */
+    public String[] generateHashWords(String key, String[] data, HashPolicy policy) {
+        long start = startTime();
+        Hmac keyed = keyedMac(key);
+        String[] hashWords = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            if (i > 0) {
+                start = startTime();
+            }
+            Hmac mac = keyed.begin();
+            mac.update(data[i].getBytes());
+            generate(mac, policy, start);
+            hashWords[i] = new String(base, 0, policy.getLength());
+        }
+        return hashWords;
+    }
+
+    /**
+     * Hashes a tag and its bumps with a given key according to the given
+     * policy. Like PasswordHasher, bump i of a tag is the tag followed by ':'
+     * and i. This is equivalent to calling
+     * {@link #generateHashWord(String, String, HashPolicy)} for the tag and
+     * each of its bumps, but absorbs the tag into the MAC only once and
+     * continues from a copy of that state for each bump.
+     * 
+     * @param key
+     *            the key to hash with
+     * @param tag
+     *            the tag to hash the bumps of, without bump suffix
+     * @param bumps
+     *            the number of bumps to hash, must not be negative
+     * @param policy
+     *            the length of and requirements on the hashes
+     * @return the generated hashes, the one of the tag itself first and the
+     *         one of bump i at position i
+     */
+    public String[] generateBumpSeries(String key, String tag, int bumps, HashPolicy policy) {
+        if (bumps < 0) {
+            throw new IllegalArgumentException("Illegal number of bumps: bumps = " + bumps
+                    + ", required 0 <= bumps");
+        }
+        String[] hashWords = new String[bumps + 1];
+        long start = startTime();
+        Hmac prefix = keyedMac(key);
+        try {
+            prefix.update(tag.getBytes());
+            generate(prefix.copy(), policy, start);
+            hashWords[0] = new String(base, 0, policy.getLength());
+            prefix.update(BUMP_SEPARATOR_BYTES);
+            for (int i = 1; i <= bumps; i++) {
+                start = startTime();
+                Hmac mac = prefix.copy();
+                mac.update(digits(i));
+                generate(mac, policy, start);
+                hashWords[i] = new String(base, 0, policy.getLength());
+            }
+        } finally {
+            // the prefix may be the cached MAC itself
+            prefix.reset();
+        }
+        return hashWords;
+    }
+
+    /**
+     * Writes the decimal digits of a bump counter to {@link #bumpDigits}.
+     * Digits are ASCII characters, which encode to the same bytes in all
+     * charsets the platform's default may be.
+     * 
+     * @param bump
+     *            the bump counter, must be positive
+     * @return the buffer holding the digits, ready to be read
+     */
+    private ByteBuffer digits(int bump) {
+        int position = bumpDigits.capacity();
+        do {
+            bumpDigits.put(--position, (byte) ('0' + bump % 10));
+            bump /= 10;
+        } while (bump > 0);
+        bumpDigits.limit(bumpDigits.capacity()).position(position);
+        return bumpDigits;
+    }
+
+    /**
+     * Gets the policy for the given options, recording illegal options as
+     * errors.
+     * 
+     * @return the policy
+     * @see HashPolicy#of(int, boolean, boolean, boolean, boolean, boolean)
+     */
+    private HashPolicy policy(int hashWordSize, boolean requireDigit,
+            boolean requirePunctuation, boolean requireMixed, boolean restrictSpecial,
+            boolean restrictDigits) {
+        try {
+            return HashPolicy.of(hashWordSize, requireDigit, requirePunctuation, requireMixed,
+                    restrictSpecial, restrictDigits);
+        } catch (IllegalArgumentException iae) {
+            if (recorder != null) {
+                recorder.error();
+            }
+            throw iae;
+        }
+    }
+
+    /**
+     * @return the current time, if metrics are recorded, and 0 otherwise
+     */
+    private long startTime() {
+        return recorder != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Checks that a buffer can hold the hash words of a policy.
+     * 
+     * @param hashWord
+     *            the buffer
+     * @param policy
+     *            the policy
+     */
+    private static void checkBuffer(char[] hashWord, HashPolicy policy) {
+        if (hashWord.length < policy.getLength()) {
+            throw new IllegalArgumentException("Hash word buffer too small: capacity = "
+                    + hashWord.length + ", length = " + policy.getLength());
+        }
+    }
+
+    /**
+     * Generates the hash word into the first positions of {@link #base}, using
+     * a MAC that is initialized with the key and has absorbed the data
+     * already.
+     * 
+     * @param mac
+     *            the keyed MAC, which is reset afterwards
+     * @param policy
+     *            the length of and requirements on the hash
+     * @param start
+     *            the start of the generation, as returned by
+     *            {@link #startTime()}
+     */
+    private void generate(Hmac mac, HashPolicy policy, long start) {
+        mac.doFinal(encrypted);
+        long time = start;
+        if (recorder != null) {
+            time = recorder.stage(HasherMetrics.Recorder.HMAC, time);
+        }
+        // PasswordHasher drops base64 padding '=' by crypto configuration,
+        // hence, we encode only the MAX_HASH_WORD_SIZE significant characters
+        encode(encrypted, base);
 
         // Use the checksum of all characters as a pseudo-randomizing seed to
         // avoid making the injected characters easy to guess. Note that it
@@ -135,199 +651,105 @@ public class Hasher {
         // characters so that they are guaranteed unique positions based on
         // their offsets.
         int sum = 0;
-        for (int i = 0; i < base.length(); i++) {
-            sum += base.charAt(i);
+        for (int i = 0; i < base.length; i++) {
+            sum += base[i];
+        }
+        if (recorder != null) {
+            recorder.stage(HasherMetrics.Recorder.ENCODE, time);
         }
 
-        if (restrictDigits) {
-            base = convertToDigits(base, sum, hashWordSize);
-        } else {
-            if (requireDigit) {
-                base = injectCharacter(base, sum, hashWordSize, 4, 0, 48, 10);
-            }
-            if (restrictSpecial) {
-                base = removeSpecial(base, sum, hashWordSize);
-            } else if (requirePunctuation) {
-                base = injectCharacter(base, sum, hashWordSize, 4, 1, 33, 15);
-            }
-            if (requireMixed) {
-                base = injectCharacter(base, sum, hashWordSize, 4, 2, 65, 26);
-                base = injectCharacter(base, sum, hashWordSize, 4, 3, 97, 26);
-            }
+        policy.apply(base, sum, recorder);
+        if (recorder != null) {
+            recorder.call(policy, start);
         }
-        // Trim it to size.
-        return base.substring(0, hashWordSize);
     }
 
     /**
-     * Encrypts the given data using the given key. The {@link #ALGORITHM} is
-     * used and the result encoded using {@link #ENCODER}.
+     * Gets a MAC, which is initialized with the given key.
      * 
      * @param key
      *            the crypto key
-     * @param data
-     *            the value to encrypt
-     * @return the encrypted, encoded value
+     * @return the keyed MAC
      */
-    private String encrypt(String key, String data) {
-        try {
-            mac.init(new SecretKeySpec(key.getBytes(), ALGORITHM));
-            byte[] publicBytes = mac.doFinal(data.getBytes());
-            return ENCODER.encodeBuffer(publicBytes);
-        } catch (InvalidKeyException ike) {
-            // impossible since valid key is created here
-            return null;
-        }
+    private Hmac keyedMac(String key) {
+        byte[] keyBytes = key.getBytes();
+        Hmac mac = keys.get(keyBytes);
+        Arrays.fill(keyBytes, (byte) 0);
+        return mac;
     }
 
     /**
-     * Converts all non-number characters on the first hashWordSize positions of
-     * data to number characters (char code modulo 10).<br>
-     * <br>
-     * Note: This implementation takes over the index offset bug from
-     * PasswordHasher in order to generate corresponding results.
+     * Encodes a string with the current {@link #encoder} into the given
+     * buffer, which is replaced by a larger buffer if required. The old buffer
+     * is wiped in that case. The characters are copied to {@link #decoded}
+     * first.
      * 
-     * @param data
-     *            the string to reduce to number characters
-     * @param seed
-     * @param length
-     * @return
-     */
-    private String convertToDigits(final String data, final int seed, final int length) {
-        String result = "";
-        // whenever a sequence of chars is kept (because they are already
-        // numbers) the first non-number char afterwards is replaced using the
-        // first char of the sequence which is then treated as a non-number
-        // char. This is an offset bug in PasswordHasher which we keep here to
-        // achieve same output.
-        boolean charKept = false;
-        int firstKeptIndex = 0;
-        for (int i = 0; i < data.length() && i < length; i++) {
-            int cur = data.charAt(i);
-            // keep numbers already present
-            if (48 <= cur && cur <= 57) {
-                if (!charKept) {
-                    charKept = true;
-                    firstKeptIndex = i;
-                }
-                result += (char) cur;
-            } else {
-                if (charKept) {
-                    charKept = false;
-                    cur = data.charAt(firstKeptIndex);
-                }
-                result += (cur + seed) % 10;
-            }
+     * @param chars
+     *            the string to encode
+     * @param buffer
+     *            the buffer to encode into
+     * @return the buffer holding the encoded string, ready to be read
+     */
+    private ByteBuffer encode(String chars, ByteBuffer buffer) {
+        int required = (int) Math.ceil(encoder.maxBytesPerChar() * chars.length());
+        if (buffer.capacity() < required) {
+            wipe(buffer);
+            buffer = ByteBuffer.allocate(required);
         }
-        return result;
+        if (decoded.capacity() < chars.length()) {
+            Arrays.fill(decoded.array(), '\0');
+            decoded = CharBuffer.allocate(chars.length());
+        }
+        // copies the characters rather than wrapping them, which allocates
+        decoded.clear();
+        chars.getChars(0, chars.length(), decoded.array(), 0);
+        decoded.limit(chars.length());
+        buffer.clear();
+        encoder.reset();
+        encoder.encode(decoded, buffer, true);
+        encoder.flush(buffer);
+        buffer.flip();
+        return buffer;
     }
 
     /**
-     * Injects a character from a certain char range into the data string if
-     * there is no char from the respective range already present outside of a
-     * reserved block. The reserved block will be "randomly" placed using the
-     * seed and have the given width. The injection will happen with a given
-     * offset from the start of the reserved block.
+     * Overwrites the complete content of the given buffer with zeros.
      * 
-     * @param data
-     *            the data string to inject into
-     * @param seed
-     *            random information
-     * @param length
-     *            the number of chars from data to consider
-     * @param reservedWith
-     *            the width of the reserved block
-     * @param offset
-     *            offset of the injection from the start of the reserved block
-     * @param charStart
-     *            the first char code of the range to inject from
-     * @param charWidth
-     *            the width of the range to inject from
-     * @return the injection result
-     */
-    private String injectCharacter(final String data, final int seed,
-            final int length, final int reservedWith, final int offset, final int charStart,
-            final int charWidth) {
-        // determine "random" position of the reserved block
-        int reservedStart = seed % length;
-        int reservedEnd = reservedStart + reservedWith;
-        // check for special character outside the reserved block
-        // return unmodified input if one is found
-        for (int i = 0; i < length - reservedWith; i++) {
-            int c = data.charAt((reservedEnd + i) % length);
-            if (inRange(c, charStart, charStart + charWidth)) {
-                return data;
-            }
+     * @param buffer
+     *            the buffer
+     */
+    private static void wipe(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
         }
-        // replace the character at pos by a "random" character
-        int pos = (reservedStart + offset) % length;
-        StringBuffer buf = new StringBuffer(data.length());
-        buf.append((pos > 0 ? data.substring(0, pos) : ""));
-        buf.append((char) (((seed + data.charAt(pos)) % charWidth) + charStart));
-        buf.append((pos + 1 < data.length() ? data.substring(pos + 1) : ""));
-        return buf.toString();
+        buffer.clear();
     }
 
     /**
-     * Removes special characters, i.e., non alpha-numerical characters, from
-     * the given data string.<br>
-     * <br>
-     * Note: This implementation takes over the index offset bug and the index
-     * for char bug from PasswordHasher in order to generate corresponding
-     * results.
+     * Encodes the given bytes in base64, omitting the padding, and writes as
+     * many characters as fit into the given buffer.
      * 
-     * @param data
-     *            the data string to free from special chars
-     * @param seed
-     *            random seed, used to determine replacements
-     * @param length
-     *            the number of characters from data to consider
-     * @return the generated string
-     */
-    private String removeSpecial(final String data, final int seed, final int length) {
-        String result = "";
-        // whenever a sequence of chars is kept (because they are already
-        // non-special) the first special char afterwards is replaced using the
-        // index of the first non-special of the sequence. This is an offset and
-        // a index-for-char bug in PasswordHasher which we keep here to achieve
-        // same output.
-        boolean charKept = false;
-        int firstKeptIndex = 0;
-        for (int i = 0; i < length; i++) {
-            int cur = data.charAt(i);
-            if (inRange(cur, 48, 57) || inRange(cur, 65, 90) || inRange(cur, 97, 122)) {
-                if (!charKept) {
-                    charKept = true;
-                    firstKeptIndex = i;
-                }
-                result += Character.toString((char) cur);
-            } else {
-                // when replace the index is used to determine the replacement
-                // this is a bug in the original implementation
-                if (charKept) {
-                    charKept = false;
-                    cur = firstKeptIndex;
-                } else {
-                    cur = i;
-                }
-                result += Character.toString((char) (((cur + seed) % 26) + 65));
+     * @param bytes
+     *            the bytes to encode
+     * @param chars
+     *            the buffer to write the encoded characters to
+     */
+    private static void encode(final byte[] bytes, final char[] chars) {
+        int c = 0;
+        for (int b = 0; b < bytes.length && c < chars.length; b += 3) {
+            int group = (bytes[b] & 0xff) << 16;
+            if (b + 1 < bytes.length) {
+                group |= (bytes[b + 1] & 0xff) << 8;
+            }
+            if (b + 2 < bytes.length) {
+                group |= bytes[b + 2] & 0xff;
+            }
+            // a trailing group of n < 3 bytes yields n + 1 characters
+            int groupChars = Math.min(bytes.length - b, 3) + 1;
+            for (int i = 0; i < groupChars && c < chars.length; i++) {
+                chars[c++] = BASE64[(group >> (18 - 6 * i)) & 0x3f];
             }
         }
-        return result;
-    }
-
-    /**
-     * Checks l <= c <= h.
-     * 
-     * @param c
-     *            value
-     * @param l
-     *            lower bound
-     * @param h
-     *            upper bound
-     * @return <code>true</code> if contained, <code>false</code> otherwise
-     */
-    private boolean inRange(int c, int l, int h) {
-        return (l <= c && c <= h);
     }
 }
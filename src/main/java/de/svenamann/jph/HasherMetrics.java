@@ -0,0 +1,445 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of hash generation, i.e., the number of generated hash words,
+ * rejected requests, the time spent in the stages of the generation and the
+ * latency distribution. Metrics are recorded by all hashers that are
+ * {@link Hasher#setMetrics(HasherMetrics) attached} to the same instance and
+ * may be published via JMX.<br>
+ * <br>
+ * Every hasher records to its own {@link Recorder}, which is written by the
+ * hasher's thread only. Recording therefore requires no locks or atomic
+ * read-modify-write operations. Reading the metrics combines all recorders
+ * and, hence, sees a recent but not necessarily consistent state. Resetting
+ * the metrics does not write to the recorders either, but stores their state
+ * as a baseline, which reading subtracts. Hashers without metrics merely check
+ * that they have none.<br>
+ * <br>
+ * The recorders of hashers that are attached to other metrics or garbage
+ * collected are added to the retired metrics and dropped, such that the
+ * number of recorders is bounded by the number of live hashers.
+ * 
+ * @author Sven Amann
+ */
+public class HasherMetrics implements HasherMetricsMXBean {
+
+    /**
+     * The domain of the metrics' JMX object names.
+     */
+    public static final String DOMAIN = "de.svenamann.jph";
+
+    /**
+     * The recorders of all attached hashers.
+     */
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+    /**
+     * The metrics of the detached recorders, which is written only while
+     * holding its monitor.
+     */
+    private final Recorder retired = new Recorder(null, null);
+
+    /**
+     * Creates a recorder for a hasher.
+     * 
+     * @param hasher
+     *            the hasher
+     * @return the recorder
+     */
+    Recorder newRecorder(Hasher hasher) {
+        retireCollected();
+        Recorder recorder = new Recorder(this, hasher);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Drops a recorder, which is no longer recorded to, and keeps its
+     * metrics as retired metrics.
+     * 
+     * @param recorder
+     *            the recorder
+     */
+    private void detach(Recorder recorder) {
+        synchronized (retired) {
+            if (recorders.remove(recorder)) {
+                retired.add(recorder.net(), 1);
+            }
+        }
+    }
+
+    /**
+     * Detaches the recorders of garbage collected hashers.
+     */
+    private void retireCollected() {
+        for (Recorder recorder : recorders) {
+            if (recorder.hasher.get() == null) {
+                detach(recorder);
+            }
+        }
+    }
+
+    /**
+     * @return the metrics of all attached hashers and the retired metrics
+     *         since the last reset
+     */
+    private List<Recorder> recorders() {
+        retireCollected();
+        List<Recorder> all = new ArrayList<Recorder>();
+        for (Recorder recorder : recorders) {
+            all.add(recorder.net());
+        }
+        all.add(retired.net());
+        return all;
+    }
+
+    /**
+     * Publishes these metrics via the platform MBean server.
+     * 
+     * @param name
+     *            the name to distinguish these metrics from others
+     * @return the object name of the metrics
+     * @throws JMException
+     *             if the name is invalid or already in use
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=HasherMetrics,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public long getCalls() {
+        long calls = 0;
+        for (Recorder recorder : recorders()) {
+            for (int i = 0; i < recorder.calls.length(); i++) {
+                calls += recorder.calls.get(i);
+            }
+        }
+        return calls;
+    }
+
+    public Map<String, Long> getCallsPerPolicy() {
+        Map<String, Long> calls = new TreeMap<String, Long>();
+        List<Recorder> all = recorders();
+        for (int type = 0; type < Recorder.POLICY_TYPES; type++) {
+            long count = 0;
+            for (Recorder recorder : all) {
+                count += recorder.calls.get(type);
+            }
+            if (count > 0) {
+                calls.put(HashPolicy.typeName(type), count);
+            }
+        }
+        return calls;
+    }
+
+    public long getErrors() {
+        long errors = 0;
+        for (Recorder recorder : recorders()) {
+            errors += recorder.errors.get(0);
+        }
+        return errors;
+    }
+
+    public long getHmacNanos() {
+        return stageNanos(Recorder.HMAC);
+    }
+
+    public long getEncodeNanos() {
+        return stageNanos(Recorder.ENCODE);
+    }
+
+    public long getConvertToDigitsNanos() {
+        return stageNanos(Recorder.CONVERT_TO_DIGITS);
+    }
+
+    public long getInjectCharacterNanos() {
+        return stageNanos(Recorder.INJECT_CHARACTER);
+    }
+
+    public long getRemoveSpecialNanos() {
+        return stageNanos(Recorder.REMOVE_SPECIAL);
+    }
+
+    public long getLatencyP50Nanos() {
+        return latencies().getPercentile(0.5);
+    }
+
+    public long getLatencyP99Nanos() {
+        return latencies().getPercentile(0.99);
+    }
+
+    public long getLatencyP999Nanos() {
+        return latencies().getPercentile(0.999);
+    }
+
+    public long getLatencyMaxNanos() {
+        return latencies().getMax();
+    }
+
+    /**
+     * Resets all metrics to 0. Hashes generated concurrently may or may not
+     * be counted afterwards, but all hashes generated before are not.
+     */
+    public void reset() {
+        for (Recorder recorder : recorders) {
+            recorder.reset();
+        }
+        synchronized (retired) {
+            retired.reset();
+        }
+    }
+
+    /**
+     * Sums up the time spent in a stage.
+     * 
+     * @param stage
+     *            the stage
+     * @return the time in nanoseconds
+     */
+    private long stageNanos(int stage) {
+        long nanos = 0;
+        for (Recorder recorder : recorders()) {
+            nanos += recorder.stageNanos.get(stage);
+        }
+        return nanos;
+    }
+
+    /**
+     * @return the combined latencies of all recorders
+     */
+    private LatencyHistogram latencies() {
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (Recorder recorder : recorders()) {
+            latencies.merge(recorder.latencies);
+        }
+        return latencies;
+    }
+
+    /**
+     * Records the metrics of a single hasher. Must be used by one thread at a
+     * time.
+     */
+    static final class Recorder {
+
+        /**
+         * The stage of key setup and MAC computation.
+         */
+        static final int HMAC = 0;
+
+        /**
+         * The stage of encoding the MAC.
+         */
+        static final int ENCODE = 1;
+
+        /**
+         * The stage of converting to digits.
+         */
+        static final int CONVERT_TO_DIGITS = 2;
+
+        /**
+         * The stage of injecting characters, including the check whether
+         * injections are required.
+         */
+        static final int INJECT_CHARACTER = 3;
+
+        /**
+         * The stage of removing special characters.
+         */
+        static final int REMOVE_SPECIAL = 4;
+
+        /**
+         * The number of policy types.
+         */
+        static final int POLICY_TYPES = 32;
+
+        /**
+         * The metrics recorded to, or null for the retired metrics and copies.
+         */
+        private final HasherMetrics metrics;
+
+        /**
+         * The hasher recording, which is cleared once it is garbage
+         * collected.
+         */
+        private final WeakReference<Hasher> hasher;
+
+        /**
+         * The number of hash words generated per policy type.
+         */
+        private final AtomicLongArray calls = new AtomicLongArray(POLICY_TYPES);
+
+        /**
+         * The number of rejected requests.
+         */
+        private final AtomicLongArray errors = new AtomicLongArray(1);
+
+        /**
+         * The time spent per stage.
+         */
+        private final AtomicLongArray stageNanos = new AtomicLongArray(5);
+
+        /**
+         * The latencies of generating hash words.
+         */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The metrics at the last reset, which are subtracted when reading, or
+         * null. Only set by readers, such that the recording thread remains
+         * the only writer of the metrics.
+         */
+        private volatile Recorder baseline;
+
+        /**
+         * Creates a recorder.
+         * 
+         * @param metrics
+         *            the metrics recorded to, or null for the retired metrics
+         *            and copies
+         * @param hasher
+         *            the hasher recording, or null for the retired metrics and
+         *            copies
+         */
+        private Recorder(HasherMetrics metrics, Hasher hasher) {
+            this.metrics = metrics;
+            this.hasher = new WeakReference<Hasher>(hasher);
+        }
+
+        /**
+         * Detaches this recorder from its metrics, which keep the metrics
+         * recorded so far. The hasher must not record afterwards.
+         */
+        void detach() {
+            metrics.detach(this);
+        }
+
+        /**
+         * Records the time spent in a stage.
+         * 
+         * @param stage
+         *            the stage
+         * @param since
+         *            the start of the stage
+         * @return the end of the stage, i.e., the current time
+         */
+        long stage(int stage, long since) {
+            long now = System.nanoTime();
+            // single writer, hence, no need for atomic additions
+            stageNanos.lazySet(stage, stageNanos.get(stage) + now - since);
+            return now;
+        }
+
+        /**
+         * Records the generation of a hash word.
+         * 
+         * @param policy
+         *            the policy of the hash word
+         * @param start
+         *            the start of the generation
+         */
+        void call(HashPolicy policy, long start) {
+            latencies.record(System.nanoTime() - start);
+            int type = policy.type();
+            calls.lazySet(type, calls.get(type) + 1);
+        }
+
+        /**
+         * Records a rejected request.
+         */
+        void error() {
+            errors.lazySet(0, errors.get(0) + 1);
+        }
+
+        /**
+         * Adds the metrics of another recorder to this recorder or subtracts
+         * them.
+         * 
+         * @param other
+         *            the recorder
+         * @param sign
+         *            1 to add the metrics, -1 to subtract them
+         */
+        private void add(Recorder other, int sign) {
+            for (int i = 0; i < calls.length(); i++) {
+                calls.lazySet(i, calls.get(i) + sign * other.calls.get(i));
+            }
+            errors.lazySet(0, errors.get(0) + sign * other.errors.get(0));
+            for (int i = 0; i < stageNanos.length(); i++) {
+                stageNanos.lazySet(i, stageNanos.get(i) + sign * other.stageNanos.get(i));
+            }
+            if (sign > 0) {
+                latencies.merge(other.latencies);
+            } else {
+                latencies.subtract(other.latencies);
+            }
+        }
+
+        /**
+         * @return a copy of the metrics recorded since the last reset
+         */
+        private Recorder net() {
+            Recorder net = new Recorder(null, null);
+            net.add(this, 1);
+            Recorder base = baseline;
+            if (base != null) {
+                net.add(base, -1);
+            }
+            return net;
+        }
+
+        /**
+         * Resets the metrics of this recorder to 0, by keeping a copy of them
+         * as baseline.
+         */
+        private void reset() {
+            Recorder base = new Recorder(null, null);
+            base.add(this, 1);
+            baseline = base;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link HasherMetrics}. Times are given in
+ * nanoseconds.
+ * 
+ * @author Sven Amann
+ */
+public interface HasherMetricsMXBean {
+
+    /**
+     * @return the number of generated hash words
+     */
+    long getCalls();
+
+    /**
+     * @return the number of generated hash words per policy type, i.e., per
+     *         set of options besides the length
+     */
+    Map<String, Long> getCallsPerPolicy();
+
+    /**
+     * @return the number of requests rejected because of an illegal length
+     */
+    long getErrors();
+
+    /**
+     * @return the time spent setting up keys and computing MACs
+     */
+    long getHmacNanos();
+
+    /**
+     * @return the time spent encoding MACs
+     */
+    long getEncodeNanos();
+
+    /**
+     * @return the time spent converting hash words to digits
+     */
+    long getConvertToDigitsNanos();
+
+    /**
+     * @return the time spent injecting required characters
+     */
+    long getInjectCharacterNanos();
+
+    /**
+     * @return the time spent removing special characters
+     */
+    long getRemoveSpecialNanos();
+
+    /**
+     * @return the median time to generate a hash word
+     */
+    long getLatencyP50Nanos();
+
+    /**
+     * @return the 99th percentile of the time to generate a hash word
+     */
+    long getLatencyP99Nanos();
+
+    /**
+     * @return the 99.9th percentile of the time to generate a hash word
+     */
+    long getLatencyP999Nanos();
+
+    /**
+     * @return the longest time to generate a hash word
+     */
+    long getLatencyMaxNanos();
+
+    /**
+     * Resets all metrics to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,107 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A keyed message authentication code computation. Unlike a
+ * {@link javax.crypto.Mac}, an instance keeps the state derived from its key
+ * after absorbing the inner padding, such that computing a MAC for the same
+ * key again starts with hashing the data itself.<br>
+ * <br>
+ * Instances are not thread-safe.
+ * 
+ * @author Sven Amann
+ */
+abstract class Hmac {
+
+    /**
+     * @return the length of the MACs in bytes
+     */
+    abstract int getMacLength();
+
+    /**
+     * Initializes this instance with the given key, replacing its former key
+     * state, and absorbs the inner padding.
+     * 
+     * @param key
+     *            the key, which is not retained
+     */
+    abstract void init(byte[] key);
+
+    /**
+     * Gets an instance to compute one MAC with, starting in the current state
+     * of this instance. This is either this instance, if completing a MAC
+     * restores the keyed state, or a {@link #copy()}.
+     * 
+     * @return the instance to compute the MAC with
+     */
+    abstract Hmac begin();
+
+    /**
+     * Copies this instance including the data it absorbed.
+     * 
+     * @return the independent copy
+     */
+    abstract Hmac copy();
+
+    /**
+     * Absorbs the given data.
+     * 
+     * @param data
+     *            the data
+     */
+    abstract void update(byte[] data);
+
+    /**
+     * Absorbs the remaining bytes of the given buffer.
+     * 
+     * @param data
+     *            the data, whose position is advanced to its limit
+     */
+    abstract void update(ByteBuffer data);
+
+    /**
+     * Discards the data absorbed since the key setup.
+     */
+    abstract void reset();
+
+    /**
+     * Completes the MAC computation and writes the MAC to the given buffer.
+     * 
+     * @param mac
+     *            the buffer, which must hold at least {@link #getMacLength()}
+     *            bytes
+     */
+    abstract void doFinal(byte[] mac);
+}
@@ -0,0 +1,71 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * The implementations of the HMAC-SHA1 computation a {@link Hasher} may use.
+ * All implementations compute the same MACs.
+ * 
+ * @author Sven Amann
+ */
+public enum HmacEngine {
+
+    /**
+     * The implementation of the Java Cryptography Architecture, i.e., of the
+     * installed security providers.
+     */
+    JCA {
+        @Override
+        Hmac create() {
+            return new JcaHmac("HmacSHA1");
+        }
+    },
+
+    /**
+     * The built-in implementation, which is tuned for short messages such as
+     * tags. It keeps the SHA-1 states after absorbing the inner and outer
+     * padding per key and computes MACs without allocating memory.
+     */
+    BUILT_IN {
+        @Override
+        Hmac create() {
+            return new Sha1Hmac();
+        }
+    };
+
+    /**
+     * Creates an uninitialized instance of this implementation.
+     * 
+     * @return the instance
+     */
+    abstract Hmac create();
+}
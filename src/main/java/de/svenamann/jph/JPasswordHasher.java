@@ -31,7 +31,22 @@
  */
 package de.svenamann.jph;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
 
 /**
  * JPasswordHasher is lightweight console application that wraps a Java
@@ -42,37 +57,149 @@ import java.io.PrintStream;
 public class JPasswordHasher {
 
     /**
-     * Gets the value from a call argument, i.e., the substring behind '='.
-     * 
-     * @param arg
-     *            the complete argument
-     * @return the value
+     * The flag that selects the stream mode.
      */
-    private static String value(String arg) {
-        return arg.substring(arg.indexOf("=") + 1);
-    }
+    private static final String STDIN = "--stdin";
 
     /**
-     * Gets the value from a call flag.
-     * 
-     * @param flag
-     *            the complete flag
-     * @return the value
+     * The flag that selects the server mode, optionally with the file to
+     * publish the server in.
      */
-    private static boolean flagValue(String flag) {
-        return Boolean.parseBoolean(value(flag));
-    }
+    private static final String SERVER = "--server";
 
     /**
-     * Gets the number value from a call argument.
-     * 
-     * @param arg
-     *            the complete argument
-     * @return the values
+     * The flag that selects the client mode, optionally with the file the
+     * server is published in.
      */
-    private static int intValue(String arg) {
-        return Integer.parseInt(value(arg));
-    }
+    private static final String CLIENT = "--client";
+
+    /**
+     * The argument that selects the bulk mode and sets the input file.
+     */
+    private static final String BULK = "--bulk";
+
+    /**
+     * The argument that selects the mapped bulk mode and sets the input file.
+     */
+    private static final String MAPPED = "--mapped";
+
+    /**
+     * The argument that sets the output file of the mapped bulk mode.
+     */
+    private static final String OUT = "--out";
+
+    /**
+     * The argument that selects the audit mode and sets the inventory file.
+     */
+    private static final String AUDIT = "--audit";
+
+    /**
+     * The argument that sets the dump file of the audit mode.
+     */
+    private static final String DUMP = "--dump";
+
+    /**
+     * The argument that selects the rotation mode and sets the inventory file.
+     */
+    private static final String ROTATE = "--rotate";
+
+    /**
+     * The argument that sets the journal file of the rotation mode.
+     */
+    private static final String JOURNAL = "--journal";
+
+    /**
+     * The argument that sets the number of bumps to hash a tag with.
+     */
+    private static final String BUMPS = "--bumps";
+
+    /**
+     * The argument that sets the file of the profile store.
+     */
+    private static final String PROFILES = "--profiles";
+
+    /**
+     * The flag that saves the options given as the profile of the tag.
+     */
+    private static final String SAVE = "--save";
+
+    /**
+     * The flag that increments and saves the bump counter of the tag.
+     */
+    private static final String BUMP = "--bump";
+
+    /**
+     * The argument that selects the stretched algorithm and sets its number
+     * of iterations.
+     */
+    private static final String ITERATIONS = "--iterations";
+
+    /**
+     * The flag that selects the calibration, optionally with the target time
+     * in milliseconds.
+     */
+    private static final String CALIBRATE = "--calibrate";
+
+    /**
+     * The time in milliseconds to calibrate the iterations for by default.
+     */
+    private static final int DEFAULT_CALIBRATION_MILLIS = 50;
+
+    /**
+     * The flag that selects the load generator, optionally with the time to
+     * measure in seconds.
+     */
+    private static final String BENCH = "--bench";
+
+    /**
+     * The time in seconds to measure the load for by default.
+     */
+    private static final int DEFAULT_BENCH_SECONDS = 10;
+
+    /**
+     * The argument that sets the number of requests of the load generator,
+     * instead of the time.
+     */
+    private static final String REQUESTS = "--requests";
+
+    /**
+     * The argument that sets the warm-up time of the load generator or the
+     * calibration in milliseconds.
+     */
+    private static final String WARM_UP = "--warmup";
+
+    /**
+     * The argument that sets the file of the policy mix of the load generator.
+     */
+    private static final String MIX = "--mix";
+
+    /**
+     * The argument that sets the range of tag lengths of the load generator,
+     * as min-max.
+     */
+    private static final String TAG_LENGTH = "--tagLength";
+
+    /**
+     * The argument that sets the probability of the load generator to reuse
+     * the master password.
+     */
+    private static final String MASTER_REUSE = "--masterReuse";
+
+    /**
+     * The argument that sets the HMAC engine of the load generator.
+     */
+    private static final String ENGINE = "--engine";
+
+    /**
+     * The flag that makes the load generator measure with 1, 2, 4, ... up to
+     * the given number of threads.
+     */
+    private static final String SCALING = "--scaling";
+
+    /**
+     * The argument that sets the number of server or bulk threads.
+     */
+    private static final String THREADS = "--threads";
 
     /**
      * Starts the password hasher.
@@ -81,16 +208,131 @@ public class JPasswordHasher {
      *            call arguments
      */
     public static void main(String[] args) {
-        if (args.length < 2) {
+        if (find(args, SERVER) != null) {
+            try {
+                serve(args, System.err);
+            } catch (Exception e) {
+                System.err.println("Failed to serve: " + e.getMessage());
+            }
+        } else if (find(args, CALIBRATE) != null) {
+            calibrate(args, System.out);
+        } else if (find(args, BENCH) != null) {
+            try {
+                bench(args, System.out);
+            } catch (IOException ioe) {
+                System.err.println("Failed to read mix: " + ioe.getMessage());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (args.length < 2) {
             printHelp(System.out);
+        } else if (find(args, STDIN) != null) {
+            try {
+                hashStream(args, new InputStreamReader(System.in), new OutputStreamWriter(
+                        System.out));
+            } catch (IOException ioe) {
+                System.err.println("Failed to hash stream: " + ioe.getMessage());
+            }
+        } else if (find(args, BULK) != null) {
+            try {
+                hashBulk(args, new OutputStreamWriter(System.out));
+            } catch (IOException ioe) {
+                System.err.println("Failed to hash file: " + ioe.getMessage());
+            }
+        } else if (find(args, MAPPED) != null) {
+            try {
+                hashMapped(args, Channels.newChannel(System.out));
+            } catch (IOException ioe) {
+                System.err.println("Failed to hash file: " + ioe.getMessage());
+            }
+        } else if (find(args, AUDIT) != null) {
+            try {
+                audit(args, System.in, new OutputStreamWriter(System.out));
+            } catch (IOException ioe) {
+                System.err.println("Failed to audit: " + ioe.getMessage());
+            }
+        } else if (find(args, ROTATE) != null) {
+            try {
+                rotate(args, System.err);
+            } catch (IOException ioe) {
+                System.err.println("Failed to rotate: " + ioe.getMessage());
+            }
+        } else if (find(args, CLIENT) != null) {
+            try {
+                hashRemote(args, System.out);
+            } catch (IOException ioe) {
+                System.err.println("Failed to contact server: " + ioe.getMessage());
+            } catch (IllegalArgumentException iae) {
+                System.err.println("Request rejected: " + iae.getMessage());
+            }
         } else {
             hash(args, System.out);
         }
     }
 
+    /**
+     * Finds a flag in the given arguments. The flag may have a value, i.e.,
+     * be followed by '=' and the value.
+     * 
+     * @param args
+     *            the call arguments
+     * @param flag
+     *            the flag to look for
+     * @return the complete argument, or <code>null</code> if not contained
+     */
+    private static String find(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equals(flag) || arg.startsWith(flag + "=")) {
+                return arg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number value of a flag in the given arguments.
+     * 
+     * @param args
+     *            the call arguments
+     * @param flag
+     *            the flag to look for
+     * @param defaultValue
+     *            the value if the flag is missing or has no value
+     * @return the value
+     */
+    private static int intValue(String[] args, String flag, int defaultValue) {
+        String arg = find(args, flag);
+        return arg == null || arg.indexOf('=') < 0 ? defaultValue : Options.intValue(arg);
+    }
+
+    /**
+     * Gets the server file of a flag in the given arguments.
+     * 
+     * @param args
+     *            the call arguments
+     * @param flag
+     *            the flag to look for
+     * @return the file given with the flag, or the default file of the user
+     */
+    private static File serverFile(String[] args, String flag) {
+        String arg = find(args, flag);
+        return arg == null || arg.indexOf('=') < 0 ? HashServer.defaultFile() : new File(
+                Options.value(arg));
+    }
+
     /**
      * Evaluates the given arguments, executes hashing accordingly and writes
-     * the result to the given stream.
+     * the result to the given stream. If a number of bumps is given, the
+     * hashes of the tag and of each bump are written as lines, each preceded
+     * by the bumped tag and a space.<br>
+     * <br>
+     * If the profile store exists, the options default to the tag's profile
+     * and the tag is bumped by its counter, except for the series of bumps,
+     * which always starts at the tag itself. The options given are saved as
+     * the tag's profile on request, and bumping the tag increments and saves
+     * its counter. The store is opened only if it exists or a profile is to
+     * be saved. Failing to access it is reported as a warning on
+     * {@link System#err}, and the tag is hashed without its profile.
      * 
      * @param args
      *            the hashing arguments
@@ -100,34 +342,458 @@ public class JPasswordHasher {
     public static void hash(String[] args, PrintStream ps) {
         String tag = null;
         String master = null;
-        int length = 16;
-        boolean requireDigit = true;
-        boolean requirePunctuation = true;
-        boolean requireMixed = true;
-        boolean restrictSpecial = false;
-        boolean restrictDigits = false;
         for (String arg : args) {
-            if (arg.startsWith("--requireDigit")) {
-                requireDigit = flagValue(arg);
-            } else if (arg.startsWith("--requirePunct")) {
-                requirePunctuation = flagValue(arg);
-            } else if (arg.startsWith("--requireMixed")) {
-                requireMixed = flagValue(arg);
-            } else if (arg.startsWith("--noSpecial")) {
-                restrictSpecial = flagValue(arg);
-            } else if (arg.startsWith("--onlyDigits")) {
-                restrictDigits = flagValue(arg);
-            } else if (arg.startsWith("--length")) {
-                length = intValue(arg);
-            } else if (tag == null) {
-                tag = arg;
-            } else {
+            if (!new Options().parse(arg) && !arg.startsWith(BUMPS) && !arg.startsWith(ITERATIONS)
+                    && !arg.startsWith(PROFILES) && !arg.equals(SAVE) && !arg.equals(BUMP)) {
+                if (tag == null) {
+                    tag = arg;
+                } else {
+                    master = arg;
+                }
+            }
+        }
+        boolean save = find(args, SAVE) != null || find(args, BUMP) != null;
+        File file = find(args, PROFILES) != null ? new File(Options.value(find(args, PROFILES)))
+                : ProfileStore.defaultFile();
+        ProfileStore profiles = null;
+        ProfileStore.Profile profile = null;
+        // most users have no profiles, which saves loading the store
+        if (save || ProfileStore.exists(file)) {
+            try {
+                profiles = new ProfileStore(file);
+                profile = profiles.get(tag);
+            } catch (IOException ioe) {
+                System.err.println("Warning: failed to read profiles: " + ioe.getMessage());
+            }
+        }
+        Options options = new Options(profile != null ? profile.getPolicy() : HashPolicy.DEFAULT);
+        for (String arg : args) {
+            options.parse(arg);
+        }
+        int bump = profile != null ? profile.getBump() : 0;
+        // without the store, there is no counter to increment
+        if (profiles != null && find(args, BUMP) != null) {
+            bump++;
+        }
+        profile = new ProfileStore.Profile(options.toPolicy(), bump);
+        if (profiles != null) {
+            try {
+                try {
+                    if (save) {
+                        profiles.put(tag, profile);
+                    }
+                } finally {
+                    profiles.close();
+                }
+            } catch (IOException ioe) {
+                System.err.println("Warning: failed to save profile: " + ioe.getMessage());
+            }
+        }
+        // a single hash needs no key cache, and the built-in engine avoids
+        // loading and initializing the security providers
+        Hasher jph = new Hasher(1, find(args, ITERATIONS) == null ? HashAlgorithm
+                .passwordHasher(HmacEngine.BUILT_IN) : HashAlgorithm.pbkdf2(intValue(args,
+                ITERATIONS, 0)));
+        if (find(args, BUMPS) == null) {
+            ps.println(options.hash(jph, master, profile.bump(tag)));
+        } else {
+            String[] hashes = jph.generateBumpSeries(master, tag, intValue(args, BUMPS, 1),
+                    options.toPolicy());
+            ps.println(tag + " " + hashes[0]);
+            for (int i = 1; i < hashes.length; i++) {
+                ps.println(tag + ":" + i + " " + hashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the given arguments, determines the number of iterations of
+     * the stretched algorithm, for which a hash takes the given time on this
+     * machine, and writes it as a line to the given stream.
+     * 
+     * @param args
+     *            the arguments, i.e., the calibration flag with the optional
+     *            target time in milliseconds and optionally the warm-up time
+     * @param ps
+     *            the stream to write the number of iterations to
+     * @see HashAlgorithm#calibratePbkdf2(long, long)
+     */
+    public static void calibrate(String[] args, PrintStream ps) {
+        long warmUp = HashAlgorithm.DEFAULT_WARM_UP_MILLIS;
+        if (find(args, WARM_UP) != null) {
+            warmUp = intValue(args, WARM_UP, 0);
+        }
+        ps.println(HashAlgorithm.calibratePbkdf2(intValue(args, CALIBRATE,
+                DEFAULT_CALIBRATION_MILLIS), warmUp));
+    }
+
+    /**
+     * Evaluates the given arguments, generates load on hashers accordingly
+     * and writes a report of the throughput, the latency percentiles and the
+     * allocation to the given stream. The policy mix is read from a file with
+     * one policy per line, consisting of a weight, optionally followed by
+     * options. Without mix, all requests use the options given. When scaling,
+     * the load is generated by 1, 2, 4, ... threads in turn, and the
+     * throughput per thread is reported relative to a single thread.
+     * 
+     * @param args
+     *            the arguments, i.e., the bench flag with the optional time
+     *            in seconds, and the configuration of the load
+     * @param ps
+     *            the stream to write the report to
+     * @throws IOException
+     *             if reading the mix fails
+     * @throws InterruptedException
+     *             if interrupted while generating load
+     * @see LoadGenerator
+     */
+    public static void bench(String[] args, PrintStream ps) throws IOException,
+            InterruptedException {
+        Options defaults = new Options();
+        for (String arg : args) {
+            defaults.parse(arg);
+        }
+        LoadGenerator load = new LoadGenerator();
+        if (find(args, REQUESTS) != null) {
+            load.setRequests(Long.parseLong(Options.value(find(args, REQUESTS))));
+        } else {
+            load.setDuration(intValue(args, BENCH, DEFAULT_BENCH_SECONDS) * 1000L);
+        }
+        if (find(args, WARM_UP) != null) {
+            load.setWarmUp(intValue(args, WARM_UP, 0));
+        }
+        HmacEngine engine = find(args, ENGINE) == null ? HmacEngine.JCA : HmacEngine
+                .valueOf(Options.value(find(args, ENGINE)).toUpperCase(Locale.ROOT));
+        load.setAlgorithm(find(args, ITERATIONS) == null ? HashAlgorithm.passwordHasher(engine)
+                : HashAlgorithm.pbkdf2(intValue(args, ITERATIONS, 0)));
+        if (find(args, TAG_LENGTH) != null) {
+            String[] range = Options.value(find(args, TAG_LENGTH)).split("-");
+            load.setTagLength(Integer.parseInt(range[0]), Integer
+                    .parseInt(range[range.length - 1]));
+        }
+        if (find(args, MASTER_REUSE) != null) {
+            load.setMasterReuse(Double.parseDouble(Options.value(find(args, MASTER_REUSE))));
+        }
+        if (find(args, MIX) == null) {
+            load.addPolicy(defaults.toPolicy(), 1);
+        } else {
+            BufferedReader mix = new BufferedReader(new FileReader(Options.value(find(args, MIX))));
+            try {
+                String line;
+                while ((line = mix.readLine()) != null) {
+                    String[] parts = line.trim().split("\\s+");
+                    if (parts[0].length() > 0) {
+                        Options options = new Options(defaults);
+                        for (int i = 1; i < parts.length; i++) {
+                            options.parse(parts[i]);
+                        }
+                        load.addPolicy(options.toPolicy(), Integer.parseInt(parts[0]));
+                    }
+                }
+            } finally {
+                mix.close();
+            }
+        }
+
+        int threads = intValue(args, THREADS, Runtime.getRuntime().availableProcessors());
+        ps.println("threads  hashes/s  per thread  scaling  p50(us)  p90(us)  p99(us)  p999(us)"
+                + "  B/hash");
+        double single = 0;
+        int last = 0;
+        for (int n = find(args, SCALING) == null ? threads : 1; n > 0; n = n == threads ? 0 : Math
+                .min(n * 2, threads)) {
+            load.setThreads(n);
+            LoadGenerator.Result result = load.run();
+            // fewer requests than threads run on fewer threads, which the
+            // former row already reported when scaling
+            int ran = result.getThreads();
+            if (ran == last) {
+                break;
+            }
+            last = ran;
+            double perThread = result.getThroughput() / ran;
+            if (single == 0) {
+                single = perThread;
+            }
+            LatencyHistogram latencies = result.getLatencies();
+            ps.println(String.format(Locale.ROOT,
+                    "%7d %9.0f %11.0f %8.2f %8.1f %8.1f %8.1f %9.1f %7.0f", ran, result
+                            .getThroughput(), perThread, perThread / single, latencies
+                            .getPercentile(0.5) / 1e3, latencies.getPercentile(0.9) / 1e3,
+                    latencies.getPercentile(0.99) / 1e3, latencies.getPercentile(0.999) / 1e3,
+                    result.getAllocatedBytesPerRequest()));
+        }
+    }
+
+    /**
+     * Evaluates the given arguments and hashes each line read from the given
+     * input accordingly. Each line consists of a tag, optionally followed by
+     * options that apply to this line only, separated by whitespace. For each
+     * line, the hash is written as a line to the given output. Empty lines
+     * yield empty lines, invalid lines yield a line starting with
+     * {@link BulkHasher#ERROR} and a message. The output is flushed only when
+     * no more input is available immediately and at the end of the input.
+     * 
+     * @param args
+     *            the hashing arguments, i.e., the master and the default
+     *            options
+     * @param in
+     *            the input to read tags from
+     * @param out
+     *            the output to write hashes to
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public static void hashStream(String[] args, Reader in, Writer out) throws IOException {
+        String master = null;
+        Options defaults = new Options();
+        for (String arg : args) {
+            if (!defaults.parse(arg) && !arg.equals(STDIN)) {
                 master = arg;
             }
         }
         Hasher jph = new Hasher();
-        ps.println(jph.generateHashWord(master, tag, length, requireDigit,
-                requirePunctuation, requireMixed, restrictSpecial, restrictDigits));
+        BufferedReader reader = new BufferedReader(in);
+        BufferedWriter writer = new BufferedWriter(out);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            try {
+                writer.write(defaults.hashLine(jph, master, line));
+            } catch (IllegalArgumentException iae) {
+                writer.write(BulkHasher.ERROR + iae.getMessage());
+            }
+            writer.newLine();
+            if (!reader.ready()) {
+                writer.flush();
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Evaluates the given arguments and hashes the rows of the input file
+     * accordingly, using a {@link BulkHasher}. The hashes are written to the
+     * given output in the order of the rows.
+     * 
+     * @param args
+     *            the hashing arguments, i.e., the input file, the master, the
+     *            default options and the number of threads
+     * @param out
+     *            the output to write hashes to
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public static void hashBulk(String[] args, Writer out) throws IOException {
+        String master = null;
+        Options defaults = new Options();
+        for (String arg : args) {
+            if (!defaults.parse(arg) && !arg.startsWith(BULK) && !arg.startsWith(THREADS)) {
+                master = arg;
+            }
+        }
+        BulkHasher bulk = new BulkHasher(intValue(args, THREADS, Runtime.getRuntime()
+                .availableProcessors()), BulkHasher.DEFAULT_CHUNK_SIZE);
+        Reader in = new FileReader(Options.value(find(args, BULK)));
+        try {
+            bulk.hash(master, defaults.toPolicy(), in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Evaluates the given arguments and hashes the rows of the input file
+     * accordingly, using a {@link MappedBulkHasher}. The hashes are written to
+     * the output file, if given, and to the given channel otherwise, in the
+     * order of the rows.
+     * 
+     * @param args
+     *            the hashing arguments, i.e., the input file, the optional
+     *            output file, the master, the options and the number of
+     *            threads
+     * @param out
+     *            the channel to write hashes to, if no output file is given
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public static void hashMapped(String[] args, WritableByteChannel out) throws IOException {
+        String master = null;
+        Options options = new Options();
+        for (String arg : args) {
+            if (!options.parse(arg) && !arg.startsWith(MAPPED) && !arg.startsWith(OUT)
+                    && !arg.startsWith(THREADS)) {
+                master = arg;
+            }
+        }
+        MappedBulkHasher bulk = new MappedBulkHasher(intValue(args, THREADS, Runtime
+                .getRuntime().availableProcessors()), MappedBulkHasher.DEFAULT_CHUNK_SIZE,
+                MappedBulkHasher.DEFAULT_WINDOW_SIZE);
+        File in = new File(Options.value(find(args, MAPPED)));
+        String outFile = find(args, OUT);
+        if (outFile == null) {
+            bulk.hash(master, options.toPolicy(), in, out);
+        } else {
+            FileOutputStream file = new FileOutputStream(Options.value(outFile));
+            try {
+                bulk.hash(master, options.toPolicy(), in, file.getChannel());
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Evaluates the given arguments and runs or resumes a {@link RotationJob}
+     * accordingly. The journal defaults to the inventory file with the suffix
+     * <code>.rotation</code>.
+     * 
+     * @param args
+     *            the rotation arguments, i.e., the inventory file, the
+     *            optional journal file, the number of threads, the old and the
+     *            new master and the default options
+     * @param log
+     *            the stream to report progress to
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public static void rotate(String[] args, PrintStream log) throws IOException {
+        String oldMaster = null;
+        String newMaster = null;
+        Options defaults = new Options();
+        for (String arg : args) {
+            if (!defaults.parse(arg) && !arg.startsWith(ROTATE) && !arg.startsWith(JOURNAL)
+                    && !arg.startsWith(THREADS)) {
+                if (oldMaster == null) {
+                    oldMaster = arg;
+                } else {
+                    newMaster = arg;
+                }
+            }
+        }
+        String inventory = Options.value(find(args, ROTATE));
+        String journal = find(args, JOURNAL) != null ? Options.value(find(args, JOURNAL))
+                : inventory + ".rotation";
+        new RotationJob(new File(inventory), new File(journal), intValue(args, THREADS, Runtime
+                .getRuntime().availableProcessors()), BulkHasher.DEFAULT_CHUNK_SIZE,
+                RotationJob.DEFAULT_CHECKPOINT_MILLIS).run(oldMaster, newMaster,
+                defaults.toPolicy(), log);
+    }
+
+    /**
+     * Evaluates the given arguments and audits the candidate passwords of a
+     * dump against the hash words of the inventory file accordingly, using an
+     * {@link AuditIndex}. The dump is read from the dump file, if given, and
+     * from the given input otherwise. For each match, the line number of the
+     * candidate and the matched tag are written to the given output.
+     * 
+     * @param args
+     *            the audit arguments, i.e., the inventory file, the optional
+     *            dump file, the master and the default options
+     * @param in
+     *            the input to read the dump from, if no dump file is given
+     * @param out
+     *            the output to write matches to
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    public static void audit(String[] args, InputStream in, Writer out) throws IOException {
+        String master = null;
+        Options defaults = new Options();
+        for (String arg : args) {
+            if (!defaults.parse(arg) && !arg.startsWith(AUDIT) && !arg.startsWith(DUMP)) {
+                master = arg;
+            }
+        }
+        Reader inventory = new FileReader(Options.value(find(args, AUDIT)));
+        AuditIndex index;
+        try {
+            index = AuditIndex.create(master, defaults.toPolicy(), inventory);
+        } finally {
+            inventory.close();
+        }
+        String dumpFile = find(args, DUMP);
+        if (dumpFile == null) {
+            index.audit(in, out);
+        } else {
+            InputStream dump = new FileInputStream(Options.value(dumpFile));
+            try {
+                index.audit(dump, out);
+            } finally {
+                dump.close();
+            }
+        }
+    }
+
+    /**
+     * Evaluates the given arguments and starts a {@link HashServer}
+     * accordingly. Blocks while the server is running.
+     * 
+     * @param args
+     *            the server arguments, i.e., the file to publish the server in
+     *            and the number of threads
+     * @param log
+     *            the stream to report the server state to
+     * @throws IOException
+     *             if the server fails
+     * @throws InterruptedException
+     *             if interrupted during warm-up
+     */
+    public static void serve(String[] args, PrintStream log) throws IOException,
+            InterruptedException {
+        final HashServer server = new HashServer(0, intValue(args, THREADS, Runtime.getRuntime()
+                .availableProcessors()));
+        server.warmUp();
+        File file = serverFile(args, SERVER);
+        server.publish(file);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException ioe) {
+                    // exiting anyway
+                }
+            }
+        });
+        log.println("Listening on port " + server.getPort() + ", published in " + file);
+        server.serve();
+    }
+
+    /**
+     * Evaluates the given arguments, requests the hash from a running
+     * {@link HashServer} and writes the result to the given stream.
+     * 
+     * @param args
+     *            the hashing arguments and the file the server is published in
+     * @param ps
+     *            the stream to write the result to
+     * @throws IOException
+     *             if the communication with the server fails
+     * @throws IllegalArgumentException
+     *             if the server rejects the request or it contains a separator
+     */
+    public static void hashRemote(String[] args, PrintStream ps) throws IOException {
+        String tag = null;
+        String master = null;
+        // options are passed on to the server, which checks them
+        StringBuilder options = new StringBuilder();
+        Options known = new Options();
+        for (String arg : args) {
+            if (known.parse(arg)) {
+                options.append(' ').append(arg);
+            } else if (!arg.startsWith(CLIENT)) {
+                if (tag == null) {
+                    tag = arg;
+                } else {
+                    master = arg;
+                }
+            }
+        }
+        HashClient client = new HashClient(serverFile(args, CLIENT));
+        try {
+            ps.println(client.hash(master, tag + options));
+        } finally {
+            client.close();
+        }
     }
 
     /**
@@ -139,9 +805,56 @@ public class JPasswordHasher {
     public static void printHelp(PrintStream ps) {
         ps.println("JPasswordHasher");
         ps.println();
-        ps.println("Usage: jph [options] tag master");
+        ps.println("Usage: jph [--bumps=n] [--iterations=n] [--profiles=file] [--save] [--bump]");
+        ps.println("           [options] tag master");
+        ps.println("       jph --stdin [options] master");
+        ps.println("       jph --bulk=file [--threads=n] [options] master");
+        ps.println("       jph --mapped=file [--out=file] [--threads=n] [options] master");
+        ps.println("       jph --audit=inventory [--dump=file] [options] master");
+        ps.println("       jph --rotate=inventory [--journal=file] [--threads=n] [options] old new");
+        ps.println("       jph --client[=file] [options] tag master");
+        ps.println("       jph --server[=file] [--threads=n]");
+        ps.println("       jph --calibrate[=ms] [--warmup=ms]");
+        ps.println("       jph --bench[=seconds] [--requests=n] [--warmup=ms] [--threads=n]");
+        ps.println("           [--scaling] [--mix=file] [--tagLength=min-max]");
+        ps.println("           [--masterReuse=(0..1)] [--engine=(JCA|BUILT_IN)] [--iterations=n]");
+        ps.println("           [options]");
         ps.println(" tag    - the tag to use for hashing");
         ps.println(" master - the master password to use for hashing");
+        ps.println(" --bumps  - print the hashes of the tag and its bumps tag:1 to tag:n,");
+        ps.println("            regardless of the bump counter of its profile");
+        ps.println(" --profiles - the profile store, which holds options and a bump counter per");
+        ps.println("            tag, defaults to ~/.jph-profiles");
+        ps.println(" --save   - save the options given as the profile of the tag");
+        ps.println(" --bump   - increment and save the bump counter of the tag");
+        ps.println(" --iterations - hash with PBKDF2-HMAC-SHA256 and n iterations instead of the");
+        ps.println("            PasswordHasher algorithm");
+        ps.println(" --stdin  - hash the tags read from stdin, one per line, each optionally");
+        ps.println("            followed by options for this tag only");
+        ps.println(" --bulk   - hash the rows of a file like the lines of --stdin, on one thread");
+        ps.println("            per processor by default, and print the hashes in order");
+        ps.println(" --mapped - hash the rows of a file, one tag per row, without decoding them.");
+        ps.println("            Fastest for large files with the same options for all tags");
+        ps.println(" --audit  - print the candidates of a dump, read from stdin by default, that");
+        ps.println("            match the hash of a row of the inventory, given like --stdin lines");
+        ps.println(" --rotate - append the tag and the hashes with the old and the new master of");
+        ps.println("            each row of the inventory, given like --stdin lines, to the");
+        ps.println("            journal, inventory.rotation by default. Resumes after a crash");
+        ps.println(" --client - request the hash from the running server published in the file,");
+        ps.println("            defaults to ~/.jph-server");
+        ps.println(" --server - serve hash requests on the loopback interface, one thread per");
+        ps.println("            processor kept warm by default, and publish the port and a token");
+        ps.println("            for clients in the file, which only the user may read");
+        ps.println(" --calibrate - print the number of --iterations for which a hash takes the");
+        ps.println("            given time on this machine, defaults to "
+                + DEFAULT_CALIBRATION_MILLIS + " ms, after a warm-up of "
+                + HashAlgorithm.DEFAULT_WARM_UP_MILLIS + " ms");
+        ps.println(" --bench  - hash random tags on one thread per processor by default for "
+                + DEFAULT_BENCH_SECONDS + " s");
+        ps.println("            and print the throughput, latency percentiles and allocation.");
+        ps.println("            --mix is a file of lines \"weight [options]\", --masterReuse the");
+        ps.println("            share of requests that keep the master, --scaling measures 1, 2,");
+        ps.println("            4, ... threads");
         ps.println(" options:");
         ps.println("  --length=(0..27)              - required length of the hash, defaults to 16");
         ps.println("  --requireDigit=(TRUE|false)   - require hash to contain at least one digit");
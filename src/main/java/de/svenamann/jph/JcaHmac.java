@@ -0,0 +1,218 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An {@link Hmac} computed by the MAC implementation of the Java Cryptography
+ * Architecture. Completing a computation resets the MAC to the state before
+ * absorbing the inner padding, hence, each computation uses a clone.<br>
+ * <br>
+ * If the MAC provider does not support cloning, an instance keeps its key and
+ * the data absorbed since the key setup, such that a copy can be initialized
+ * with the key and absorb the data again.
+ * 
+ * @author Sven Amann
+ */
+final class JcaHmac extends Hmac {
+
+    /**
+     * Empty input, used to make MACs absorb their inner padding.
+     */
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * The MAC algorithm.
+     */
+    private final String algorithm;
+
+    /**
+     * The MAC.
+     */
+    private final Mac mac;
+
+    /**
+     * Whether the MAC supports cloning, or <code>null</code> before the first
+     * key setup.
+     */
+    private Boolean cloneable;
+
+    /**
+     * The key, kept only if the MAC does not support cloning.
+     */
+    private SecretKeySpec key;
+
+    /**
+     * The data absorbed since the key setup, kept only if the MAC does not
+     * support cloning.
+     */
+    private ByteArrayOutputStream absorbed;
+
+    /**
+     * Creates an uninitialized instance for the given algorithm.
+     * 
+     * @param algorithm
+     *            the MAC algorithm, which must be available
+     */
+    JcaHmac(String algorithm) {
+        this.algorithm = algorithm;
+        try {
+            this.mac = Mac.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Java platform supports the HMAC algorithms used here
+            throw new IllegalStateException("MAC algorithm not available: " + algorithm, nsae);
+        }
+    }
+
+    /**
+     * Creates an instance using the given MAC.
+     */
+    private JcaHmac(String algorithm, Mac mac) {
+        this.algorithm = algorithm;
+        this.mac = mac;
+        this.cloneable = Boolean.TRUE;
+    }
+
+    @Override
+    int getMacLength() {
+        return mac.getMacLength();
+    }
+
+    @Override
+    void init(byte[] key) {
+        try {
+            // some providers digest long keys with the digest that absorbed
+            // the former inner padding, unless the MAC is reset first
+            mac.reset();
+            SecretKeySpec spec = new SecretKeySpec(key, algorithm);
+            mac.init(spec);
+            mac.update(NO_DATA);
+            if (cloneable == null) {
+                try {
+                    mac.clone();
+                    cloneable = Boolean.TRUE;
+                } catch (CloneNotSupportedException cnse) {
+                    cloneable = Boolean.FALSE;
+                    absorbed = new ByteArrayOutputStream();
+                }
+            }
+            if (!cloneable) {
+                this.key = spec;
+                absorbed.reset();
+            }
+        } catch (InvalidKeyException ike) {
+            // impossible since valid key is created here
+        }
+    }
+
+    /**
+     * Gets a copy to compute one MAC with. Only if the MAC provider does not
+     * support cloning, this instance itself is returned, which must then be
+     * reset by completing the MAC computation before the next one begins.
+     */
+    @Override
+    Hmac begin() {
+        return Boolean.FALSE.equals(cloneable) ? this : copy();
+    }
+
+    /**
+     * Copies this instance. Only if the MAC provider does not support
+     * cloning, the copy is initialized with the key and absorbs the data
+     * again, which costs a key setup.
+     */
+    @Override
+    Hmac copy() {
+        if (cloneable == null) {
+            // neither a key nor data were absorbed yet
+            return new JcaHmac(algorithm);
+        } else if (cloneable) {
+            try {
+                return new JcaHmac(algorithm, (Mac) mac.clone());
+            } catch (CloneNotSupportedException cnse) {
+                // the key setup found the MAC cloneable
+                throw new IllegalStateException("MAC not cloneable: " + algorithm, cnse);
+            }
+        }
+        JcaHmac copy = new JcaHmac(algorithm);
+        copy.init(key.getEncoded());
+        copy.update(absorbed.toByteArray());
+        return copy;
+    }
+
+    @Override
+    void update(byte[] data) {
+        mac.update(data);
+        if (absorbed != null) {
+            absorbed.write(data, 0, data.length);
+        }
+    }
+
+    @Override
+    void update(ByteBuffer data) {
+        if (absorbed != null) {
+            ByteBuffer duplicate = data.duplicate();
+            while (duplicate.hasRemaining()) {
+                absorbed.write(duplicate.get());
+            }
+        }
+        mac.update(data);
+    }
+
+    @Override
+    void reset() {
+        mac.reset();
+        if (absorbed != null) {
+            absorbed.reset();
+        }
+    }
+
+    @Override
+    void doFinal(byte[] result) {
+        if (absorbed != null) {
+            absorbed.reset();
+        }
+        try {
+            mac.doFinal(result, 0);
+        } catch (ShortBufferException sbe) {
+            throw new IllegalArgumentException("MAC buffer too small: capacity = "
+                    + result.length + ", length = " + mac.getMacLength());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A bounded cache of MACs initialized with different keys. Each cached MAC has
+ * already absorbed the inner padding derived from its key. Repeated use of a
+ * key then saves initializing the MAC with it and hashing the inner padding,
+ * which leaves hashing the data itself.<br>
+ * <br>
+ * Keys are identified by a 128 bit fingerprint, hence, the cache holds no copy
+ * of the raw keys. The fingerprint consists of two SipHash-2-4 values with
+ * independent random keys per cache. Unlike a plain hash, it cannot be
+ * inverted to the raw key, and lookups cannot be made to collide. Unlike an
+ * HMAC, it costs less than the key setup it saves. If the cache is full, the
+ * least recently used MAC is evicted and initialized with the new key, which
+ * overwrites the state derived from the evicted key.<br>
+ * <br>
+ * Like the {@link Hasher} that owns it, a cache is not thread-safe. It hands
+ * out the MACs {@link Hmac#begin() prepared} for one computation, which are
+ * copies of the cached MACs unless completing a computation restores the keyed
+ * state.
+ * 
+ * @author Sven Amann
+ */
+final class KeyCache {
+
+    /**
+     * The algorithm to cache MACs of.
+     */
+    private final HashAlgorithm algorithm;
+
+    /**
+     * The SipHash keys of the two halves of the fingerprints.
+     */
+    private final long key1a, key1b, key2a, key2b;
+
+    /**
+     * The fingerprints of the cached keys, most recently used first. Entry i
+     * is stored at 2i and 2i+1.
+     */
+    private final long[] fingerprints;
+
+    /**
+     * The cached MACs, in the same order as {@link #fingerprints}.
+     */
+    private final Hmac[] macs;
+
+    /**
+     * The number of cached MACs.
+     */
+    private int size;
+
+    /**
+     * Creates an empty cache.
+     * 
+     * @param algorithm
+     *            the algorithm
+     * @param capacity
+     *            the maximum number of keys to cache, must be positive
+     */
+    KeyCache(HashAlgorithm algorithm, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Illegal key cache size: size = " + capacity
+                    + ", required 0 < size");
+        }
+        this.algorithm = algorithm;
+        this.key1a = Fingerprints.seed();
+        this.key1b = Fingerprints.seed();
+        this.key2a = Fingerprints.seed();
+        this.key2b = Fingerprints.seed();
+        this.fingerprints = new long[2 * capacity];
+        this.macs = new Hmac[capacity];
+        // create the first MAC eagerly, to determine the MAC length
+        macs[0] = algorithm.create();
+    }
+
+    /**
+     * @return the length of the MACs in bytes
+     */
+    int getMacLength() {
+        return macs[0].getMacLength();
+    }
+
+    /**
+     * Gets a MAC initialized with the given key, prepared for one computation.
+     * The MAC may be the cached MAC itself, which must then be reset by
+     * completing the MAC computation before the next request.
+     * 
+     * @param key
+     *            the key
+     * @return the initialized MAC
+     */
+    Hmac get(byte[] key) {
+        long print1 = Fingerprints.keyed(key1a, key1b, key, 0, key.length);
+        long print2 = Fingerprints.keyed(key2a, key2b, key, 0, key.length);
+        int index = indexOf(print1, print2);
+        if (index < 0) {
+            index = slot();
+            macs[index].init(key);
+            store(index, print1, print2);
+        }
+        moveToFront(index);
+        return macs[0].begin();
+    }
+
+    /**
+     * Gets a MAC initialized with the remaining bytes of the given buffer as
+     * key. The buffer's position is not changed. See {@link #get(byte[])} for
+     * details.
+     * 
+     * @param key
+     *            the key
+     * @return the initialized MAC
+     */
+    Hmac get(ByteBuffer key) {
+        long print1 = Fingerprints.keyed(key1a, key1b, key);
+        long print2 = Fingerprints.keyed(key2a, key2b, key);
+        int index = indexOf(print1, print2);
+        if (index < 0) {
+            index = slot();
+            byte[] raw = new byte[key.remaining()];
+            key.duplicate().get(raw);
+            macs[index].init(raw);
+            Arrays.fill(raw, (byte) 0);
+            store(index, print1, print2);
+        }
+        moveToFront(index);
+        return macs[0].begin();
+    }
+
+    /**
+     * Gets the index for a new key, which is a free slot or the one of the
+     * least recently used key.
+     * 
+     * @return the index, whose MAC exists
+     */
+    private int slot() {
+        int index = size < macs.length ? size : size - 1;
+        if (macs[index] == null) {
+            macs[index] = algorithm.create();
+        }
+        return index;
+    }
+
+    /**
+     * Stores the fingerprint of the key, which the MAC at the given index was
+     * initialized with.
+     * 
+     * @param index
+     *            the index
+     * @param print1
+     *            the first half of the fingerprint
+     * @param print2
+     *            the second half of the fingerprint
+     */
+    private void store(int index, long print1, long print2) {
+        fingerprints[2 * index] = print1;
+        fingerprints[2 * index + 1] = print2;
+        if (index == size) {
+            size++;
+        }
+    }
+
+    /**
+     * Wipes all cached key state.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            macs[i].init(new byte[1]);
+        }
+        Arrays.fill(fingerprints, 0L);
+        size = 0;
+    }
+
+    /**
+     * Looks up the cache index of the given fingerprint.
+     * 
+     * @param print1
+     *            the first half of the fingerprint
+     * @param print2
+     *            the second half of the fingerprint
+     * @return the index, or -1 if not cached
+     */
+    private int indexOf(long print1, long print2) {
+        for (int i = 0; i < size; i++) {
+            if (fingerprints[2 * i] == print1 && fingerprints[2 * i + 1] == print2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the entry at the given index to the front, shifting the more
+     * recently used entries back by one.
+     * 
+     * @param index
+     *            the index of the entry
+     */
+    private void moveToFront(int index) {
+        if (index > 0) {
+            long print1 = fingerprints[2 * index];
+            long print2 = fingerprints[2 * index + 1];
+            Hmac mac = macs[index];
+            System.arraycopy(fingerprints, 0, fingerprints, 2, 2 * index);
+            System.arraycopy(macs, 0, macs, 1, index);
+            fingerprints[0] = print1;
+            fingerprints[1] = print2;
+            macs[0] = mac;
+        }
+    }
+}
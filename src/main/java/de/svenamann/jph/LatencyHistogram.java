@@ -0,0 +1,200 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, with a relative precision of about
+ * 6%. Values below 16 are counted exactly, larger values in 16 buckets per
+ * power of two.<br>
+ * <br>
+ * Recording is lock-free, but a histogram must be recorded to by one thread at
+ * a time. Other threads may read it concurrently, seeing a recent state.
+ * Histograms of several threads are combined by merging them into another
+ * one.
+ * 
+ * @author Sven Amann
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits that select the bucket within a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, enough for all non-negative long values.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * The counts per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * 
+     * @param value
+     *            the value to record
+     */
+    public void record(long value) {
+        int bucket = bucket(Math.max(value, 0));
+        // single writer, hence, no need for an atomic increment
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * 
+     * @param other
+     *            the histogram to merge
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.lazySet(i, counts.get(i) + count);
+            }
+        }
+    }
+
+    /**
+     * Subtracts the counts of another histogram, whose values were recorded to
+     * or merged into this one before.
+     * 
+     * @param other
+     *            the histogram to subtract
+     */
+    void subtract(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.lazySet(i, counts.get(i) - count);
+            }
+        }
+    }
+
+    /**
+     * Resets all counts to 0.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the value below or at which the given share of recorded values lie.
+     * 
+     * @param share
+     *            the share, e.g., 0.99 for the 99th percentile
+     * @return the value, or 0 if no values were recorded
+     */
+    public long getPercentile(double share) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(share * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return value(i);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+
+    /**
+     * @return the largest recorded value, or 0 if no values were recorded
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return value(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Determines the bucket of a value.
+     * 
+     * @param value
+     *            the non-negative value
+     * @return the bucket index
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Determines the value representing a bucket, i.e., the middle of its
+     * range.
+     * 
+     * @param bucket
+     *            the bucket index
+     * @return the value
+     */
+    private static long value(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates load on {@link Hasher}s to measure the throughput and latency of
+ * hashing as deployed, rather than of isolated calls. Each thread hashes with
+ * its own hasher, like a {@link ConcurrentHasher} does, with requests drawn
+ * from a weighted mix of policies, random tags of a range of lengths and
+ * master passwords, which are reused with a given probability. Requests are
+ * generated from pools prepared in advance, such that generating them costs
+ * little compared to hashing.<br>
+ * <br>
+ * The threads warm up, then run for a given time or number of requests. The
+ * latency of each request is recorded to a {@link LatencyHistogram} per
+ * thread. The bytes allocated are measured per thread, if the JVM supports it.
+ * 
+ * @author Sven Amann
+ */
+public class LoadGenerator {
+
+    /**
+     * The number of distinct tags per thread.
+     */
+    private static final int TAG_POOL_SIZE = 4096;
+
+    /**
+     * The number of distinct master passwords per thread. It exceeds the key
+     * cache, such that switching masters costs the key setup.
+     */
+    private static final int MASTER_POOL_SIZE = 256;
+
+    /**
+     * The length of the generated master passwords.
+     */
+    private static final int MASTER_LENGTH = 12;
+
+    /**
+     * Counts the bytes allocated by a thread, or null if unsupported.
+     */
+    private static final Method ALLOCATED_BYTES = findAllocatedBytes();
+
+    /**
+     * The characters of generated tags and master passwords.
+     */
+    private static final char[] ALPHABET = ("abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.-").toCharArray();
+
+    /**
+     * The policies of the mix.
+     */
+    private final List<HashPolicy> policies = new ArrayList<HashPolicy>();
+
+    /**
+     * The cumulative weights of the policies.
+     */
+    private final List<Integer> weights = new ArrayList<Integer>();
+
+    /**
+     * The algorithm to hash with.
+     */
+    private HashAlgorithm algorithm = HashAlgorithm.PASSWORD_HASHER;
+
+    /**
+     * The number of threads.
+     */
+    private int threads = 1;
+
+    /**
+     * The minimum and maximum length of the tags.
+     */
+    private int minTagLength = 8, maxTagLength = 24;
+
+    /**
+     * The probability of a request to use the master password of the
+     * previous request.
+     */
+    private double masterReuse = 1.0;
+
+    /**
+     * The warm-up time in nanoseconds.
+     */
+    private long warmUpNanos = 2000000000L;
+
+    /**
+     * The measured time in nanoseconds, if the load is limited by time.
+     */
+    private long durationNanos = 10000000000L;
+
+    /**
+     * The number of requests, or 0 if the load is limited by time.
+     */
+    private long requests;
+
+    /**
+     * Sets the algorithm to hash with, {@link HashAlgorithm#PASSWORD_HASHER}
+     * by default.
+     * 
+     * @param algorithm
+     *            the algorithm
+     */
+    public void setAlgorithm(HashAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Sets the number of threads, 1 by default.
+     * 
+     * @param threads
+     *            the number of threads, must be positive
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Illegal number of threads: threads = "
+                    + threads + ", required 0 < threads");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Adds a policy to the mix. If no policy is added, all requests use
+     * {@link HashPolicy#DEFAULT}.
+     * 
+     * @param policy
+     *            the policy
+     * @param weight
+     *            the relative frequency of the policy, must be positive
+     */
+    public void addPolicy(HashPolicy policy, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Illegal policy weight: weight = " + weight
+                    + ", required 0 < weight");
+        }
+        policies.add(policy);
+        weights.add(weights.isEmpty() ? weight : weights.get(weights.size() - 1) + weight);
+    }
+
+    /**
+     * Sets the range of tag lengths, from 8 to 24 by default.
+     * 
+     * @param min
+     *            the minimum length, must be positive
+     * @param max
+     *            the maximum length, must not be less than the minimum
+     */
+    public void setTagLength(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Illegal tag length: min = " + min + ", max = "
+                    + max + ", required 0 < min <= max");
+        }
+        this.minTagLength = min;
+        this.maxTagLength = max;
+    }
+
+    /**
+     * Sets the probability of a request to use the master password of the
+     * previous request of the same thread, rather than a random one. Defaults
+     * to 1, i.e., each thread uses a single master password.
+     * 
+     * @param masterReuse
+     *            the probability, between 0 and 1
+     */
+    public void setMasterReuse(double masterReuse) {
+        if (!(masterReuse >= 0 && masterReuse <= 1)) {
+            throw new IllegalArgumentException("Illegal master reuse: reuse = " + masterReuse
+                    + ", required 0 <= reuse <= 1");
+        }
+        this.masterReuse = masterReuse;
+    }
+
+    /**
+     * Sets the time to run before measuring, 2 seconds by default.
+     * 
+     * @param millis
+     *            the time in milliseconds, must not be negative
+     */
+    public void setWarmUp(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Illegal warm-up: warm-up = " + millis
+                    + ", required 0 <= warm-up");
+        }
+        this.warmUpNanos = millis * 1000000L;
+    }
+
+    /**
+     * Limits the load by time, 10 seconds by default.
+     * 
+     * @param millis
+     *            the time to measure in milliseconds, must be positive
+     */
+    public void setDuration(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Illegal duration: duration = " + millis
+                    + ", required 0 < duration");
+        }
+        this.durationNanos = millis * 1000000L;
+        this.requests = 0;
+    }
+
+    /**
+     * Limits the load by the number of requests, which are distributed evenly
+     * over the threads. If there are fewer requests than threads, only one
+     * thread per request is started.
+     * 
+     * @param requests
+     *            the number of requests, must be positive
+     */
+    public void setRequests(long requests) {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Illegal number of requests: requests = "
+                    + requests + ", required 0 < requests");
+        }
+        this.requests = requests;
+    }
+
+    /**
+     * Generates the load and waits for it to finish.
+     * 
+     * @return the measurements
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public Result run() throws InterruptedException {
+        if (policies.isEmpty()) {
+            addPolicy(HashPolicy.DEFAULT, 1);
+        }
+        boolean limited = requests > 0;
+        // threads without a quota would skew the measurements
+        int count = limited ? (int) Math.min(threads, requests) : threads;
+        Worker[] workers = new Worker[count];
+        Thread[] running = new Thread[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long quota = limited ? requests / count + (i < requests % count ? 1 : 0) : 0;
+            // mix the seeds, such that the workers' streams are unrelated
+            long seed = Fingerprints.avalanche(start + i * 0x9e3779b97f4a7c15L);
+            workers[i] = new Worker(seed, start + warmUpNanos, limited, quota);
+            running[i] = new Thread(workers[i], "jph-load-" + i);
+            running[i].start();
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw new IllegalStateException("Hashing failed", worker.failure);
+            }
+        }
+        return new Result(workers);
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread so far, or -1 if the
+     *         JVM does not count them
+     */
+    private static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Thread
+                    .currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Looks up the method counting the bytes allocated by a thread, which is
+     * specific to HotSpot.
+     * 
+     * @return the method, or null if the JVM does not support it
+     */
+    private static Method findAllocatedBytes() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(ManagementFactory.getThreadMXBean())) {
+                return null;
+            }
+            Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * A load generating thread.
+     */
+    private final class Worker implements Runnable {
+
+        /**
+         * The latencies of the measured requests.
+         */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The tags to draw from.
+         */
+        private final String[] tags = new String[TAG_POOL_SIZE];
+
+        /**
+         * The master passwords to draw from.
+         */
+        private final String[] masters = new String[MASTER_POOL_SIZE];
+
+        /**
+         * The policies, by cumulative weight.
+         */
+        private final HashPolicy[] mix = policies.toArray(new HashPolicy[policies.size()]);
+
+        /**
+         * The cumulative weights of the policies.
+         */
+        private final int[] mixWeights = new int[weights.size()];
+
+        /**
+         * The time at which the measurement starts.
+         */
+        private final long measureStart;
+
+        /**
+         * Whether the load is limited by the number of requests rather than by
+         * time.
+         */
+        private final boolean limited;
+
+        /**
+         * The number of requests to measure, if limited by requests.
+         */
+        private final long quota;
+
+        /**
+         * The state of the random number generator.
+         */
+        private long random;
+
+        /**
+         * The number of measured requests.
+         */
+        private long count;
+
+        /**
+         * The time in nanoseconds from the first to the end of the last
+         * measured request.
+         */
+        private long nanos;
+
+        /**
+         * The bytes allocated during the measurement, or -1 if unknown.
+         */
+        private long allocated = -1;
+
+        /**
+         * The failure of hashing, if any.
+         */
+        private Throwable failure;
+
+        /**
+         * Creates a worker.
+         */
+        private Worker(long seed, long measureStart, boolean limited, long quota) {
+            // xorshift never leaves the state 0
+            this.random = seed != 0 ? seed : 0x9e3779b97f4a7c15L;
+            this.measureStart = measureStart;
+            this.limited = limited;
+            this.quota = quota;
+            for (int i = 0; i < mixWeights.length; i++) {
+                mixWeights[i] = weights.get(i);
+            }
+            for (int i = 0; i < tags.length; i++) {
+                tags[i] = randomString(minTagLength + nextInt(maxTagLength - minTagLength + 1));
+            }
+            for (int i = 0; i < masters.length; i++) {
+                masters[i] = randomString(MASTER_LENGTH);
+            }
+        }
+
+        public void run() {
+            try {
+                Hasher hasher = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, algorithm);
+                String master = masters[0];
+                long end = measureStart + durationNanos;
+                boolean measuring = false;
+                long allocatedBefore = -1;
+                long begin = 0;
+                long now = System.nanoTime();
+                while (true) {
+                    if (!measuring && now - measureStart >= 0) {
+                        measuring = true;
+                        allocatedBefore = allocatedBytes();
+                        now = System.nanoTime();
+                        begin = now;
+                    }
+                    if (measuring && (limited ? count == quota : now - end >= 0)) {
+                        nanos = now - begin;
+                        break;
+                    }
+                    if (nextDouble() >= masterReuse) {
+                        master = masters[nextInt(masters.length)];
+                    }
+                    String tag = tags[nextInt(tags.length)];
+                    HashPolicy policy = nextPolicy();
+                    hasher.generateHashWord(master, tag, policy);
+                    long done = System.nanoTime();
+                    if (measuring) {
+                        latencies.record(done - now);
+                        count++;
+                    }
+                    now = done;
+                }
+                if (allocatedBefore >= 0) {
+                    allocated = allocatedBytes() - allocatedBefore;
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Draws a policy according to the weights.
+         */
+        private HashPolicy nextPolicy() {
+            if (mix.length == 1) {
+                return mix[0];
+            }
+            int drawn = nextInt(mixWeights[mixWeights.length - 1]);
+            int i = 0;
+            while (mixWeights[i] <= drawn) {
+                i++;
+            }
+            return mix[i];
+        }
+
+        /**
+         * Generates a random string.
+         */
+        private String randomString(int length) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = ALPHABET[nextInt(ALPHABET.length)];
+            }
+            return new String(chars);
+        }
+
+        /**
+         * @return the next random number from 0 to bound (excluded)
+         */
+        private int nextInt(int bound) {
+            return (int) ((next() >>> 33) % bound);
+        }
+
+        /**
+         * @return the next random number from 0 to 1 (excluded)
+         */
+        private double nextDouble() {
+            return (next() >>> 11) * 0x1.0p-53;
+        }
+
+        /**
+         * @return the next random number, by xorshift
+         */
+        private long next() {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            return random;
+        }
+    }
+
+    /**
+     * The measurements of a load.
+     */
+    public static final class Result {
+
+        /**
+         * The latencies of all requests.
+         */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The number of requests of each thread.
+         */
+        private final long[] requests;
+
+        /**
+         * The measured time of each thread, in nanoseconds.
+         */
+        private final long[] nanos;
+
+        /**
+         * The bytes allocated by all threads, or -1 if unknown.
+         */
+        private final long allocated;
+
+        /**
+         * Collects the measurements of the given workers.
+         */
+        private Result(Worker[] workers) {
+            requests = new long[workers.length];
+            nanos = new long[workers.length];
+            long bytes = 0;
+            for (int i = 0; i < workers.length; i++) {
+                latencies.merge(workers[i].latencies);
+                requests[i] = workers[i].count;
+                nanos[i] = workers[i].nanos;
+                bytes = bytes < 0 || workers[i].allocated < 0 ? -1 : bytes
+                        + workers[i].allocated;
+            }
+            allocated = bytes;
+        }
+
+        /**
+         * @return the number of requests of all threads
+         */
+        public long getRequests() {
+            long total = 0;
+            for (long count : requests) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @return the requests per second of all threads together
+         */
+        public double getThroughput() {
+            double total = 0;
+            for (int i = 0; i < requests.length; i++) {
+                total += getThroughput(i);
+            }
+            return total;
+        }
+
+        /**
+         * Gets the throughput of a single thread.
+         * 
+         * @param thread
+         *            the index of the thread
+         * @return the requests per second of the thread
+         */
+        public double getThroughput(int thread) {
+            return nanos[thread] == 0 ? 0 : requests[thread] * 1e9 / nanos[thread];
+        }
+
+        /**
+         * @return the number of threads
+         */
+        public int getThreads() {
+            return requests.length;
+        }
+
+        /**
+         * @return the latencies of all requests in nanoseconds
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * @return the bytes allocated per request, or -1 if the JVM does not
+         *         count allocations
+         */
+        public double getAllocatedBytesPerRequest() {
+            return allocated < 0 ? -1 : (double) allocated / Math.max(getRequests(), 1);
+        }
+
+        /**
+         * @return the bytes allocated per second of all threads together, or
+         *         -1 if the JVM does not count allocations
+         */
+        public double getAllocationRate() {
+            return allocated < 0 ? -1 : getAllocatedBytesPerRequest() * getThroughput();
+        }
+    }
+}
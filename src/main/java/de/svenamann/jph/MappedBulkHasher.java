@@ -0,0 +1,397 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hashes the rows of large files on all processors without decoding them.
+ * Each row consists of a tag only, i.e., all rows are hashed with the same
+ * master password and policy. Use a {@link BulkHasher} for rows with options.<br>
+ * <br>
+ * The file is mapped into memory in windows of at most 2 GB, which are split
+ * into chunks of complete rows. The bytes of each row are passed to the MAC
+ * directly, without creating strings. Hence, the hashes equal the ones of
+ * tags, whose encoding in the platform's default charset are the bytes of the
+ * rows. A trailing carriage return of a row is ignored.<br>
+ * <br>
+ * The chunks are hashed concurrently and the hashes are written to a channel
+ * in the order of the rows, one per line. Empty rows yield empty lines. Only
+ * a bounded number of chunks is hashed ahead.
+ * 
+ * @author Sven Amann
+ */
+public class MappedBulkHasher {
+
+    /**
+     * The maximum number of bytes mapped at once by default.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * The approximate number of bytes hashed as one task by default.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The number of threads to hash with.
+     */
+    private final int threads;
+
+    /**
+     * The approximate number of bytes hashed as one task.
+     */
+    private final int chunkSize;
+
+    /**
+     * The maximum number of bytes mapped at once.
+     */
+    private final long windowSize;
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher = new ConcurrentHasher();
+
+    /**
+     * Creates a mapped bulk hasher using one thread per processor.
+     */
+    public MappedBulkHasher() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE,
+                DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a mapped bulk hasher.
+     * 
+     * @param threads
+     *            the number of threads to hash with, must be positive
+     * @param chunkSize
+     *            the approximate number of bytes hashed as one task, must be
+     *            positive
+     * @param windowSize
+     *            the maximum number of bytes mapped at once, must be at least
+     *            the chunk size and at most 2 GB. Rows must not be longer
+     *            than a window
+     */
+    public MappedBulkHasher(int threads, int chunkSize, long windowSize) {
+        if (threads < 1 || chunkSize < 1 || windowSize < chunkSize
+                || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal bulk configuration: threads = "
+                    + threads + ", chunk size = " + chunkSize + ", window size = "
+                    + windowSize + ", required 0 < threads, 0 < chunk size <= window size"
+                    + " <= " + Integer.MAX_VALUE);
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Hashes all rows of the given file and writes the hashes to the given
+     * channel, in the order of the rows.
+     * 
+     * @param master
+     *            the master password
+     * @param policy
+     *            the policy of all rows
+     * @param in
+     *            the file to read rows from
+     * @param out
+     *            the channel to write hashes to, e.g., a {@link FileChannel}
+     * @return the number of rows processed
+     * @throws IOException
+     *             if reading or writing fails, or if a row is longer than a
+     *             window
+     */
+    public long hash(String master, HashPolicy policy, File in, WritableByteChannel out)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jph-mapped-bulk");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        RandomAccessFile file = new RandomAccessFile(in, "r");
+        try {
+            return hash(executor, master, policy, file.getChannel(), out);
+        } finally {
+            executor.shutdownNow();
+            file.close();
+        }
+    }
+
+    /**
+     * Hashes all rows using the given executor. Maps one window after the
+     * other, each ending after the last complete row inside of it. Keeps at
+     * most a few chunks per thread in flight and writes the oldest chunk,
+     * whenever the limit is reached.
+     */
+    private long hash(ExecutorService executor, String master, HashPolicy policy,
+            FileChannel in, WritableByteChannel out) throws IOException {
+        int maxInFlight = 4 * threads;
+        Queue<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>(maxInFlight);
+        long rows = 0;
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            int length = (int) Math.min(windowSize, size - position);
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int end = length;
+            if (position + length < size) {
+                end = lastRowEnd(window, length);
+                if (end == 0) {
+                    throw new IOException("Row longer than window: offset = " + position
+                            + ", window size = " + windowSize);
+                }
+            }
+            int start = 0;
+            while (start < end) {
+                int chunkEnd = start + Math.min(chunkSize, end - start);
+                if (chunkEnd < end) {
+                    chunkEnd = nextRowEnd(window, chunkEnd, end);
+                }
+                if (inFlight.size() == maxInFlight) {
+                    rows += write(inFlight.remove(), out);
+                }
+                inFlight.add(executor.submit(hashChunk(master, policy, window, start,
+                        chunkEnd)));
+                start = chunkEnd;
+            }
+            position += end;
+        }
+        while (!inFlight.isEmpty()) {
+            rows += write(inFlight.remove(), out);
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the end of the last complete row of a window.
+     * 
+     * @param window
+     *            the mapped window
+     * @param length
+     *            the length of the window
+     * @return the index after the last line break, or 0 if there is none
+     */
+    private static int lastRowEnd(ByteBuffer window, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the end of the row that contains the given index.
+     * 
+     * @param window
+     *            the mapped window
+     * @param from
+     *            the index
+     * @param end
+     *            the end of the complete rows of the window
+     * @return the index after the next line break, or the end
+     */
+    private static int nextRowEnd(ByteBuffer window, int from, int end) {
+        for (int i = from - 1; i < end; i++) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Creates the task that hashes the rows in a range of a window.
+     */
+    private Callable<Chunk> hashChunk(final String master, final HashPolicy policy,
+            final ByteBuffer window, final int start, final int end) {
+        return new Callable<Chunk>() {
+            public Chunk call() {
+                Hasher jph = hasher.getHasher();
+                // each task uses its own view, which shares the mapped bytes
+                ByteBuffer row = window.duplicate();
+                Chunk chunk = new Chunk(end - start, policy.getLength());
+                int rowStart = start;
+                for (int i = start; i < end; i++) {
+                    if (window.get(i) == '\n') {
+                        chunk.add(hashRow(jph, master, policy, row, rowStart, i,
+                                chunk.hashWord));
+                        rowStart = i + 1;
+                    }
+                }
+                if (rowStart < end) {
+                    chunk.add(hashRow(jph, master, policy, row, rowStart, end,
+                            chunk.hashWord));
+                }
+                chunk.hashes.flip();
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Hashes a single row.
+     * 
+     * @param jph
+     *            the hasher of the current thread
+     * @param master
+     *            the master password
+     * @param policy
+     *            the policy of the row
+     * @param row
+     *            a view of the window
+     * @param start
+     *            the start of the row
+     * @param end
+     *            the end of the row, excluding the line break
+     * @param hashWord
+     *            the buffer to write the hash to
+     * @return the hash length, or 0 if the row is empty
+     */
+    private static int hashRow(Hasher jph, String master, HashPolicy policy, ByteBuffer row,
+            int start, int end, char[] hashWord) {
+        row.clear();
+        if (end > start && row.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return 0;
+        }
+        row.position(start);
+        row.limit(end);
+        jph.generateHashWord(master, row, policy, hashWord);
+        return hashWord.length;
+    }
+
+    /**
+     * Waits for a chunk to be hashed and writes the hashes.
+     * 
+     * @param hashed
+     *            the hashed chunk
+     * @param out
+     *            the output
+     * @return the number of rows of the chunk
+     * @throws IOException
+     *             if writing or hashing fails
+     */
+    private static int write(Future<Chunk> hashed, WritableByteChannel out) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = hashed.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing");
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Hashing failed", ee.getCause());
+        }
+        while (chunk.hashes.hasRemaining()) {
+            out.write(chunk.hashes);
+        }
+        return chunk.rows;
+    }
+
+    /**
+     * The hashes of a chunk of rows.
+     */
+    private static final class Chunk {
+
+        /**
+         * The hash lines, encoded in ASCII.
+         */
+        private ByteBuffer hashes;
+
+        /**
+         * The number of rows.
+         */
+        private int rows;
+
+        /**
+         * The hash word of the last row, which is encoded into the lines.
+         */
+        private final char[] hashWord;
+
+        /**
+         * Creates an empty chunk.
+         * 
+         * @param size
+         *            the number of bytes of the rows
+         * @param length
+         *            the length of the hashes
+         */
+        private Chunk(int size, int length) {
+            // assumes rows of at least eight bytes, grows for shorter ones
+            hashes = ByteBuffer.allocate(Math.max(size / 8, 1) * (length + 1));
+            hashWord = new char[length];
+        }
+
+        /**
+         * Appends the hash line of a row.
+         * 
+         * @param length
+         *            the length of the hash in the hash word buffer of the
+         *            hashed row
+         */
+        private void add(int length) {
+            if (hashes.remaining() < length + 1) {
+                ByteBuffer grown = ByteBuffer.allocate(2 * hashes.capacity() + length + 1);
+                hashes.flip();
+                grown.put(hashes);
+                hashes = grown;
+            }
+            // hash words consist of ASCII characters only
+            for (int i = 0; i < length; i++) {
+                hashes.put((byte) hashWord[i]);
+            }
+            hashes.put((byte) '\n');
+            rows++;
+        }
+    }
+}
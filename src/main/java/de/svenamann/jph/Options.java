@@ -0,0 +1,235 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+/**
+ * The hashing options of the command line interface, initialized with the
+ * defaults. Options are given as arguments of the form
+ * <code>--name=value</code>.
+ * 
+ * @author Sven Amann
+ */
+class Options {
+
+    /**
+     * The length of the hash.
+     */
+    int length = 16;
+
+    /**
+     * Whether the hash must contain a digit.
+     */
+    boolean requireDigit = true;
+
+    /**
+     * Whether the hash must contain a punctuation character.
+     */
+    boolean requirePunctuation = true;
+
+    /**
+     * Whether the hash must be mixed case.
+     */
+    boolean requireMixed = true;
+
+    /**
+     * Whether the hash must not contain special characters.
+     */
+    boolean restrictSpecial = false;
+
+    /**
+     * Whether the hash must contain only digits.
+     */
+    boolean restrictDigits = false;
+
+    /**
+     * Creates default options.
+     */
+    Options() {
+    }
+
+    /**
+     * Creates a copy of the given options.
+     * 
+     * @param other
+     *            the options to copy
+     */
+    Options(Options other) {
+        length = other.length;
+        requireDigit = other.requireDigit;
+        requirePunctuation = other.requirePunctuation;
+        requireMixed = other.requireMixed;
+        restrictSpecial = other.restrictSpecial;
+        restrictDigits = other.restrictDigits;
+    }
+
+    /**
+     * Creates options equivalent to the given policy.
+     * 
+     * @param policy
+     *            the policy
+     */
+    Options(HashPolicy policy) {
+        length = policy.getLength();
+        requireDigit = policy.isRequireDigit();
+        requirePunctuation = policy.isRequirePunctuation();
+        requireMixed = policy.isRequireMixed();
+        restrictSpecial = policy.isRestrictSpecial();
+        restrictDigits = policy.isRestrictDigits();
+    }
+
+    /**
+     * Gets the value from a call argument, i.e., the substring behind '='.
+     * 
+     * @param arg
+     *            the complete argument
+     * @return the value
+     */
+    static String value(String arg) {
+        return arg.substring(arg.indexOf("=") + 1);
+    }
+
+    /**
+     * Gets the value from a call flag.
+     * 
+     * @param flag
+     *            the complete flag
+     * @return the value
+     */
+    static boolean flagValue(String flag) {
+        return Boolean.parseBoolean(value(flag));
+    }
+
+    /**
+     * Gets the number value from a call argument.
+     * 
+     * @param arg
+     *            the complete argument
+     * @return the values
+     */
+    static int intValue(String arg) {
+        return Integer.parseInt(value(arg));
+    }
+
+    /**
+     * Sets the option given by a call argument.
+     * 
+     * @param arg
+     *            the complete argument
+     * @return <code>true</code> if the argument is an option,
+     *         <code>false</code> otherwise
+     */
+    boolean parse(String arg) {
+        if (arg.startsWith("--requireDigit")) {
+            requireDigit = flagValue(arg);
+        } else if (arg.startsWith("--requirePunct")) {
+            requirePunctuation = flagValue(arg);
+        } else if (arg.startsWith("--requireMixed")) {
+            requireMixed = flagValue(arg);
+        } else if (arg.startsWith("--noSpecial")) {
+            restrictSpecial = flagValue(arg);
+        } else if (arg.startsWith("--onlyDigits")) {
+            restrictDigits = flagValue(arg);
+        } else if (arg.startsWith("--length")) {
+            length = intValue(arg);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes with these options.
+     * 
+     * @param hasher
+     *            the hasher to use
+     * @param master
+     *            the master password
+     * @param tag
+     *            the tag
+     * @return the hash
+     */
+    String hash(Hasher hasher, String master, String tag) {
+        return hasher.generateHashWord(master, tag, toPolicy());
+    }
+
+    /**
+     * @return the policy with these options
+     */
+    HashPolicy toPolicy() {
+        return HashPolicy.of(length, requireDigit, requirePunctuation, requireMixed,
+                restrictSpecial, restrictDigits);
+    }
+
+    /**
+     * Hashes a line consisting of a tag, optionally followed by options that
+     * override these options for this line only, separated by whitespace.
+     * 
+     * @param hasher
+     *            the hasher to use
+     * @param master
+     *            the master password
+     * @param line
+     *            the line
+     * @return the hash, or an empty string if the line is empty
+     */
+    String hashLine(Hasher hasher, String master, String line) {
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens[0].length() == 0) {
+            return "";
+        }
+        return lineOptions(tokens).hash(hasher, master, tokens[0]);
+    }
+
+    /**
+     * Gets the options of a line, i.e., these options overridden by the
+     * options of the line.
+     * 
+     * @param tokens
+     *            the line split at whitespace, i.e., the tag followed by the
+     *            options
+     * @return these options, if the line has no options, or new options
+     * @throws IllegalArgumentException
+     *             if a token behind the tag is not an option
+     */
+    Options lineOptions(String[] tokens) {
+        if (tokens.length == 1) {
+            return this;
+        }
+        Options options = new Options(this);
+        for (int i = 1; i < tokens.length; i++) {
+            if (!options.parse(tokens[i])) {
+                throw new IllegalArgumentException("Illegal option: " + tokens[i]);
+            }
+        }
+        return options;
+    }
+}
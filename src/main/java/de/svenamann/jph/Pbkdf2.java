@@ -0,0 +1,153 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The first block of PBKDF2 (RFC 2898) as an {@link Hmac}: the key is the
+ * password, the absorbed data is the salt and the MAC is the derived key,
+ * truncated to {@link #LENGTH} bytes. The pseudo-random function is an HMAC,
+ * which is keyed only once, since each iteration uses the same password.
+ * Completing a computation leaves the pseudo-random function in its keyed
+ * state.
+ * 
+ * @author Sven Amann
+ */
+final class Pbkdf2 extends Hmac {
+
+    /**
+     * The length of the derived keys in bytes, which matches the length of
+     * the MACs the hash words of PasswordHasher are encoded from.
+     */
+    static final int LENGTH = 20;
+
+    /**
+     * The big-endian index of the first and only block, which is appended to
+     * the salt.
+     */
+    private static final byte[] FIRST_BLOCK = { 0, 0, 0, 1 };
+
+    /**
+     * The pseudo-random function.
+     */
+    private final Hmac prf;
+
+    /**
+     * The number of iterations.
+     */
+    private final int iterations;
+
+    /**
+     * Buffer for the output of the current iteration.
+     */
+    private final byte[] u;
+
+    /**
+     * Buffer for the sum of the outputs of all iterations.
+     */
+    private final byte[] t;
+
+    /**
+     * Creates an instance.
+     * 
+     * @param prf
+     *            the pseudo-random function, whose MACs must be at least
+     *            {@link #LENGTH} bytes long
+     * @param iterations
+     *            the number of iterations, must be positive
+     */
+    Pbkdf2(Hmac prf, int iterations) {
+        this.prf = prf;
+        this.iterations = iterations;
+        this.u = new byte[prf.getMacLength()];
+        this.t = new byte[prf.getMacLength()];
+    }
+
+    @Override
+    int getMacLength() {
+        return LENGTH;
+    }
+
+    @Override
+    void init(byte[] key) {
+        prf.init(key);
+    }
+
+    @Override
+    Hmac begin() {
+        Hmac begun = prf.begin();
+        return begun == prf ? this : new Pbkdf2(begun, iterations);
+    }
+
+    @Override
+    Hmac copy() {
+        return new Pbkdf2(prf.copy(), iterations);
+    }
+
+    @Override
+    void update(byte[] data) {
+        prf.update(data);
+    }
+
+    @Override
+    void update(ByteBuffer data) {
+        prf.update(data);
+    }
+
+    @Override
+    void reset() {
+        prf.reset();
+    }
+
+    @Override
+    void doFinal(byte[] mac) {
+        if (mac.length < LENGTH) {
+            throw new IllegalArgumentException("MAC buffer too small: capacity = "
+                    + mac.length + ", length = " + LENGTH);
+        }
+        prf.update(FIRST_BLOCK);
+        prf.doFinal(u);
+        System.arraycopy(u, 0, t, 0, u.length);
+        for (int i = 1; i < iterations; i++) {
+            prf.update(u);
+            prf.doFinal(u);
+            for (int j = 0; j < t.length; j++) {
+                t[j] ^= u[j];
+            }
+        }
+        System.arraycopy(t, 0, mac, 0, LENGTH);
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(t, (byte) 0);
+    }
+}
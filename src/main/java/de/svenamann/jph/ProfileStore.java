@@ -0,0 +1,912 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A persistent store of the {@link Profile}s of tags, i.e., of the options
+ * to hash each tag with. Lookups are fast regardless of the number of
+ * profiles, since opening the store reads nothing but the recent changes.<br>
+ * <br>
+ * The profiles are kept in a base file, which is sorted by tag and memory
+ * mapped, and in a journal of the changes since the base file was written.
+ * The base file starts with a magic number, the number of profiles and an
+ * index of the offsets of the profiles in the order of their tags. Each
+ * profile is stored as a record of the UTF-8 encoded tag, preceded by its
+ * length as an unsigned short, the length and the type of the policy as
+ * bytes and the bump counter as an int. Lookups binary search the index and
+ * only touch the pages of the records they compare with. Changes are
+ * appended to the journal as records of the same format, where a policy
+ * length of 0 marks a removal, and replayed into memory when the store is
+ * opened. Once the journal holds a given number of records, it is merged
+ * into a new base file, which replaces the former one.<br>
+ * <br>
+ * Stores are thread-safe and may be shared by several processes. Opening,
+ * changing and compacting a store take an exclusive lock on a lock file next
+ * to the base file and read the store again, such that changes are always
+ * appended to the current journal. Lookups read the store again if another
+ * process changed it.
+ * 
+ * @author Sven Amann
+ */
+public final class ProfileStore implements Closeable {
+
+    /**
+     * The number of journal records that triggers a compaction by default.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1024;
+
+    /**
+     * The magic number at the start of base files.
+     */
+    private static final int MAGIC = 0x4a504831;
+
+    /**
+     * The length of the header of base files, i.e., of the magic number and
+     * the number of profiles.
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * The suffix of the name of the journal file.
+     */
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * The suffix of the name of the lock file.
+     */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * The suffix of the name of the former base file, while a compaction
+     * replaces it on platforms that cannot rename over existing files.
+     */
+    private static final String BACKUP_SUFFIX = ".old";
+
+    /**
+     * Excludes the stores of this process from each other while one holds the
+     * lock file, since file locks are held per process.
+     */
+    private static final Lock PROCESS_LOCK = new ReentrantLock();
+
+    /**
+     * The charset of tags.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The <code>sun.misc.Unsafe</code> instance, if it can release mappings, which
+     * it can as of Java 9, or null.
+     */
+    private static final Object UNSAFE = findUnsafe();
+
+    /**
+     * Whether the JDK is Java 8 or earlier, whose mapped buffers expose their
+     * internal cleaner without an illegal reflective access.
+     */
+    private static final boolean LEGACY_CLEANER = System.getProperty(
+            "java.specification.version", "").startsWith("1.");
+
+    /**
+     * Marks removed tags in {@link #changes}.
+     */
+    private static final Profile REMOVED = new Profile(HashPolicy.DEFAULT, 0);
+
+    /**
+     * Orders encoded tags by their unsigned bytes.
+     */
+    private static final Comparator<byte[]> TAG_ORDER = new Comparator<byte[]>() {
+        public int compare(byte[] tag1, byte[] tag2) {
+            int length = Math.min(tag1.length, tag2.length);
+            for (int i = 0; i < length; i++) {
+                int c = (tag1[i] & 0xff) - (tag2[i] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return tag1.length - tag2.length;
+        }
+    };
+
+    /**
+     * The base file.
+     */
+    private final File file;
+
+    /**
+     * The journal file.
+     */
+    private final File journalFile;
+
+    /**
+     * The lock file.
+     */
+    private final File lockFile;
+
+    /**
+     * The former base file during a compaction.
+     */
+    private final File backupFile;
+
+    /**
+     * The number of journal records that triggers a compaction.
+     */
+    private final int compactionThreshold;
+
+    /**
+     * The mapped base file, or null if there is none.
+     */
+    private MappedByteBuffer base;
+
+    /**
+     * The number of profiles in the base file.
+     */
+    private int baseSize;
+
+    /**
+     * The time the mapped base file was last modified, or 0 if there is
+     * none.
+     */
+    private long baseModified;
+
+    /**
+     * The changes recorded in the journal, by encoded tag, with
+     * {@link #REMOVED} for removed tags.
+     */
+    private final Map<Tag, Profile> changes = new HashMap<Tag, Profile>();
+
+    /**
+     * The number of records in the journal.
+     */
+    private int journalRecords;
+
+    /**
+     * The length of the valid records in the journal.
+     */
+    private long journalLength;
+
+    /**
+     * The length of the journal file when it was read, including a truncated
+     * last record.
+     */
+    private long journalSize;
+
+    /**
+     * Opens the store in the given file, which is created with the first
+     * change if it does not exist.
+     * 
+     * @param file
+     *            the base file, next to which the journal is kept
+     * @throws IOException
+     *             if reading the store fails or it is corrupt
+     */
+    public ProfileStore(File file) throws IOException {
+        this(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the store in the given file, which is created with the first
+     * change if it does not exist.
+     * 
+     * @param file
+     *            the base file, next to which the journal is kept
+     * @param compactionThreshold
+     *            the number of journal records that triggers a compaction,
+     *            must be positive
+     * @throws IOException
+     *             if reading the store fails or it is corrupt
+     */
+    public ProfileStore(File file, int compactionThreshold) throws IOException {
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("Illegal compaction threshold: threshold = "
+                    + compactionThreshold + ", required 0 < threshold");
+        }
+        this.file = file;
+        this.journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+        this.lockFile = new File(file.getPath() + LOCK_SUFFIX);
+        this.backupFile = new File(file.getPath() + BACKUP_SUFFIX);
+        this.compactionThreshold = compactionThreshold;
+        RandomAccessFile lock = lock();
+        try {
+            // the journal still holds the changes of an interrupted compaction
+            if (!file.exists() && backupFile.exists() && !backupFile.renameTo(file)) {
+                throw new IOException("Failed to restore " + file);
+            }
+            load();
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * @return the default store of the user, in the file given by the system
+     *         property <code>jph.profiles</code> or else in the file
+     *         <code>.jph-profiles</code> in the home directory
+     */
+    public static File defaultFile() {
+        String file = System.getProperty("jph.profiles");
+        return file != null ? new File(file) : new File(System.getProperty("user.home"),
+                ".jph-profiles");
+    }
+
+    /**
+     * Checks whether a store exists in the given file, i.e., whether it has a
+     * base file or a journal.
+     * 
+     * @param file
+     *            the base file
+     * @return whether the store exists
+     */
+    public static boolean exists(File file) {
+        return file.exists() || new File(file.getPath() + JOURNAL_SUFFIX).exists()
+                || new File(file.getPath() + BACKUP_SUFFIX).exists();
+    }
+
+    /**
+     * Gets the profile of a tag. If another process changed the store, it is
+     * read again first. If that fails, the profiles read before are used.
+     * 
+     * @param tag
+     *            the tag
+     * @return the profile, or <code>null</code> if none is stored
+     */
+    public synchronized Profile get(String tag) {
+        refresh();
+        Tag key = new Tag(tag);
+        Profile profile = changes.get(key);
+        if (profile == null) {
+            int offset = find(key.bytes);
+            profile = offset < 0 ? null : readProfile(offset);
+        }
+        return profile == REMOVED ? null : profile;
+    }
+
+    /**
+     * Stores the profile of a tag, replacing any former one.
+     * 
+     * @param tag
+     *            the tag, whose UTF-8 encoding must not be longer than 65535
+     *            bytes
+     * @param profile
+     *            the profile
+     * @throws IOException
+     *             if writing the journal fails
+     */
+    public synchronized void put(String tag, Profile profile) throws IOException {
+        Tag key = new Tag(tag);
+        RandomAccessFile lock = lock();
+        try {
+            load();
+            append(key, profile);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Removes the profile of a tag, if any.
+     * 
+     * @param tag
+     *            the tag
+     * @throws IOException
+     *             if writing the journal fails
+     */
+    public synchronized void remove(String tag) throws IOException {
+        Tag key = new Tag(tag);
+        RandomAccessFile lock = lock();
+        try {
+            load();
+            if (changes.get(key) != REMOVED
+                    && (changes.containsKey(key) || find(key.bytes) >= 0)) {
+                append(key, REMOVED);
+            }
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * @return the number of stored profiles
+     */
+    public synchronized int size() {
+        refresh();
+        int size = baseSize;
+        for (Map.Entry<Tag, Profile> change : changes.entrySet()) {
+            boolean inBase = find(change.getKey().bytes) >= 0;
+            if (change.getValue() == REMOVED) {
+                size -= inBase ? 1 : 0;
+            } else {
+                size += inBase ? 0 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Merges the journal into a new base file, which replaces the former
+     * one, and empties the journal. The new base file is written completely
+     * before it replaces the former one, which is kept until the new one is
+     * in place, and replaying the journal again after an interrupted
+     * compaction yields the same profiles.
+     * 
+     * @throws IOException
+     *             if writing the files fails
+     */
+    public synchronized void compact() throws IOException {
+        RandomAccessFile lock = lock();
+        try {
+            load();
+            merge();
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Releases the mapping of the base file. The store remains usable and
+     * maps the base file again when needed.
+     */
+    public synchronized void close() throws IOException {
+        unmapBase();
+        // read the store again before the next lookup
+        baseModified = -1;
+    }
+
+    /**
+     * Takes the lock of this store, which excludes all other processes and
+     * stores of this process from changing the store.
+     * 
+     * @return the lock file, which holds the lock until it is
+     *         {@link #unlock(RandomAccessFile) unlocked}
+     */
+    private RandomAccessFile lock() throws IOException {
+        PROCESS_LOCK.lock();
+        boolean locked = false;
+        try {
+            RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+            try {
+                lock.getChannel().lock();
+                locked = true;
+                return lock;
+            } finally {
+                if (!locked) {
+                    lock.close();
+                }
+            }
+        } finally {
+            if (!locked) {
+                PROCESS_LOCK.unlock();
+            }
+        }
+    }
+
+    /**
+     * Releases the lock of this store.
+     * 
+     * @param lock
+     *            the lock file
+     */
+    private static void unlock(RandomAccessFile lock) throws IOException {
+        try {
+            lock.close();
+        } finally {
+            PROCESS_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reads the store again, if another process changed it since it was
+     * read. Failures are ignored, such that lookups use what could be read.
+     */
+    private void refresh() {
+        if (file.lastModified() == baseModified && journalFile.length() == journalSize) {
+            return;
+        }
+        try {
+            RandomAccessFile lock = lock();
+            try {
+                load();
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException ioe) {
+            // keep the profiles read so far
+        }
+    }
+
+    /**
+     * Reads the store again, since another process may have changed it.
+     * Must hold the lock.
+     */
+    private void load() throws IOException {
+        changes.clear();
+        journalRecords = 0;
+        journalLength = 0;
+        journalSize = 0;
+        mapBase();
+        readJournal();
+    }
+
+    /**
+     * Merges the journal into a new base file. Must hold the lock.
+     */
+    private void merge() throws IOException {
+        List<Record> records = new ArrayList<Record>(baseSize + changes.size());
+        for (int i = 0; i < baseSize; i++) {
+            int offset = base.getInt(HEADER_LENGTH + 4 * i);
+            Tag tag = new Tag(readTag(offset));
+            if (!changes.containsKey(tag)) {
+                records.add(new Record(tag.bytes, readProfile(offset)));
+            }
+        }
+        for (Map.Entry<Tag, Profile> change : changes.entrySet()) {
+            if (change.getValue() != REMOVED) {
+                records.add(new Record(change.getKey().bytes, change.getValue()));
+            }
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            public int compare(Record record1, Record record2) {
+                return TAG_ORDER.compare(record1.tag, record2.tag);
+            }
+        });
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(records.size());
+            int offset = HEADER_LENGTH + 4 * records.size();
+            for (Record record : records) {
+                data.writeInt(offset);
+                offset += recordLength(record.tag);
+            }
+            for (Record record : records) {
+                writeRecord(data, record.tag, record.profile);
+            }
+            data.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        // some platforms refuse to replace a file that is still mapped
+        unmapBase();
+        try {
+            replace(temp);
+        } finally {
+            mapBase();
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Failed to empty " + journalFile);
+        }
+        journalLength = 0;
+        journalSize = 0;
+        journalRecords = 0;
+        changes.clear();
+    }
+
+    /**
+     * Replaces the base file with the given file. Where renaming does not
+     * replace existing files, the former base file is renamed first and
+     * deleted only once the new one is in place.
+     * 
+     * @param temp
+     *            the new base file
+     */
+    private void replace(File temp) throws IOException {
+        if (temp.renameTo(file)) {
+            return;
+        }
+        backupFile.delete();
+        if (!file.renameTo(backupFile)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        if (!temp.renameTo(file)) {
+            backupFile.renameTo(file);
+            throw new IOException("Failed to replace " + file);
+        }
+        backupFile.delete();
+    }
+
+    /**
+     * Maps the base file, if it exists, and releases the former mapping.
+     */
+    private void mapBase() throws IOException {
+        unmapBase();
+        baseModified = file.lastModified();
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            base = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+        if (base.limit() < HEADER_LENGTH || base.getInt(0) != MAGIC
+                || base.getInt(4) < 0 || base.getInt(4) > (base.limit() - HEADER_LENGTH) / 4) {
+            base = null;
+            throw new IOException("Not a profile store: " + file);
+        }
+        baseSize = base.getInt(4);
+    }
+
+    /**
+     * Releases the mapping of the base file, which must not be accessed
+     * afterwards.
+     */
+    private void unmapBase() {
+        if (base == null) {
+            return;
+        }
+        MappedByteBuffer mapped = base;
+        base = null;
+        baseSize = 0;
+        try {
+            // only the internal cleaner of the JDK releases a mapping before the
+            // buffer is garbage collected
+            if (UNSAFE != null) {
+                UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class).invoke(UNSAFE,
+                        mapped);
+            } else if (LEGACY_CLEANER) {
+                Method cleaner = mapped.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(mapped);
+                if (clean != null) {
+                    clean.getClass().getMethod("clean").invoke(clean);
+                }
+            }
+        } catch (Exception e) {
+            // not supported, the garbage collector releases the mapping
+        }
+    }
+
+    /**
+     * Looks up the <code>sun.misc.Unsafe</code> instance, which is open to
+     * reflection, unlike the internal cleaner.
+     * 
+     * @return the instance, or null if it cannot release mappings
+     */
+    private static Object findUnsafe() {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field instance = type.getDeclaredField("theUnsafe");
+            instance.setAccessible(true);
+            return instance.get(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replays the journal, if it exists. A truncated last record, which
+     * remains from an interrupted change, is ignored and overwritten by the
+     * next change.
+     */
+    private void readJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        journalSize = journalFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                journalFile)));
+        try {
+            while (true) {
+                byte[] tag = new byte[in.readUnsignedShort()];
+                in.readFully(tag);
+                int length = in.readByte();
+                int type = in.readByte();
+                int bump = in.readInt();
+                changes.put(new Tag(tag), length == 0 ? REMOVED : new Profile(HashPolicy.of(
+                        length, type), bump));
+                journalRecords++;
+                journalLength += recordLength(tag);
+            }
+        } catch (EOFException eofe) {
+            // end of the valid records
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Corrupt journal: " + journalFile);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Appends a change to the journal and compacts, if the journal is full.
+     * Must hold the lock.
+     */
+    private void append(Tag tag, Profile profile) throws IOException {
+        if (tag.bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Tag too long: length = " + tag.bytes.length
+                    + ", required length <= 65535");
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordLength(tag.bytes));
+        record.putShort((short) tag.bytes.length).put(tag.bytes);
+        if (profile == REMOVED) {
+            record.put((byte) 0).put((byte) 0).putInt(0);
+        } else {
+            record.put((byte) profile.getPolicy().getLength())
+                    .put((byte) profile.getPolicy().type()).putInt(profile.getBump());
+        }
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+        try {
+            // overwrite a truncated last record
+            journal.setLength(journalLength);
+            journal.seek(journalLength);
+            journal.write(record.array());
+        } finally {
+            journal.close();
+        }
+        journalLength += record.capacity();
+        journalSize = journalLength;
+        journalRecords++;
+        changes.put(tag, profile);
+        if (journalRecords >= compactionThreshold) {
+            merge();
+        }
+    }
+
+    /**
+     * Binary searches the base file for the given encoded tag.
+     * 
+     * @return the offset of the record, or -1 if not contained
+     */
+    private int find(byte[] tag) {
+        int low = 0;
+        int high = baseSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = base.getInt(HEADER_LENGTH + 4 * middle);
+            int c = compareTag(offset, tag);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the tag of the record at the given offset with the given
+     * encoded tag, in the order of {@link #TAG_ORDER}, without copying it.
+     */
+    private int compareTag(int offset, byte[] tag) {
+        int length = base.getShort(offset) & 0xffff;
+        int common = Math.min(length, tag.length);
+        for (int i = 0; i < common; i++) {
+            int c = (base.get(offset + 2 + i) & 0xff) - (tag[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - tag.length;
+    }
+
+    /**
+     * Reads the encoded tag of the record at the given offset.
+     */
+    private byte[] readTag(int offset) {
+        byte[] tag = new byte[base.getShort(offset) & 0xffff];
+        for (int i = 0; i < tag.length; i++) {
+            tag[i] = base.get(offset + 2 + i);
+        }
+        return tag;
+    }
+
+    /**
+     * Reads the profile of the record at the given offset.
+     */
+    private Profile readProfile(int offset) {
+        int position = offset + 2 + (base.getShort(offset) & 0xffff);
+        return new Profile(HashPolicy.of(base.get(position), base.get(position + 1)), base
+                .getInt(position + 2));
+    }
+
+    /**
+     * Writes a record.
+     */
+    private static void writeRecord(DataOutputStream out, byte[] tag, Profile profile)
+            throws IOException {
+        out.writeShort(tag.length);
+        out.write(tag);
+        out.writeByte(profile.getPolicy().getLength());
+        out.writeByte(profile.getPolicy().type());
+        out.writeInt(profile.getBump());
+    }
+
+    /**
+     * @return the length of the record of the given encoded tag
+     */
+    private static int recordLength(byte[] tag) {
+        return 2 + tag.length + 6;
+    }
+
+    /**
+     * An encoded tag, as key of {@link #changes}.
+     */
+    private static final class Tag {
+
+        /**
+         * The UTF-8 encoding of the tag.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Encodes a tag.
+         */
+        private Tag(String tag) {
+            this(tag.getBytes(UTF8));
+        }
+
+        /**
+         * Wraps an encoded tag.
+         */
+        private Tag(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Tag && Arrays.equals(bytes, ((Tag) obj).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    /**
+     * A profile with its encoded tag, to be written to a base file.
+     */
+    private static final class Record {
+
+        /**
+         * The encoded tag.
+         */
+        private final byte[] tag;
+
+        /**
+         * The profile.
+         */
+        private final Profile profile;
+
+        /**
+         * Creates a record.
+         */
+        private Record(byte[] tag, Profile profile) {
+            this.tag = tag;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * The options to hash a tag with, i.e., the policy and the bump counter.
+     */
+    public static final class Profile {
+
+        /**
+         * The policy.
+         */
+        private final HashPolicy policy;
+
+        /**
+         * The bump counter.
+         */
+        private final int bump;
+
+        /**
+         * Creates a profile.
+         * 
+         * @param policy
+         *            the length of and requirements on the hash
+         * @param bump
+         *            the bump counter, must not be negative
+         */
+        public Profile(HashPolicy policy, int bump) {
+            if (bump < 0) {
+                throw new IllegalArgumentException("Illegal bump: bump = " + bump
+                        + ", required 0 <= bump");
+            }
+            this.policy = policy;
+            this.bump = bump;
+        }
+
+        /**
+         * @return the length of and requirements on the hash
+         */
+        public HashPolicy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return the bump counter
+         */
+        public int getBump() {
+            return bump;
+        }
+
+        /**
+         * Bumps a tag by this profile's counter, like PasswordHasher does.
+         * 
+         * @param tag
+         *            the tag
+         * @return the tag, followed by ':' and the counter, if it is positive
+         */
+        public String bump(String tag) {
+            return bump > 0 ? tag + ":" + bump : tag;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Profile)) {
+                return false;
+            }
+            Profile other = (Profile) obj;
+            return policy.equals(other.policy) && bump == other.bump;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * policy.hashCode() + bump;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Computes the old and the new hash of every tag of an inventory, when the
+ * master password is rotated, such that the credentials of the services can
+ * be updated. The inventory consists of rows like the ones of a
+ * {@link BulkHasher}, which are hashed concurrently in chunks, in the same
+ * way. For each row, a line with the tag, the old and the new hash, separated
+ * by tabs, is appended to the journal, in the order of the rows. Invalid rows
+ * yield a line with the tag and <code>ERROR</code> and a message, empty rows
+ * yield no line.<br>
+ * <br>
+ * The job writes a checkpoint next to the journal in regular intervals,
+ * after syncing the journal to the disk. A job that is interrupted, e.g., by
+ * a crash, resumes from the last checkpoint, when run again with the same
+ * files: the journal is truncated to its length at the checkpoint and the
+ * rows already journaled are skipped. A completed job is not run again. The
+ * checkpoint holds the hashes of a check tag, such that a job does not
+ * resume with other master passwords or options.
+ * 
+ * @author Sven Amann
+ */
+public class RotationJob {
+
+    /**
+     * The time between checkpoints by default.
+     */
+    public static final long DEFAULT_CHECKPOINT_MILLIS = 5000;
+
+    /**
+     * The tag hashed to check that a job resumes with the same masters.
+     */
+    private static final String CHECK_TAG = "jph-rotation-check";
+
+    /**
+     * The inventory file.
+     */
+    private final File inventory;
+
+    /**
+     * The journal file.
+     */
+    private final File journal;
+
+    /**
+     * The checkpoint file.
+     */
+    private final File checkpoint;
+
+    /**
+     * The number of threads to hash with.
+     */
+    private final int threads;
+
+    /**
+     * The number of rows hashed as one task.
+     */
+    private final int chunkSize;
+
+    /**
+     * The minimum time between checkpoints in nanoseconds.
+     */
+    private final long checkpointNanos;
+
+    /**
+     * The hashers of the threads.
+     */
+    private final ConcurrentHasher hasher = new ConcurrentHasher();
+
+    /**
+     * Creates a rotation job using one thread per processor.
+     * 
+     * @param inventory
+     *            the file to read the rows from
+     * @param journal
+     *            the file to append the hashes to
+     */
+    public RotationJob(File inventory, File journal) {
+        this(inventory, journal, Runtime.getRuntime().availableProcessors(),
+                BulkHasher.DEFAULT_CHUNK_SIZE, DEFAULT_CHECKPOINT_MILLIS);
+    }
+
+    /**
+     * Creates a rotation job.
+     * 
+     * @param inventory
+     *            the file to read the rows from
+     * @param journal
+     *            the file to append the hashes to
+     * @param threads
+     *            the number of threads to hash with, must be positive
+     * @param chunkSize
+     *            the number of rows hashed as one task, must be positive
+     * @param checkpointMillis
+     *            the minimum time between checkpoints, must not be negative
+     */
+    public RotationJob(File inventory, File journal, int threads, int chunkSize,
+            long checkpointMillis) {
+        if (threads < 1 || chunkSize < 1 || checkpointMillis < 0) {
+            throw new IllegalArgumentException("Illegal rotation configuration: threads = "
+                    + threads + ", chunk size = " + chunkSize + ", checkpoint interval = "
+                    + checkpointMillis + ", required 0 < threads, 0 < chunk size and"
+                    + " 0 <= checkpoint interval");
+        }
+        this.inventory = inventory;
+        this.journal = journal;
+        this.checkpoint = checkpointFile(journal);
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.checkpointNanos = checkpointMillis * 1000000L;
+    }
+
+    /**
+     * Gets the file of the checkpoint of a journal.
+     * 
+     * @param journal
+     *            the journal file
+     * @return the checkpoint file
+     */
+    public static File checkpointFile(File journal) {
+        return new File(journal.getPath() + ".checkpoint");
+    }
+
+    /**
+     * Runs the job, or resumes it from the last checkpoint. Progress and
+     * throughput are reported to the given log at each checkpoint.
+     * 
+     * @param oldMaster
+     *            the master password to rotate from
+     * @param newMaster
+     *            the master password to rotate to
+     * @param defaults
+     *            the policy of rows without options
+     * @param log
+     *            the stream to report progress to
+     * @return the number of rows processed in total, including the ones
+     *         processed before resuming
+     * @throws IOException
+     *             if reading or writing fails, or if the journal does not
+     *             belong to the job
+     */
+    public long run(String oldMaster, String newMaster, HashPolicy defaults, PrintStream log)
+            throws IOException {
+        Hasher jph = hasher.getHasher();
+        String check = jph.generateHashWord(oldMaster, CHECK_TAG, defaults) + " "
+                + jph.generateHashWord(newMaster, CHECK_TAG, defaults);
+        Properties state = readCheckpoint(check);
+        long rows = Long.parseLong(state.getProperty("rows"));
+        if (Boolean.parseBoolean(state.getProperty("complete"))) {
+            log.println("Rotation already complete: " + rows + " rows");
+            return rows;
+        }
+        RandomAccessFile truncate = new RandomAccessFile(journal, "rw");
+        try {
+            // discards the lines appended after the checkpoint
+            truncate.setLength(Long.parseLong(state.getProperty("journalLength")));
+        } finally {
+            truncate.close();
+        }
+        if (rows > 0) {
+            log.println("Resuming rotation at row " + rows);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jph-rotation");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        FileInputStream in = new FileInputStream(inventory);
+        FileOutputStream out = new FileOutputStream(journal, true);
+        try {
+            return rotate(executor, oldMaster, newMaster, new Options(defaults), state, in, out,
+                    log);
+        } finally {
+            executor.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Skips the rows already journaled, hashes the others using the given
+     * executor and writes checkpoints. Keeps at most a few chunks per thread
+     * in flight and writes the oldest chunk, whenever the limit is reached.
+     */
+    private long rotate(ExecutorService executor, String oldMaster, String newMaster,
+            Options defaults, Properties state, FileInputStream in, FileOutputStream out,
+            PrintStream log) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+        long skipped = Long.parseLong(state.getProperty("rows"));
+        for (long i = 0; i < skipped; i++) {
+            if (reader.readLine() == null) {
+                throw new IOException("Inventory shorter than journaled: " + inventory);
+            }
+        }
+        long rows = skipped;
+        long start = System.nanoTime();
+        long lastCheckpoint = start;
+        int maxInFlight = 4 * threads;
+        Queue<Future<String[]>> inFlight = new ArrayDeque<Future<String[]>>(maxInFlight);
+        String[] chunk;
+        while ((chunk = readChunk(reader)) != null) {
+            if (inFlight.size() == maxInFlight) {
+                rows += write(inFlight.remove(), writer);
+                if (System.nanoTime() - lastCheckpoint >= checkpointNanos) {
+                    writeCheckpoint(state, rows, writer, out, false);
+                    lastCheckpoint = System.nanoTime();
+                    log.println(progress(rows, skipped, start, in));
+                }
+            }
+            inFlight.add(executor.submit(rotateChunk(oldMaster, newMaster, defaults, chunk)));
+        }
+        while (!inFlight.isEmpty()) {
+            rows += write(inFlight.remove(), writer);
+        }
+        writeCheckpoint(state, rows, writer, out, true);
+        log.println(progress(rows, skipped, start, in));
+        return rows;
+    }
+
+    /**
+     * Reads the next chunk of rows.
+     * 
+     * @param reader
+     *            the input
+     * @return the rows, or <code>null</code> at the end of the input
+     * @throws IOException
+     *             if reading fails
+     */
+    private String[] readChunk(BufferedReader reader) throws IOException {
+        String[] chunk = new String[chunkSize];
+        int size = 0;
+        String line;
+        while (size < chunkSize && (line = reader.readLine()) != null) {
+            chunk[size++] = line;
+        }
+        if (size == 0) {
+            return null;
+        } else if (size < chunkSize) {
+            String[] rest = new String[size];
+            System.arraycopy(chunk, 0, rest, 0, size);
+            return rest;
+        }
+        return chunk;
+    }
+
+    /**
+     * Creates the task that hashes a chunk of rows with both masters. The
+     * task replaces the rows by their journal lines, or by <code>null</code>
+     * if empty.
+     */
+    private Callable<String[]> rotateChunk(final String oldMaster, final String newMaster,
+            final Options defaults, final String[] chunk) {
+        return new Callable<String[]>() {
+            public String[] call() {
+                Hasher jph = hasher.getHasher();
+                for (int i = 0; i < chunk.length; i++) {
+                    String[] tokens = chunk[i].trim().split("\\s+");
+                    if (tokens[0].length() == 0) {
+                        chunk[i] = null;
+                        continue;
+                    }
+                    try {
+                        Options options = defaults.lineOptions(tokens);
+                        chunk[i] = tokens[0] + '\t' + options.hash(jph, oldMaster, tokens[0])
+                                + '\t' + options.hash(jph, newMaster, tokens[0]);
+                    } catch (IllegalArgumentException iae) {
+                        chunk[i] = tokens[0] + '\t' + BulkHasher.ERROR + iae.getMessage();
+                    }
+                }
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Waits for a chunk to be hashed and writes its journal lines.
+     * 
+     * @return the number of rows of the chunk
+     */
+    private static int write(Future<String[]> rotated, BufferedWriter writer)
+            throws IOException {
+        String[] lines;
+        try {
+            lines = rotated.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing");
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Hashing failed", ee.getCause());
+        }
+        for (String line : lines) {
+            if (line != null) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return lines.length;
+    }
+
+    /**
+     * Reads the checkpoint, or creates the initial one if the job has not
+     * started yet.
+     * 
+     * @param check
+     *            the hashes of the check tag
+     * @return the state of the job
+     * @throws IOException
+     *             if reading fails, or if the checkpoint or the journal
+     *             belongs to another job
+     */
+    private Properties readCheckpoint(String check) throws IOException {
+        Properties state = new Properties();
+        if (!checkpoint.exists()) {
+            if (journal.length() > 0) {
+                throw new IOException("Journal without checkpoint: " + journal);
+            }
+            state.setProperty("rows", "0");
+            state.setProperty("journalLength", "0");
+            state.setProperty("check", check);
+            return state;
+        }
+        FileInputStream in = new FileInputStream(checkpoint);
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        if (!check.equals(state.getProperty("check"))) {
+            throw new IOException("Checkpoint of other masters or options: " + checkpoint);
+        }
+        if (journal.length() < Long.parseLong(state.getProperty("journalLength"))) {
+            throw new IOException("Journal shorter than checkpointed: " + journal);
+        }
+        return state;
+    }
+
+    /**
+     * Syncs the journal and replaces the checkpoint. The new checkpoint is
+     * written completely before it replaces the former one.
+     */
+    private void writeCheckpoint(Properties state, long rows, BufferedWriter writer,
+            FileOutputStream out, boolean complete) throws IOException {
+        writer.flush();
+        FileChannel channel = out.getChannel();
+        channel.force(false);
+        state.setProperty("rows", Long.toString(rows));
+        state.setProperty("journalLength", Long.toString(channel.size()));
+        state.setProperty("complete", Boolean.toString(complete));
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        FileOutputStream checkpointOut = new FileOutputStream(temp);
+        try {
+            state.store(checkpointOut, "JPasswordHasher rotation checkpoint");
+            checkpointOut.getFD().sync();
+        } finally {
+            checkpointOut.close();
+        }
+        if (!temp.renameTo(checkpoint) && !(checkpoint.delete() && temp.renameTo(checkpoint))) {
+            throw new IOException("Failed to replace " + checkpoint);
+        }
+    }
+
+    /**
+     * Describes the progress of the job. The share of the inventory is
+     * estimated from the bytes read.
+     */
+    private String progress(long rows, long skipped, long start, FileInputStream in)
+            throws IOException {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long size = in.getChannel().size();
+        return String.format(Locale.ROOT, "Rotated %d rows (%.0f%%), %.0f rows/s", rows,
+                size > 0 ? 100.0 * in.getChannel().position() / size : 100.0,
+                seconds > 0 ? (rows - skipped) / seconds : 0.0);
+    }
+}
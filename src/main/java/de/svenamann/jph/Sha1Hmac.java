@@ -0,0 +1,397 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A pure Java HMAC-SHA1 implementation as specified by RFC 2104 and FIPS
+ * 180-4, tuned for short messages. Initialization with a key computes the
+ * SHA-1 states after absorbing the inner and outer padding once. Completing a
+ * MAC restores the inner state, hence, an instance computes any number of MACs
+ * for its key without repeating the key setup. Apart from copies, no memory
+ * is allocated after construction.
+ * 
+ * @author Sven Amann
+ */
+final class Sha1Hmac extends Hmac {
+
+    /**
+     * The length of the MACs in bytes.
+     */
+    private static final int MAC_LENGTH = 20;
+
+    /**
+     * The length of SHA-1 blocks in bytes.
+     */
+    private static final int BLOCK_LENGTH = 64;
+
+    /**
+     * The initial SHA-1 state.
+     */
+    private static final int[] IV = { 0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476,
+            0xc3d2e1f0 };
+
+    /**
+     * The state after absorbing the inner padding.
+     */
+    private final int[] inner = new int[5];
+
+    /**
+     * The state after absorbing the outer padding.
+     */
+    private final int[] outer = new int[5];
+
+    /**
+     * The current state.
+     */
+    private final int[] state = new int[5];
+
+    /**
+     * The message schedule, i.e., the working array of the compression.
+     */
+    private final int[] w = new int[80];
+
+    /**
+     * The bytes of the current block absorbed so far.
+     */
+    private final byte[] block = new byte[BLOCK_LENGTH];
+
+    /**
+     * The number of bytes in {@link #block}.
+     */
+    private int blockLength;
+
+    /**
+     * The number of bytes absorbed, including the inner padding.
+     */
+    private long length = BLOCK_LENGTH;
+
+    /**
+     * Creates an instance initialized with an empty key.
+     */
+    Sha1Hmac() {
+        init(new byte[0]);
+    }
+
+    /**
+     * Creates a copy of the given instance.
+     * 
+     * @param original
+     *            the instance to copy
+     */
+    private Sha1Hmac(Sha1Hmac original) {
+        System.arraycopy(original.inner, 0, inner, 0, 5);
+        System.arraycopy(original.outer, 0, outer, 0, 5);
+        System.arraycopy(original.state, 0, state, 0, 5);
+        System.arraycopy(original.block, 0, block, 0, original.blockLength);
+        blockLength = original.blockLength;
+        length = original.length;
+    }
+
+    @Override
+    int getMacLength() {
+        return MAC_LENGTH;
+    }
+
+    @Override
+    void init(byte[] key) {
+        byte[] pad = new byte[BLOCK_LENGTH];
+        if (key.length > BLOCK_LENGTH) {
+            // long keys are replaced by their digest
+            System.arraycopy(IV, 0, state, 0, 5);
+            blockLength = 0;
+            length = 0;
+            update(key);
+            finish(pad, 0);
+        } else {
+            System.arraycopy(key, 0, pad, 0, key.length);
+        }
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            pad[i] ^= 0x36;
+        }
+        System.arraycopy(IV, 0, inner, 0, 5);
+        compress(inner, pad, 0);
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            pad[i] ^= 0x36 ^ 0x5c;
+        }
+        System.arraycopy(IV, 0, outer, 0, 5);
+        compress(outer, pad, 0);
+        Arrays.fill(pad, (byte) 0);
+        Arrays.fill(block, (byte) 0);
+        Arrays.fill(w, 0);
+        reset();
+    }
+
+    /**
+     * Returns this instance, since completing a MAC restores the keyed state.
+     */
+    @Override
+    Hmac begin() {
+        return this;
+    }
+
+    @Override
+    Hmac copy() {
+        return new Sha1Hmac(this);
+    }
+
+    @Override
+    void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /**
+     * Absorbs a range of the given data.
+     * 
+     * @param data
+     *            the data
+     * @param offset
+     *            the start of the range
+     * @param count
+     *            the length of the range
+     */
+    private void update(byte[] data, int offset, int count) {
+        length += count;
+        if (blockLength > 0) {
+            int n = Math.min(count, BLOCK_LENGTH - blockLength);
+            System.arraycopy(data, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            count -= n;
+            if (blockLength < BLOCK_LENGTH) {
+                return;
+            }
+            compress(state, block, 0);
+            blockLength = 0;
+        }
+        // compress complete blocks in place
+        while (count >= BLOCK_LENGTH) {
+            compress(state, data, offset);
+            offset += BLOCK_LENGTH;
+            count -= BLOCK_LENGTH;
+        }
+        System.arraycopy(data, offset, block, 0, count);
+        blockLength = count;
+    }
+
+    @Override
+    void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            int count = data.remaining();
+            update(data.array(), data.arrayOffset() + data.position(), count);
+            data.position(data.limit());
+            return;
+        }
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), BLOCK_LENGTH - blockLength);
+            data.get(block, blockLength, n);
+            blockLength += n;
+            length += n;
+            if (blockLength == BLOCK_LENGTH) {
+                compress(state, block, 0);
+                blockLength = 0;
+            }
+        }
+    }
+
+    @Override
+    void doFinal(byte[] mac) {
+        finish(mac, 0);
+        // the outer hash absorbs the inner digest as a single block
+        System.arraycopy(outer, 0, state, 0, 5);
+        for (int i = 0; i < 5; i++) {
+            w[i] = (mac[4 * i] << 24) | ((mac[4 * i + 1] & 0xff) << 16)
+                    | ((mac[4 * i + 2] & 0xff) << 8) | (mac[4 * i + 3] & 0xff);
+        }
+        w[5] = 0x80000000;
+        for (int i = 6; i < 15; i++) {
+            w[i] = 0;
+        }
+        w[15] = (BLOCK_LENGTH + MAC_LENGTH) * 8;
+        compress(state);
+        write(state, mac, 0);
+        reset();
+    }
+
+    /**
+     * Pads the current message and writes its digest.
+     * 
+     * @param digest
+     *            the buffer to write the digest to
+     * @param offset
+     *            the position of the digest in the buffer
+     */
+    private void finish(byte[] digest, int offset) {
+        long bits = length * 8;
+        block[blockLength++] = (byte) 0x80;
+        if (blockLength > BLOCK_LENGTH - 8) {
+            Arrays.fill(block, blockLength, BLOCK_LENGTH, (byte) 0);
+            compress(state, block, 0);
+            blockLength = 0;
+        }
+        Arrays.fill(block, blockLength, BLOCK_LENGTH - 8, (byte) 0);
+        for (int i = 0; i < 8; i++) {
+            block[BLOCK_LENGTH - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+        compress(state, block, 0);
+        write(state, digest, offset);
+    }
+
+    /**
+     * Restores the state after absorbing the inner padding.
+     */
+    @Override
+    void reset() {
+        System.arraycopy(inner, 0, state, 0, 5);
+        blockLength = 0;
+        length = BLOCK_LENGTH;
+    }
+
+    /**
+     * Writes a state in big-endian order.
+     * 
+     * @param state
+     *            the state
+     * @param bytes
+     *            the buffer to write to
+     * @param offset
+     *            the position in the buffer
+     */
+    private static void write(int[] state, byte[] bytes, int offset) {
+        for (int i = 0; i < 5; i++) {
+            int word = state[i];
+            bytes[offset++] = (byte) (word >>> 24);
+            bytes[offset++] = (byte) (word >>> 16);
+            bytes[offset++] = (byte) (word >>> 8);
+            bytes[offset++] = (byte) word;
+        }
+    }
+
+    /**
+     * Compresses a block of bytes into the given state.
+     * 
+     * @param state
+     *            the state
+     * @param bytes
+     *            the buffer holding the block
+     * @param offset
+     *            the position of the block in the buffer
+     */
+    private void compress(int[] state, byte[] bytes, int offset) {
+        for (int i = 0; i < 16; i++, offset += 4) {
+            w[i] = (bytes[offset] << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                    | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+        }
+        compress(state);
+    }
+
+    /**
+     * Compresses the block in the first 16 words of {@link #w} into the given
+     * state. The rounds are unrolled five times, such that the working
+     * variables rotate by renaming rather than by assignment.
+     * 
+     * @param state
+     *            the state
+     */
+    private void compress(int[] state) {
+        final int[] w = this.w;
+        for (int i = 16; i < 80; i++) {
+            int x = w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16];
+            w[i] = (x << 1) | (x >>> 31);
+        }
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+        int i = 0;
+        for (; i < 20; i += 5) {
+            e += ((a << 5) | (a >>> 27)) + ((b & c) | (~b & d)) + 0x5a827999 + w[i];
+            b = (b << 30) | (b >>> 2);
+            d += ((e << 5) | (e >>> 27)) + ((a & b) | (~a & c)) + 0x5a827999 + w[i + 1];
+            a = (a << 30) | (a >>> 2);
+            c += ((d << 5) | (d >>> 27)) + ((e & a) | (~e & b)) + 0x5a827999 + w[i + 2];
+            e = (e << 30) | (e >>> 2);
+            b += ((c << 5) | (c >>> 27)) + ((d & e) | (~d & a)) + 0x5a827999 + w[i + 3];
+            d = (d << 30) | (d >>> 2);
+            a += ((b << 5) | (b >>> 27)) + ((c & d) | (~c & e)) + 0x5a827999 + w[i + 4];
+            c = (c << 30) | (c >>> 2);
+        }
+        for (; i < 40; i += 5) {
+            e += ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + 0x6ed9eba1 + w[i];
+            b = (b << 30) | (b >>> 2);
+            d += ((e << 5) | (e >>> 27)) + (a ^ b ^ c) + 0x6ed9eba1 + w[i + 1];
+            a = (a << 30) | (a >>> 2);
+            c += ((d << 5) | (d >>> 27)) + (e ^ a ^ b) + 0x6ed9eba1 + w[i + 2];
+            e = (e << 30) | (e >>> 2);
+            b += ((c << 5) | (c >>> 27)) + (d ^ e ^ a) + 0x6ed9eba1 + w[i + 3];
+            d = (d << 30) | (d >>> 2);
+            a += ((b << 5) | (b >>> 27)) + (c ^ d ^ e) + 0x6ed9eba1 + w[i + 4];
+            c = (c << 30) | (c >>> 2);
+        }
+        for (; i < 60; i += 5) {
+            e += ((a << 5) | (a >>> 27)) + ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc + w[i];
+            b = (b << 30) | (b >>> 2);
+            d += ((e << 5) | (e >>> 27)) + ((a & b) | (a & c) | (b & c)) + 0x8f1bbcdc
+                    + w[i + 1];
+            a = (a << 30) | (a >>> 2);
+            c += ((d << 5) | (d >>> 27)) + ((e & a) | (e & b) | (a & b)) + 0x8f1bbcdc
+                    + w[i + 2];
+            e = (e << 30) | (e >>> 2);
+            b += ((c << 5) | (c >>> 27)) + ((d & e) | (d & a) | (e & a)) + 0x8f1bbcdc
+                    + w[i + 3];
+            d = (d << 30) | (d >>> 2);
+            a += ((b << 5) | (b >>> 27)) + ((c & d) | (c & e) | (d & e)) + 0x8f1bbcdc
+                    + w[i + 4];
+            c = (c << 30) | (c >>> 2);
+        }
+        for (; i < 80; i += 5) {
+            e += ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + 0xca62c1d6 + w[i];
+            b = (b << 30) | (b >>> 2);
+            d += ((e << 5) | (e >>> 27)) + (a ^ b ^ c) + 0xca62c1d6 + w[i + 1];
+            a = (a << 30) | (a >>> 2);
+            c += ((d << 5) | (d >>> 27)) + (e ^ a ^ b) + 0xca62c1d6 + w[i + 2];
+            e = (e << 30) | (e >>> 2);
+            b += ((c << 5) | (c >>> 27)) + (d ^ e ^ a) + 0xca62c1d6 + w[i + 3];
+            d = (d << 30) | (d >>> 2);
+            a += ((b << 5) | (b >>> 27)) + (c ^ d ^ e) + 0xca62c1d6 + w[i + 4];
+            c = (c << 30) | (c >>> 2);
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+    }
+}
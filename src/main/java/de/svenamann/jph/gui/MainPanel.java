@@ -2,12 +2,29 @@ package de.svenamann.jph.gui;
 
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import de.svenamann.jph.ConcurrentHasher;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.ProfileStore;
+import de.svenamann.jph.ProfileStore.Profile;
 
 public class MainPanel extends JPanel {
 
@@ -16,7 +33,60 @@ public class MainPanel extends JPanel {
      */
     private static final long serialVersionUID = -455599192747425424L;
 
-    public MainPanel() {
+    /**
+     * The time in milliseconds without typing, after which the hash word is
+     * computed.
+     */
+    private static final int DEBOUNCE_DELAY = 150;
+
+    private final JTextField tag = new JTextField(30);
+
+    private final JTextField master = new JTextField(30);
+
+    private final JTextField hashWord = new JTextField(30);
+
+    private final OptionPanel options;
+
+    /**
+     * The store of the profiles of the tags, or null.
+     */
+    private final ProfileStore profiles;
+
+    /**
+     * The tag whose profile is shown, or null.
+     */
+    private String profileTag;
+
+    /**
+     * The bump counter of the shown profile.
+     */
+    private int bump;
+
+    /**
+     * The hashers of the worker threads.
+     */
+    private final ConcurrentHasher hasher = new ConcurrentHasher();
+
+    /**
+     * Restarted by each change of the input, starts the computation once it
+     * fires.
+     */
+    private final Timer debounce;
+
+    /**
+     * The number of computations started, which identifies the latest one.
+     * Only accessed on the Event Dispatch Thread.
+     */
+    private long generation;
+
+    /**
+     * The latest computation, or null.
+     */
+    private HashWorker worker;
+
+    public MainPanel(final OptionPanel options, ProfileStore profiles) {
+        this.options = options;
+        this.profiles = profiles;
         setLayout(new BorderLayout(5, 0));
 
         JPanel labels = new JPanel(new GridLayout(0, 1));
@@ -26,15 +96,176 @@ public class MainPanel extends JPanel {
         add(labels, BorderLayout.WEST);
 
         JPanel fields = new JPanel(new GridLayout(0, 1));
-        fields.add(new JTextField(30));
-        fields.add(new JTextField(30));
-        fields.add(new JTextField(30));
+        fields.add(tag);
+        fields.add(master);
+        hashWord.setEditable(false);
+        fields.add(hashWord);
         add(fields, BorderLayout.CENTER);
 
         JPanel controls = new JPanel(new GridLayout(0, 1));
-        controls.add(new JButton("Bump"));
+        JButton bumpButton = new JButton("Bump");
+        controls.add(bumpButton);
         controls.add(new JCheckBox("Unmask"));
-        controls.add(new JButton("Options >>"));
+        JButton optionsButton = new JButton("Options >>");
+        controls.add(optionsButton);
         add(controls, BorderLayout.EAST);
+
+        bumpButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (tag.getText().length() > 0) {
+                    showProfile(tag.getText());
+                    bump++;
+                    saveProfile();
+                    changed();
+                }
+            }
+        });
+        optionsButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                options.setVisible(!options.isVisible());
+                SwingUtilities.getWindowAncestor(MainPanel.this).pack();
+            }
+        });
+        options.setChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                // the profile of the current tag is shown, since it is loaded
+                // on every change of the tag
+                saveProfile();
+                changed();
+            }
+        });
+
+        debounce = new Timer(DEBOUNCE_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+        debounce.setRepeats(false);
+        DocumentListener changes = new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                changed();
+            }
+        };
+        tag.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                showProfile(tag.getText());
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                showProfile(tag.getText());
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                showProfile(tag.getText());
+            }
+        });
+        tag.getDocument().addDocumentListener(changes);
+        master.getDocument().addDocumentListener(changes);
+    }
+
+    /**
+     * Invalidates the shown hash word and restarts the debounce delay.
+     */
+    private void changed() {
+        generation++;
+        hashWord.setText("");
+        debounce.restart();
+    }
+
+    /**
+     * Cancels the running computation, if any, and starts computing the hash
+     * word of the current input in the background.
+     */
+    private void update() {
+        if (worker != null) {
+            worker.cancel(false);
+            worker = null;
+        }
+        showProfile(tag.getText());
+        if (tag.getText().length() > 0 && master.getText().length() > 0) {
+            worker = new HashWorker(++generation, new Profile(options.getPolicy(), bump)
+                    .bump(tag.getText()), master.getText(), options.getPolicy());
+            worker.execute();
+        }
+    }
+
+    /**
+     * Shows the stored options and bump counter of the given tag, or the
+     * defaults, unless they are shown already.
+     */
+    private void showProfile(String currentTag) {
+        if (currentTag.equals(profileTag)) {
+            return;
+        }
+        Profile profile = profiles != null && currentTag.length() > 0 ? profiles.get(currentTag)
+                : null;
+        options.setPolicy(profile != null ? profile.getPolicy() : HashPolicy.DEFAULT);
+        bump = profile != null ? profile.getBump() : 0;
+        profileTag = currentTag;
+    }
+
+    /**
+     * Stores the shown options and bump counter as profile of the current
+     * tag.
+     */
+    private void saveProfile() {
+        if (profiles == null || profileTag.length() == 0) {
+            return;
+        }
+        try {
+            profiles.put(profileTag, new Profile(options.getPolicy(), bump));
+        } catch (IOException ioe) {
+            JOptionPane.showMessageDialog(this, "Failed to save profile: " + ioe.getMessage(),
+                    "JPasswordHasher", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Computes a hash word off the Event Dispatch Thread and shows it, unless
+     * the input changed in the meantime.
+     */
+    private final class HashWorker extends SwingWorker<String, Void> {
+
+        private final long id;
+
+        private final String tag;
+
+        private final String master;
+
+        private final HashPolicy policy;
+
+        private HashWorker(long id, String tag, String master, HashPolicy policy) {
+            this.id = id;
+            this.tag = tag;
+            this.master = master;
+            this.policy = policy;
+        }
+
+        @Override
+        protected String doInBackground() {
+            return hasher.generateHashWord(master, tag, policy);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || id != generation) {
+                return;
+            }
+            try {
+                hashWord.setText(get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                hashWord.setText("");
+            }
+        }
     }
 }
@@ -1,11 +1,15 @@
 package de.svenamann.jph.gui;
 
 import java.awt.BorderLayout;
+import java.io.IOException;
 
 import javax.swing.BorderFactory;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
+import de.svenamann.jph.ProfileStore;
+
 public class MainWindow extends JFrame {
 
     public MainWindow() {
@@ -14,12 +18,26 @@ public class MainWindow extends JFrame {
         contentPane.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         setContentPane(contentPane);
 
-        add(new MainPanel(), BorderLayout.NORTH);
-        add(new OptionPanel(), BorderLayout.CENTER);
+        OptionPanel options = new OptionPanel();
+        add(new MainPanel(options, openProfiles()), BorderLayout.NORTH);
+        add(options, BorderLayout.CENTER);
 
         pack();
     }
 
+    /**
+     * Opens the default profile store, or returns null if it is unreadable.
+     */
+    private ProfileStore openProfiles() {
+        try {
+            return new ProfileStore(ProfileStore.defaultFile());
+        } catch (IOException ioe) {
+            JOptionPane.showMessageDialog(this, "Failed to open profiles: " + ioe.getMessage(),
+                    "JPasswordHasher", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
     public static void main(String[] args) {
         (new MainWindow()).setVisible(true);
     }
@@ -1,11 +1,116 @@
 package de.svenamann.jph.gui;
 
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
 import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
 
 public class OptionPanel extends JPanel {
 
+    /**
+     * Serialization UID.
+     */
+    private static final long serialVersionUID = 2841029319427358187L;
+
+    private final JSpinner length = new JSpinner(new SpinnerNumberModel(16, 1,
+            Hasher.MAX_HASH_WORD_SIZE, 1));
+
+    private final JCheckBox requireDigit = new JCheckBox("Require digit");
+
+    private final JCheckBox requirePunctuation = new JCheckBox("Require punctuation");
+
+    private final JCheckBox requireMixed = new JCheckBox("Require mixed case");
+
+    private final JCheckBox restrictSpecial = new JCheckBox("No special characters");
+
+    private final JCheckBox restrictDigits = new JCheckBox("Digits only");
+
+    /**
+     * Notified when the user changes an option, or null.
+     */
+    private ChangeListener listener;
+
+    /**
+     * Set while options are set programmatically, such that the listener is
+     * not notified.
+     */
+    private boolean setting;
+
     public OptionPanel() {
-        setBorder(BorderFactory.createTitledBorder("Test"));
+        super(new GridLayout(0, 2));
+        setBorder(BorderFactory.createTitledBorder("Options"));
+
+        add(new JLabel("Length"));
+        add(length);
+        add(requireDigit);
+        add(requirePunctuation);
+        add(requireMixed);
+        add(restrictSpecial);
+        add(restrictDigits);
+
+        length.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                changed();
+            }
+        });
+        ActionListener toggles = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                changed();
+            }
+        };
+        requireDigit.addActionListener(toggles);
+        requirePunctuation.addActionListener(toggles);
+        requireMixed.addActionListener(toggles);
+        restrictSpecial.addActionListener(toggles);
+        restrictDigits.addActionListener(toggles);
+
+        setPolicy(HashPolicy.DEFAULT);
+    }
+
+    /**
+     * Sets the listener notified when the user changes an option.
+     */
+    public void setChangeListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public HashPolicy getPolicy() {
+        return HashPolicy.of((Integer) length.getValue(), requireDigit.isSelected(),
+                requirePunctuation.isSelected(), requireMixed.isSelected(),
+                restrictSpecial.isSelected(), restrictDigits.isSelected());
+    }
+
+    /**
+     * Shows the options of the given policy, without notifying the listener.
+     */
+    public void setPolicy(HashPolicy policy) {
+        setting = true;
+        try {
+            length.setValue(policy.getLength());
+            requireDigit.setSelected(policy.isRequireDigit());
+            requirePunctuation.setSelected(policy.isRequirePunctuation());
+            requireMixed.setSelected(policy.isRequireMixed());
+            restrictSpecial.setSelected(policy.isRestrictSpecial());
+            restrictDigits.setSelected(policy.isRestrictDigits());
+        } finally {
+            setting = false;
+        }
+    }
+
+    private void changed() {
+        if (!setting && listener != null) {
+            listener.stateChanged(new ChangeEvent(this));
+        }
     }
 }
@@ -0,0 +1,280 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HmacEngine;
+
+/**
+ * Tests that the hashing hot paths stay within their budgets of bytes
+ * allocated per hash, such that regressions, e.g., a stray string
+ * concatenation, do not quietly bring back GC pressure. Each path is warmed
+ * up and then measured separately for every combination of flags, over all
+ * lengths, using the allocation counter of the current thread. Skipped on
+ * JVMs without such counters.
+ * 
+ * @author Sven Amann
+ */
+public class AllocationTest {
+
+    /**
+     * The number of calls to warm up each path with.
+     */
+    private static final int WARM_UP_CALLS = 20000;
+
+    /**
+     * The number of times to hash with each policy.
+     */
+    private static final int REPETITIONS = 8;
+
+    /**
+     * The bytes a measurement may exceed the budget by, which absorbs one-off
+     * allocations, but not allocations per call.
+     */
+    private static final long SLACK = 1024;
+
+    /**
+     * The number of times a measurement is repeated, if it exceeds the
+     * budget. A garbage collection during a measurement may attribute the
+     * rest of the thread's allocation buffer to the thread.
+     */
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * The policies, by the bitmask of their flags.
+     */
+    private static final HashPolicy[][] POLICIES = new HashPolicy[32][Hasher.MAX_HASH_WORD_SIZE];
+
+    static {
+        for (int type = 0; type < POLICIES.length; type++) {
+            for (int length = 1; length <= Hasher.MAX_HASH_WORD_SIZE; length++) {
+                POLICIES[type][length - 1] = HashPolicy.of(length, (type & 1) != 0,
+                        (type & 2) != 0, (type & 4) != 0, (type & 8) != 0, (type & 16) != 0);
+            }
+        }
+    }
+
+    private final char[] hashWord = new char[Hasher.MAX_HASH_WORD_SIZE];
+
+    private final byte[] keyBytes = "topsecret".getBytes();
+
+    private final byte[] dataBytes = "sven-amann.de".getBytes();
+
+    private final ByteBuffer heapData = ByteBuffer.wrap(dataBytes);
+
+    private final ByteBuffer directKey = direct(keyBytes);
+
+    private final ByteBuffer directData = direct(dataBytes);
+
+    private final Charset utf8 = Charset.forName("UTF-8");
+
+    private final String[] tags = { "sven-amann.de", "example.com", "example.org",
+            "example.net" };
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Tests that the paths without strings do not allocate.
+     */
+    @Test
+    public void testByteOrientedPaths() {
+        final Hasher hasher = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.BUILT_IN);
+        assertBudget("bytes", 0, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord(keyBytes, dataBytes, policy, hashWord);
+            }
+        });
+        assertBudget("direct buffers", 0, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                directData.rewind();
+                hasher.generateHashWord(directKey, directData, policy, hashWord);
+            }
+        });
+        assertBudget("charset", 0, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord("topsecret", "sven-amann.de", utf8, policy, hashWord);
+            }
+        });
+    }
+
+    /**
+     * Tests that the paths taking strings allocate little more than the
+     * encoded strings and the hash word.
+     */
+    @Test
+    public void testStringPaths() {
+        final Hasher hasher = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.BUILT_IN);
+        assertBudget("heap buffer", 64, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                heapData.rewind();
+                hasher.generateHashWord("topsecret", heapData, policy, hashWord);
+            }
+        });
+        assertBudget("chars", 128, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord("topsecret", "sven-amann.de", policy, hashWord);
+            }
+        });
+        assertBudget("string", 256, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord("topsecret", "sven-amann.de", policy);
+            }
+        });
+        assertBudget("batch", 160, tags.length, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWords("topsecret", tags, policy);
+            }
+        });
+        // copies the MAC state for each bump
+        assertBudget("bump series", 1024, 4, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateBumpSeries("topsecret", "sven-amann.de", 3, policy);
+            }
+        });
+    }
+
+    /**
+     * Tests that the JCA engine allocates little more than the copy of the
+     * keyed MAC per hash.
+     */
+    @Test
+    public void testJca() {
+        final Hasher hasher = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.JCA);
+        assertBudget("JCA bytes", 1536, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord(keyBytes, dataBytes, policy, hashWord);
+            }
+        });
+        assertBudget("JCA string", 2048, 1, new Call() {
+            @Override
+            void hash(HashPolicy policy) {
+                hasher.generateHashWord("topsecret", "sven-amann.de", policy);
+            }
+        });
+    }
+
+    /**
+     * Warms up a path with all policies, then measures the bytes it
+     * allocates for each combination of flags, taking the least of a few
+     * attempts.
+     * 
+     * @param name
+     *            the name of the path
+     * @param budget
+     *            the bytes the path may allocate per hash
+     * @param hashes
+     *            the number of hashes per call
+     * @param call
+     *            the call of the path
+     */
+    private void assertBudget(String name, long budget, int hashes, Call call) {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            HashPolicy[] policies = POLICIES[i % POLICIES.length];
+            call.hash(policies[i / POLICIES.length % policies.length]);
+        }
+        for (HashPolicy[] policies : POLICIES) {
+            long count = (long) REPETITIONS * policies.length * hashes;
+            long limit = budget * count + SLACK;
+            long allocated = Long.MAX_VALUE;
+            for (int attempt = 0; attempt < ATTEMPTS && allocated > limit; attempt++) {
+                long before = allocatedBytes();
+                for (int i = 0; i < REPETITIONS; i++) {
+                    for (HashPolicy policy : policies) {
+                        call.hash(policy);
+                    }
+                }
+                allocated = Math.min(allocated, allocatedBytes() - before);
+            }
+            if (allocated > limit) {
+                fail(name + " allocates " + allocated / count + " bytes per hash with "
+                        + policies[0].toString().replaceFirst("--length=\\d+ ", "")
+                        + ", budget is " + budget);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far
+     */
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Copies bytes to a direct buffer.
+     */
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * A call of a hashing path.
+     */
+    private abstract static class Call {
+
+        /**
+         * Hashes with the given policy.
+         */
+        abstract void hash(HashPolicy policy);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import de.svenamann.jph.AuditIndex;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+
+/**
+ * Tests the {@link AuditIndex}. It is expected to report exactly the
+ * candidates that equal a hash word of the inventory.
+ * 
+ * @author Sven Amann
+ */
+public class AuditIndexTest {
+
+    /**
+     * Audits the given dump against the given index.
+     * 
+     * @param index
+     *            the index
+     * @param dump
+     *            the candidates
+     * @return the reported matches
+     */
+    private String audit(AuditIndex index, String dump) throws IOException {
+        StringWriter out = new StringWriter();
+        index.audit(new ByteArrayInputStream(dump.getBytes()), out);
+        return out.toString();
+    }
+
+    /**
+     * Tests auditing against an inventory with and without options.
+     */
+    @Test
+    public void testAudit() throws IOException {
+        AuditIndex index = AuditIndex.create("topsecret", HashPolicy.DEFAULT,
+                new StringReader("sven-amann.de\n\nexample.com --length=26 --onlyDigits=true\n"));
+        assertEquals(2, index.size());
+        String digits = new Hasher().generateHashWord("topsecret", "example.com", 26, false,
+                false, false, false, true);
+        assertEquals("2\tsven-amann.de\n4\texample.com\n", audit(index,
+                "password\ntLFCSJSpqQLc9/rt\r\n\n" + digits + "\ntLFCSJSpqQLc9/r\n"
+                        + " tLFCSJSpqQLc9/rt"));
+        assertEquals("1\tsven-amann.de\n", audit(index, "tLFCSJSpqQLc9/rt"));
+    }
+
+    /**
+     * Tests that many hash words remain retrievable while the table grows and
+     * that long candidates spanning reads are handled.
+     */
+    @Test
+    public void testManyHashWords() throws IOException {
+        AuditIndex index = new AuditIndex();
+        Hasher hasher = new Hasher();
+        StringBuilder dump = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String hashWord = hasher.generateHashWord("topsecret", "site" + i,
+                    HashPolicy.DEFAULT);
+            index.add("site" + i, hashWord);
+            if (i % 7 == 0) {
+                dump.append(hashWord).append('\n');
+                expected.append(i / 7 * 2 + 1).append("\tsite")
+                        .append(i).append('\n');
+                for (int j = 0; j < 10000; j++) {
+                    dump.append('x');
+                }
+                dump.append('\n');
+            }
+        }
+        assertEquals(5000, index.size());
+        assertEquals(expected.toString(), audit(index, dump.toString()));
+    }
+
+    /**
+     * Tests that candidates longer than the read buffer are skipped, without
+     * matching their tails.
+     */
+    @Test
+    public void testOverlongCandidates() throws IOException {
+        AuditIndex index = new AuditIndex();
+        index.add("sven-amann.de", "tLFCSJSpqQLc9/rt");
+        StringBuilder overlong = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            overlong.append('x');
+        }
+        overlong.append("tLFCSJSpqQLc9/rt");
+        assertEquals("2\tsven-amann.de\n4\tsven-amann.de\n", audit(index, overlong
+                + "\ntLFCSJSpqQLc9/rt\n" + overlong + "\ntLFCSJSpqQLc9/rt\n" + overlong));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import de.svenamann.jph.BulkHasher;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+
+/**
+ * Tests the {@link BulkHasher}. It is expected to produce the same hashing
+ * results as the sole hasher, in the order of the input rows.
+ * 
+ * @author Sven Amann
+ */
+public class BulkHasherTest {
+
+    /**
+     * The line separator of the output.
+     */
+    private static final String NL = System.getProperty("line.separator");
+
+    /**
+     * Hashes the given input with a bulk hasher.
+     * 
+     * @param bulk
+     *            the bulk hasher
+     * @param input
+     *            the rows
+     * @return the output
+     */
+    private String hash(BulkHasher bulk, String input) throws IOException {
+        StringWriter out = new StringWriter();
+        bulk.hash("topsecret", HashPolicy.DEFAULT, new StringReader(input), out);
+        return out.toString();
+    }
+
+    /**
+     * Tests hashing rows with and without options, empty and invalid rows.
+     */
+    @Test
+    public void testHashingRows() throws IOException {
+        assertEquals("tLFCSJSpqQLc9/rt" + NL + NL + "22639098972594023583506343" + NL
+                + BulkHasher.ERROR
+                + "Illegal hash length requested: length = 0, required 0 < length <=27" + NL
+                + "tLFCSJSpqQLc9/rt" + NL, hash(new BulkHasher(2, 2), "sven-amann.de\n\n"
+                + "sven-amann.de --length=26 --onlyDigits=true\nsven-amann.de --length=0\n"
+                + "sven-amann.de"));
+        assertEquals("", hash(new BulkHasher(), ""));
+    }
+
+    /**
+     * Tests that the output preserves the order of many rows hashed
+     * concurrently in small chunks.
+     */
+    @Test
+    public void testOrderPreserved() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        Hasher hasher = new Hasher();
+        for (int i = 0; i < 5000; i++) {
+            int length = 1 + i % 27;
+            input.append("site").append(i).append(" --length=").append(length).append('\n');
+            expected.append(hasher.generateHashWord("topsecret", "site" + i,
+                    HashPolicy.of(length, true, true, true, false, false)));
+            expected.append(NL);
+        }
+        assertEquals(expected.toString(), hash(new BulkHasher(4, 7), input.toString()));
+    }
+
+    /**
+     * Tests that a bulk hasher requires threads.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalConfiguration() {
+        new BulkHasher(0, 1);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import de.svenamann.jph.CachingHasher;
+import de.svenamann.jph.HashPolicy;
+
+/**
+ * Tests the memoization of hash words by the {@link CachingHasher}.
+ * 
+ * @author Sven Amann
+ */
+public class CachingHasherTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        CachingHasher hasher = new CachingHasher(16, 60000);
+        assertEquals("tLFCSJSpqQLc9/rt",
+                hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT));
+        assertEquals("tLFCSJSpqQLc9/rt",
+                hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT));
+        assertEquals("tLFCSJSpqQLcgNrtkEHCwhnCX/", hasher.generateHashWord("topsecret",
+                "sven-amann.de", HashPolicy.of(26, false, false, false, false, false)));
+        assertEquals(1, hasher.getHits());
+        assertEquals(2, hasher.getMisses());
+        assertEquals(2, hasher.size());
+    }
+
+    @Test
+    public void testDistinguishesMasters() {
+        CachingHasher hasher = new CachingHasher(16, 60000);
+        hasher.generateHashWord("topsecre", "tsven-amann.de", HashPolicy.DEFAULT);
+        assertEquals("tLFCSJSpqQLc9/rt",
+                hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT));
+        assertEquals(0, hasher.getHits());
+    }
+
+    @Test
+    public void testEviction() {
+        CachingHasher hasher = new CachingHasher(4, 60000);
+        for (int i = 0; i < 100; i++) {
+            hasher.generateHashWord("topsecret", "tag" + i, HashPolicy.DEFAULT);
+        }
+        assertEquals(4, hasher.size());
+        hasher.generateHashWord("topsecret", "tag99", HashPolicy.DEFAULT);
+        assertEquals(1, hasher.getHits());
+        hasher.clear();
+        assertEquals(0, hasher.size());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CachingHasher hasher = new CachingHasher(16, 1);
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        Thread.sleep(10);
+        assertEquals("tLFCSJSpqQLc9/rt",
+                hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT));
+        assertEquals(0, hasher.getHits());
+        assertEquals(1, hasher.size());
+    }
+
+    @Test
+    public void testIllegalConfiguration() {
+        try {
+            new CachingHasher(0, 60000);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
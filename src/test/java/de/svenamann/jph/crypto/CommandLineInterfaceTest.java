@@ -32,12 +32,22 @@
 package de.svenamann.jph.crypto;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
 import de.svenamann.jph.JPasswordHasher;
 
 /**
@@ -50,6 +60,30 @@ import de.svenamann.jph.JPasswordHasher;
  */
 public class CommandLineInterfaceTest {
 
+    /**
+     * The default profile store of the tests, which does not exist, such that
+     * the profiles of the user do not affect the tests.
+     */
+    private static File store;
+
+    /**
+     * Points the default profile store to a temporary file.
+     */
+    @BeforeClass
+    public static void setUpProfiles() throws IOException {
+        store = File.createTempFile("profiles", "");
+        store.delete();
+        System.setProperty("jph.profiles", store.getPath());
+    }
+
+    /**
+     * Restores the default profile store.
+     */
+    @AfterClass
+    public static void tearDownProfiles() {
+        System.clearProperty("jph.profiles");
+    }
+
     /**
      * Calls the {@link JPasswordHasher} with the given arguments and returns
      * the output as a string.
@@ -198,4 +232,151 @@ public class CommandLineInterfaceTest {
     public void testHelpMessage() {
         JPasswordHasher.main(new String[0]);
     }
+
+    /**
+     * Tests hashing the tags read from a stream. The options given as
+     * arguments should apply to all tags, unless they are overridden for a
+     * single tag.
+     */
+    @Test
+    public void testHashingStream() throws IOException {
+        StringWriter out = new StringWriter();
+        JPasswordHasher.hashStream(new String[] { "--stdin", "topsecret", "--length=26" },
+                new StringReader("sven-amann.de\n\n  sven-amann.de --length=16 \n"
+                        + "sven-amann.de --onlyDigits=true\nsven-amann.de"), out);
+        String nl = System.getProperty("line.separator");
+        assertEquals("tLFC9JSpqQLcgNrtkEHCwhnCX/" + nl + nl + "tLFCSJSpqQLc9/rt" + nl
+                + "22639098972594023583506343" + nl + "tLFC9JSpqQLcgNrtkEHCwhnCX/" + nl,
+                out.toString());
+    }
+
+    /**
+     * Tests that a stream line with an unknown option is answered with an
+     * error, while the following lines are still hashed.
+     */
+    @Test
+    public void testHashingStreamIllegalOption() throws IOException {
+        StringWriter out = new StringWriter();
+        JPasswordHasher.hashStream(new String[] { "--stdin", "topsecret" }, new StringReader(
+                "sven-amann.de --lenght=16\nsven-amann.de --length=99\nsven-amann.de\n"), out);
+        String[] lines = out.toString().split("\r?\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("ERROR "));
+        assertTrue(lines[1].startsWith("ERROR "));
+        assertEquals("tLFCSJSpqQLc9/rt", lines[2]);
+    }
+
+    /**
+     * Tests hashing a tag and its bumps, each preceded by the bumped tag.
+     */
+    @Test
+    public void testHashingBumps() {
+        Hasher hasher = new Hasher();
+        String nl = System.getProperty("line.separator");
+        assertEquals("sven-amann.de tLFCSJSpqQLc9/rt" + nl + "sven-amann.de:1 "
+                + hasher.generateHashWord("topsecret", "sven-amann.de:1", HashPolicy.DEFAULT)
+                + nl + "sven-amann.de:2 "
+                + hasher.generateHashWord("topsecret", "sven-amann.de:2", HashPolicy.DEFAULT),
+                hash("--bumps=2", "sven-amann.de", "topsecret"));
+    }
+
+    /**
+     * Tests hashing with PBKDF2 and the given number of iterations.
+     */
+    @Test
+    public void testHashingIterations() {
+        assertEquals("khB9lMWcrxt8VqCmNEjcjYAh9cY", hash("--iterations=1000", "--length=27",
+                "--requireDigit=false", "--requirePunct=false", "--requireMixed=false",
+                "sven-amann.de", "topsecret"));
+    }
+
+    /**
+     * Tests that the calibration prints a positive number of iterations.
+     */
+    @Test
+    public void testCalibration() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JPasswordHasher.calibrate(new String[] { "--calibrate=5", "--warmup=0" },
+                new PrintStream(baos));
+        assertTrue(Integer.parseInt(baos.toString().trim()) > 0);
+    }
+
+    /**
+     * Tests that the benchmark reports a line per thread count when scaling.
+     */
+    @Test
+    public void testBench() throws IOException, InterruptedException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JPasswordHasher.bench(new String[] { "--bench", "--requests=100", "--warmup=0",
+                "--threads=2", "--scaling", "--length=8" }, new PrintStream(baos));
+        String[] lines = baos.toString().trim().split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].trim().startsWith("1 "));
+        assertTrue(lines[2].trim().startsWith("2 "));
+    }
+
+    /**
+     * Tests that the benchmark with fewer requests than threads runs one
+     * thread per request, rather than threads without a quota for the default
+     * duration.
+     */
+    @Test
+    public void testBenchFewRequests() throws IOException, InterruptedException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        JPasswordHasher.bench(new String[] { "--bench", "--requests=2", "--warmup=0",
+                "--threads=8", "--scaling" }, new PrintStream(baos));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        String[] lines = baos.toString().trim().split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].trim().startsWith("1 "));
+        assertTrue(lines[2].trim().startsWith("2 "));
+    }
+
+    /**
+     * Tests hashing with the profile saved for a tag, which explicit options
+     * override, and bumping the tag.
+     */
+    @Test
+    public void testHashingProfiles() {
+        String profiles = "--profiles=" + store.getPath();
+        try {
+            Hasher hasher = new Hasher();
+            String eight = hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.of(8,
+                    true, true, true, false, false));
+            assertEquals(eight, hash(profiles, "--save", "--length=8", "sven-amann.de",
+                    "topsecret"));
+            assertEquals(eight, hash(profiles, "sven-amann.de", "topsecret"));
+            assertEquals("tLFCSJSpqQLc9/rt", hash(profiles, "--length=16", "sven-amann.de",
+                    "topsecret"));
+            String bumped = hasher.generateHashWord("topsecret", "sven-amann.de:1", HashPolicy
+                    .of(8, true, true, true, false, false));
+            assertEquals(bumped, hash(profiles, "--bump", "sven-amann.de", "topsecret"));
+            assertEquals(bumped, hash(profiles, "sven-amann.de", "topsecret"));
+        } finally {
+            store.delete();
+            new File(store.getPath() + ".journal").delete();
+            new File(store.getPath() + ".lock").delete();
+        }
+    }
+
+    /**
+     * Tests that a corrupt profile store does not prevent hashing.
+     */
+    @Test
+    public void testHashingCorruptProfiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(store);
+        try {
+            out.write("not a profile store".getBytes());
+        } finally {
+            out.close();
+        }
+        try {
+            assertEquals("tLFCSJSpqQLc9/rt", hash("sven-amann.de", "topsecret"));
+            assertEquals("tLFCSJSpqQLc9/rt", hash("--bump", "sven-amann.de", "topsecret"));
+        } finally {
+            store.delete();
+            new File(store.getPath() + ".lock").delete();
+        }
+    }
 }
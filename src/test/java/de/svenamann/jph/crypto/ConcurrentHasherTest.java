@@ -0,0 +1,133 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.ConcurrentHasher;
+
+/**
+ * Tests that a {@link ConcurrentHasher} shared between threads produces the
+ * same results as a {@link de.svenamann.jph.Hasher} used by a single thread.
+ * 
+ * @author Sven Amann
+ */
+public class ConcurrentHasherTest {
+
+    /**
+     * The number of threads to hash with.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * The unit under test.
+     */
+    private ConcurrentHasher hasher;
+
+    /**
+     * The threads to hash with.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Creates the hasher and threads.
+     */
+    @Before
+    public void setUp() {
+        hasher = new ConcurrentHasher();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    /**
+     * Stops the threads.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tests that each calling thread gets its own hasher.
+     */
+    @Test
+    public void testHasherPerThread() throws Exception {
+        Future<Object> other = executor.submit(new Callable<Object>() {
+            public Object call() {
+                return hasher.getHasher();
+            }
+        });
+        assertEquals(hasher.getHasher(), hasher.getHasher());
+        assertNotSame(hasher.getHasher(), other.get());
+    }
+
+    /**
+     * Tests that concurrent hashing yields the reference output of
+     * PasswordHasher.
+     */
+    @Test
+    public void testConcurrentHashing() throws Exception {
+        List<Future<String[]>> results = new ArrayList<Future<String[]>>();
+        for (int i = 0; i < THREADS * 4; i++) {
+            results.add(executor.submit(new Callable<String[]>() {
+                public String[] call() {
+                    String[] hashes = new String[1000];
+                    for (int j = 0; j < hashes.length; j += 2) {
+                        hashes[j] = hasher.generateHashWord("topsecret", "sven-amann.de", 16,
+                                true, true, true, false, false);
+                        hashes[j + 1] = hasher.generateHashWord("foobar", "sven-amann.de", 26,
+                                false, true, false, true, false);
+                    }
+                    return hashes;
+                }
+            }));
+        }
+        for (Future<String[]> result : results) {
+            String[] hashes = result.get();
+            for (int j = 0; j < hashes.length; j += 2) {
+                assertEquals("tLFCSJSpqQLc9/rt", hashes[j]);
+                assertEquals("1TGVT8kUIYU3JoZkbSbPRXfk9J", hashes[j + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import de.svenamann.jph.CachingHasher;
+import de.svenamann.jph.ConcurrentHasher;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HmacEngine;
+
+/**
+ * Compares the engines and entry points of the hashers against the
+ * {@link ReferenceHasher} on random masters, tags and policies. Runs on one
+ * thread per processor until the time is up or an engine deviates from the
+ * reference. The first deviation is shrunk to a minimal case and reported.<br>
+ * <br>
+ * Excluded from the default build, run by <code>mvn test -Pfuzz</code>. The
+ * system properties <code>fuzz.seconds</code>, <code>fuzz.seed</code> and
+ * <code>fuzz.threads</code> configure the run.
+ * 
+ * @author Sven Amann
+ */
+public class DifferentialFuzzTest {
+
+    /**
+     * The time to fuzz for.
+     */
+    private static final long SECONDS = Long.getLong("fuzz.seconds", 60);
+
+    /**
+     * The seed of the first thread, the others use the following seeds.
+     */
+    private static final long SEED = Long.getLong("fuzz.seed", System.nanoTime());
+
+    /**
+     * The number of threads to fuzz on.
+     */
+    private static final int THREADS = Integer.getInteger("fuzz.threads", Runtime.getRuntime()
+            .availableProcessors());
+
+    /**
+     * The maximum length of generated masters and tags.
+     */
+    private static final int MAX_STRING_LENGTH = 40;
+
+    @Test
+    public void testReference() {
+        ReferenceHasher reference = new ReferenceHasher();
+        assertEquals("tLFCSJSpqQLc9/rt", reference.generateHashWord("topsecret",
+                "sven-amann.de", 16, true, true, true, false, false));
+        assertEquals("tLFCSJSpqQLcgNrtkEHCwhnCX/", reference.generateHashWord("topsecret",
+                "sven-amann.de", 26, false, false, false, false, false));
+    }
+
+    @Test
+    public void testEngines() throws InterruptedException {
+        final ConcurrentHasher concurrent = new ConcurrentHasher();
+        final CachingHasher caching = new CachingHasher(1024, 60000);
+        long start = System.nanoTime();
+        final long end = start + SECONDS * 1000000000L;
+        final AtomicLong cases = new AtomicLong();
+        final AtomicReference<Mismatch> first = new AtomicReference<Mismatch>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(SEED + i);
+            threads[i] = new Thread("fuzz-" + i) {
+                @Override
+                public void run() {
+                    ReferenceHasher reference = new ReferenceHasher();
+                    Variant[] variants = variants(concurrent, caching);
+                    long count = 0;
+                    // reads the clock every 256 cases only
+                    while ((count & 255) != 0 || System.nanoTime() < end) {
+                        Case c = randomCase(random);
+                        String expected = c.hash(reference);
+                        for (int v = 0; v < variants.length; v++) {
+                            String actual = variants[v].hash(c);
+                            if (!variants[v].expected(reference, c, expected).equals(actual)) {
+                                first.compareAndSet(null, new Mismatch(v, c));
+                            }
+                        }
+                        count++;
+                        if (first.get() != null) {
+                            break;
+                        }
+                    }
+                    cases.addAndGet(count);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT, "Fuzzed %d cases in %.1f s (%.0f per"
+                + " minute) on %d threads with seed %d", cases.get(), seconds, cases.get() * 60
+                / seconds, THREADS, SEED));
+
+        Mismatch mismatch = first.get();
+        if (mismatch != null) {
+            String name = variants(concurrent, caching)[mismatch.variant].name;
+            if (!mismatch.reproduces()) {
+                fail(name + " deviates from the reference after preceding cases, but not on its"
+                        + " own, for " + mismatch.original + " with seed " + SEED);
+            }
+            Case shrunk = mismatch.shrink();
+            fail(name + " deviates from the reference for " + shrunk + ": expected "
+                    + mismatch.expected(shrunk) + " but was " + mismatch.actual(shrunk)
+                    + " (shrunk from " + mismatch.original + " with seed " + SEED + ")");
+        }
+    }
+
+    /**
+     * Generates a case. Masters are not empty, since the reference rejects
+     * empty keys. Strings are mostly printable ASCII, occasionally any
+     * characters.
+     */
+    private static Case randomCase(Random random) {
+        int flags = random.nextInt(32);
+        HashPolicy policy = HashPolicy.of(1 + random.nextInt(Hasher.MAX_HASH_WORD_SIZE),
+                (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, (flags & 8) != 0,
+                (flags & 16) != 0);
+        return new Case(randomString(random, 1 + random.nextInt(MAX_STRING_LENGTH)),
+                randomString(random, random.nextInt(MAX_STRING_LENGTH + 1)), policy);
+    }
+
+    /**
+     * Generates a string of the given length.
+     */
+    private static String randomString(Random random, int length) {
+        boolean any = random.nextInt(8) == 0;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = any && random.nextInt(4) == 0 ? (char) random
+                    .nextInt(Character.MAX_VALUE + 1) : (char) (' ' + random.nextInt(95));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Creates the variants under test. All but the given thread-safe hashers
+     * are confined to the calling thread.
+     */
+    private static Variant[] variants(final ConcurrentHasher concurrent,
+            final CachingHasher caching) {
+        final Hasher jca = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.JCA);
+        final Hasher builtIn = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.BUILT_IN);
+        final char[] hashWord = new char[Hasher.MAX_HASH_WORD_SIZE];
+        List<Variant> variants = new ArrayList<Variant>();
+        for (final Hasher hasher : new Hasher[] { jca, builtIn }) {
+            final String engine = hasher == jca ? "JCA" : "BUILT_IN";
+            variants.add(new Variant(engine) {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    return hasher.generateHashWord(master, tag, policy);
+                }
+            });
+            variants.add(new Variant(engine + " flags") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    return hasher.generateHashWord(master, tag, policy.getLength(), policy
+                            .isRequireDigit(), policy.isRequirePunctuation(), policy
+                            .isRequireMixed(), policy.isRestrictSpecial(), policy
+                            .isRestrictDigits());
+                }
+            });
+            variants.add(new Variant(engine + " chars") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    hasher.generateHashWord(master, tag, policy, hashWord);
+                    return new String(hashWord, 0, policy.getLength());
+                }
+            });
+            variants.add(new Variant(engine + " charset") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    hasher.generateHashWord(master, tag, Charset.defaultCharset(), policy,
+                            hashWord);
+                    return new String(hashWord, 0, policy.getLength());
+                }
+            });
+            variants.add(new Variant(engine + " bytes") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    hasher.generateHashWord(master.getBytes(), tag.getBytes(), policy, hashWord);
+                    return new String(hashWord, 0, policy.getLength());
+                }
+            });
+            variants.add(new Variant(engine + " heap buffer") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    // the data starts behind other bytes, like in a read buffer
+                    byte[] bytes = ("skip" + tag).getBytes();
+                    ByteBuffer data = ByteBuffer.wrap(bytes, 4, bytes.length - 4);
+                    hasher.generateHashWord(master, data, policy, hashWord);
+                    return new String(hashWord, 0, policy.getLength());
+                }
+            });
+            variants.add(new Variant(engine + " direct buffers") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    hasher.generateHashWord(direct(master), direct(tag), policy, hashWord);
+                    return new String(hashWord, 0, policy.getLength());
+                }
+            });
+            variants.add(new Variant(engine + " batch") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    String[] hashWords = hasher.generateHashWords(master, new String[] { tag,
+                            tag }, policy);
+                    return hashWords[0] + " " + hashWords[1];
+                }
+
+                @Override
+                String expected(ReferenceHasher reference, Case c, String hashWord) {
+                    return hashWord + " " + hashWord;
+                }
+            });
+            variants.add(new Variant(engine + " bump series") {
+                @Override
+                String hash(String master, String tag, HashPolicy policy) {
+                    String[] hashWords = hasher.generateBumpSeries(master, tag, 2, policy);
+                    return hashWords[0] + " " + hashWords[1] + " " + hashWords[2];
+                }
+
+                @Override
+                String expected(ReferenceHasher reference, Case c, String hashWord) {
+                    return hashWord + " " + c.bumps(reference);
+                }
+            });
+        }
+        variants.add(new Variant("ConcurrentHasher") {
+            @Override
+            String hash(String master, String tag, HashPolicy policy) {
+                return concurrent.generateHashWord(master, tag, policy);
+            }
+        });
+        variants.add(new Variant("CachingHasher") {
+            @Override
+            String hash(String master, String tag, HashPolicy policy) {
+                // computes on the first call, and hits the cache on the second
+                String hashWord = caching.generateHashWord(master, tag, policy);
+                return hashWord + " " + caching.generateHashWord(master, tag, policy);
+            }
+
+            @Override
+            String expected(ReferenceHasher reference, Case c, String hashWord) {
+                return hashWord + " " + hashWord;
+            }
+        });
+        return variants.toArray(new Variant[variants.size()]);
+    }
+
+    /**
+     * Copies a string's bytes in the platform's default charset to a direct
+     * buffer.
+     */
+    private static ByteBuffer direct(String s) {
+        byte[] bytes = s.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Describes an exception like a result, such that exceptions are compared
+     * like hash words.
+     */
+    private static String describe(RuntimeException e) {
+        return "<" + e + ">";
+    }
+
+    /**
+     * Escapes all but printable ASCII characters of a string and quotes it.
+     */
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < ' ' || c > '~' || c == '"' || c == '\\') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * An input of the hashers.
+     */
+    private static final class Case {
+
+        private final String master;
+
+        private final String tag;
+
+        private final HashPolicy policy;
+
+        /**
+         * The reference hash words of the first two bumps, once computed.
+         */
+        private String bumps;
+
+        private Case(String master, String tag, HashPolicy policy) {
+            this.master = master;
+            this.tag = tag;
+            this.policy = policy;
+        }
+
+        /**
+         * @return the reference hash word of this case
+         */
+        private String hash(ReferenceHasher reference) {
+            try {
+                return reference.generateHashWord(master, tag, policy.getLength(), policy
+                        .isRequireDigit(), policy.isRequirePunctuation(),
+                        policy.isRequireMixed(), policy.isRestrictSpecial(), policy
+                                .isRestrictDigits());
+            } catch (RuntimeException e) {
+                return describe(e);
+            }
+        }
+
+        /**
+         * @return the reference hash words of the first two bumps of this
+         *         case, separated by a space
+         */
+        private String bumps(ReferenceHasher reference) {
+            if (bumps == null) {
+                bumps = new Case(master, tag + ":1", policy).hash(reference) + " "
+                        + new Case(master, tag + ":2", policy).hash(reference);
+            }
+            return bumps;
+        }
+
+        @Override
+        public String toString() {
+            return "master " + quote(master) + ", tag " + quote(tag) + " and options " + policy;
+        }
+    }
+
+    /**
+     * An entry point of a hasher under test.
+     */
+    private abstract static class Variant {
+
+        private final String name;
+
+        private Variant(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the hash word, or a description of the exception thrown
+         */
+        final String hash(Case c) {
+            try {
+                return hash(c.master, c.tag, c.policy);
+            } catch (RuntimeException e) {
+                return describe(e);
+            }
+        }
+
+        /**
+         * Hashes a case by this entry point.
+         */
+        abstract String hash(String master, String tag, HashPolicy policy);
+
+        /**
+         * Derives the expected result from the reference hash word of a case.
+         * Entry points that return more than the hash word of the case
+         * override this.
+         */
+        String expected(ReferenceHasher reference, Case c, String hashWord) {
+            return hashWord;
+        }
+    }
+
+    /**
+     * A case on which a variant deviates from the reference.
+     */
+    private static final class Mismatch {
+
+        private final int variant;
+
+        private final Case original;
+
+        private Mismatch(int variant, Case original) {
+            this.variant = variant;
+            this.original = original;
+        }
+
+        /**
+         * @return the result expected for the given case
+         */
+        private String expected(Case c) {
+            ReferenceHasher reference = new ReferenceHasher();
+            return fresh().expected(reference, c, c.hash(reference));
+        }
+
+        /**
+         * @return the result of the variant for the given case
+         */
+        private String actual(Case c) {
+            return fresh().hash(c);
+        }
+
+        /**
+         * @return whether the variant deviates on the given case, when
+         *         hashing it first
+         */
+        private boolean deviates(Case c) {
+            return !expected(c).equals(actual(c));
+        }
+
+        /**
+         * @return whether the variant deviates on the original case, when
+         *         hashing it first
+         */
+        private boolean reproduces() {
+            return deviates(original);
+        }
+
+        /**
+         * Shrinks the original case, as long as the variant deviates, by
+         * dropping and simplifying characters of master and tag, clearing
+         * flags and reducing the length.
+         * 
+         * @return the shrunk case
+         */
+        private Case shrink() {
+            Case c = original;
+            boolean shrunk = true;
+            while (shrunk) {
+                shrunk = false;
+                for (Case candidate : candidates(c)) {
+                    if (deviates(candidate)) {
+                        c = candidate;
+                        shrunk = true;
+                        break;
+                    }
+                }
+            }
+            return c;
+        }
+
+        /**
+         * @return the cases one step smaller than the given one
+         */
+        private List<Case> candidates(Case c) {
+            List<Case> candidates = new ArrayList<Case>();
+            for (String tag : smaller(c.tag, 0)) {
+                candidates.add(new Case(c.master, tag, c.policy));
+            }
+            for (String master : smaller(c.master, 1)) {
+                candidates.add(new Case(master, c.tag, c.policy));
+            }
+            HashPolicy p = c.policy;
+            boolean[] flags = { p.isRequireDigit(), p.isRequirePunctuation(), p.isRequireMixed(),
+                    p.isRestrictSpecial(), p.isRestrictDigits() };
+            for (int i = 0; i < flags.length; i++) {
+                if (flags[i]) {
+                    boolean[] cleared = flags.clone();
+                    cleared[i] = false;
+                    candidates.add(new Case(c.master, c.tag, HashPolicy.of(p.getLength(),
+                            cleared[0], cleared[1], cleared[2], cleared[3], cleared[4])));
+                }
+            }
+            for (int length = 1; length < p.getLength(); length++) {
+                candidates.add(new Case(c.master, c.tag, HashPolicy.of(length, flags[0],
+                        flags[1], flags[2], flags[3], flags[4])));
+            }
+            return candidates;
+        }
+
+        /**
+         * @return the strings with half, or one of the characters, of the
+         *         given string dropped, but not shorter than the minimum
+         *         length, followed by those with a character replaced by 'a'
+         */
+        private static List<String> smaller(String s, int minLength) {
+            List<String> smaller = new ArrayList<String>();
+            if (s.length() / 2 >= minLength && s.length() > 1) {
+                smaller.add(s.substring(0, s.length() / 2));
+                smaller.add(s.substring(s.length() / 2));
+            }
+            if (s.length() > minLength) {
+                for (int i = 0; i < s.length(); i++) {
+                    smaller.add(s.substring(0, i) + s.substring(i + 1));
+                }
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) != 'a') {
+                    smaller.add(s.substring(0, i) + 'a' + s.substring(i + 1));
+                }
+            }
+            return smaller;
+        }
+
+        /**
+         * @return a new instance of the variant, with new hashers
+         */
+        private Variant fresh() {
+            return variants(new ConcurrentHasher(), new CachingHasher(1024, 60000))[variant];
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import de.svenamann.jph.ConcurrentHasher;
+import de.svenamann.jph.HashAlgorithm;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HmacEngine;
+
+/**
+ * Tests the {@link HashAlgorithm}s hash words may be derived with. Reference
+ * output of PBKDF2 has been taken from RFC 7914 and Python's hashlib.
+ * 
+ * @author Sven Amann
+ */
+public class HashAlgorithmTest {
+
+    /**
+     * The policy that yields the encoded derived key.
+     */
+    private static final HashPolicy PLAIN = HashPolicy.of(27, false, false, false, false, false);
+
+    @Test
+    public void testPasswordHasherCompatibility() {
+        assertEquals("tLFCSJSpqQLc9/rt", new Hasher(1, HashAlgorithm.PASSWORD_HASHER)
+                .generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT));
+        assertEquals("tLFCSJSpqQLc9/rt", new Hasher(1, HashAlgorithm
+                .passwordHasher(HmacEngine.BUILT_IN)).generateHashWord("topsecret",
+                "sven-amann.de", HashPolicy.DEFAULT));
+    }
+
+    @Test
+    public void testPbkdf2() {
+        assertEquals("VawEblbjCJ/sFpHCJUS2BflBhSE", new Hasher(1, HashAlgorithm.pbkdf2(1))
+                .generateHashWord("passwd", "salt", PLAIN));
+        assertEquals("TdzY9guYviGDDO5e8icB+WQaRBg", new Hasher(1, HashAlgorithm.pbkdf2(80000))
+                .generateHashWord("Password", "NaCl", PLAIN));
+        assertEquals("khB9lMWcrxt8VqCmNEjcjYAh9cY", new ConcurrentHasher(HashAlgorithm
+                .pbkdf2(1000), null).generateHashWord("topsecret", "sven-amann.de", PLAIN));
+    }
+
+    @Test
+    public void testPbkdf2CachedKeys() {
+        Hasher hasher = new Hasher(2, HashAlgorithm.pbkdf2(100));
+        String first = hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        hasher.generateHashWord("other", "sven-amann.de", HashPolicy.DEFAULT);
+        assertEquals(first, hasher.generateHashWord("topsecret", "sven-amann.de",
+                HashPolicy.DEFAULT));
+        String[] bumps = hasher.generateBumpSeries("topsecret", "sven-amann.de", 2,
+                HashPolicy.DEFAULT);
+        assertArrayEquals(new String[] { first,
+                hasher.generateHashWord("topsecret", "sven-amann.de:1", HashPolicy.DEFAULT),
+                hasher.generateHashWord("topsecret", "sven-amann.de:2", HashPolicy.DEFAULT) },
+                bumps);
+    }
+
+    @Test
+    public void testIllegalIterations() {
+        try {
+            HashAlgorithm.pbkdf2(0);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIllegalCalibration() {
+        try {
+            HashAlgorithm.calibratePbkdf2(0);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            HashAlgorithm.calibratePbkdf2(50, -1);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
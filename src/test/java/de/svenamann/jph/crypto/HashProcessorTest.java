@@ -0,0 +1,287 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.ConcurrentHasher;
+import de.svenamann.jph.HashFlow;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.HashProcessor;
+import de.svenamann.jph.HashProcessor.Request;
+import de.svenamann.jph.HashProcessor.Result;
+
+/**
+ * Tests the asynchronous hashing of request streams by the
+ * {@link HashProcessor}.
+ * 
+ * @author Sven Amann
+ */
+public class HashProcessorTest {
+
+    /**
+     * The executor to hash on.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The number of requests passed but not yet received as results.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The maximum of {@link #inFlight}.
+     */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderedResults() throws InterruptedException {
+        HashProcessor processor = new HashProcessor(executor, 8);
+        long master = processor.addMaster("topsecret");
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(new Request(master, "tag" + i, HashPolicy.DEFAULT));
+        }
+        Collector collector = run(processor, requests, 3);
+        assertNull(collector.error);
+        assertEquals(1000, collector.results.size());
+        ConcurrentHasher hasher = new ConcurrentHasher();
+        for (int i = 0; i < 1000; i++) {
+            Result result = collector.results.get(i);
+            assertEquals("tag" + i, result.getRequest().getTag());
+            assertEquals(hasher.generateHashWord("topsecret", "tag" + i, HashPolicy.DEFAULT),
+                    result.getHashWord());
+        }
+        assertTrue(maxInFlight.get() <= 8);
+    }
+
+    @Test
+    public void testUnorderedResults() throws InterruptedException {
+        HashProcessor processor = new HashProcessor(new ConcurrentHasher(), executor, 4, false);
+        long master = processor.addMaster("topsecret");
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 500; i++) {
+            requests.add(new Request(master, "tag" + i, HashPolicy.DEFAULT));
+        }
+        Collector collector = run(processor, requests, 1);
+        Set<String> tags = new HashSet<String>();
+        for (Result result : collector.results) {
+            tags.add(result.getRequest().getTag());
+        }
+        assertEquals(500, tags.size());
+        assertTrue(maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void testReferenceHash() throws InterruptedException {
+        HashProcessor processor = new HashProcessor(executor, 2);
+        long master = processor.addMaster("topsecret");
+        Collector collector = run(processor, Collections.singletonList(new Request(master,
+                "sven-amann.de", HashPolicy.DEFAULT)), 1);
+        assertEquals("tLFCSJSpqQLc9/rt", collector.results.get(0).getHashWord());
+    }
+
+    @Test
+    public void testUnknownMaster() throws InterruptedException {
+        HashProcessor processor = new HashProcessor(executor, 2);
+        long master = processor.addMaster("topsecret");
+        processor.removeMaster(master);
+        Collector collector = run(processor, Collections.singletonList(new Request(master,
+                "sven-amann.de", HashPolicy.DEFAULT)), 1);
+        assertNull(collector.error);
+        assertTrue(collector.results.get(0).isError());
+        assertEquals("Unknown master: handle = " + master, collector.results.get(0).getError());
+    }
+
+    @Test
+    public void testNoDemandNoRequests() throws InterruptedException {
+        HashProcessor processor = new HashProcessor(executor, 8);
+        long master = processor.addMaster("topsecret");
+        ListPublisher publisher = new ListPublisher(Collections.nCopies(10, new Request(master,
+                "sven-amann.de", HashPolicy.DEFAULT)));
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        Thread.sleep(50);
+        assertEquals(0, publisher.next);
+        collector.subscription.request(2);
+        Thread.sleep(50);
+        assertEquals(2, publisher.next);
+        assertEquals(2, collector.results.size());
+    }
+
+    /**
+     * Processes the given requests with a subscriber that requests the given
+     * number of results at a time.
+     */
+    private Collector run(HashProcessor processor, List<Request> requests, int batch)
+            throws InterruptedException {
+        Collector collector = new Collector(batch);
+        processor.subscribe(collector);
+        new ListPublisher(requests).subscribe(processor);
+        assertTrue(collector.terminated.await(10, TimeUnit.SECONDS));
+        return collector;
+    }
+
+    /**
+     * Publishes a list of requests as demanded.
+     */
+    private final class ListPublisher implements HashFlow.Publisher<Request> {
+
+        /**
+         * The requests.
+         */
+        private final List<Request> requests;
+
+        /**
+         * The index of the next request to publish.
+         */
+        private volatile int next;
+
+        /**
+         * Creates a publisher.
+         */
+        private ListPublisher(List<Request> requests) {
+            this.requests = requests;
+        }
+
+        public void subscribe(final HashFlow.Subscriber<? super Request> subscriber) {
+            subscriber.onSubscribe(new HashFlow.Subscription() {
+                public synchronized void request(long n) {
+                    for (long i = 0; i < n && next < requests.size(); i++) {
+                        int current = inFlight.incrementAndGet();
+                        if (current > maxInFlight.get()) {
+                            maxInFlight.set(current);
+                        }
+                        subscriber.onNext(requests.get(next++));
+                    }
+                    if (next == requests.size()) {
+                        next++;
+                        subscriber.onComplete();
+                    }
+                }
+
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects results, requesting a fixed number at a time.
+     */
+    private final class Collector implements HashFlow.Subscriber<Result> {
+
+        /**
+         * The number of results to request at a time.
+         */
+        private final int batch;
+
+        /**
+         * The results received.
+         */
+        private final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+
+        /**
+         * Released on completion or failure.
+         */
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        /**
+         * The subscription.
+         */
+        private HashFlow.Subscription subscription;
+
+        /**
+         * The failure, if any.
+         */
+        private Throwable error;
+
+        /**
+         * Creates a collector.
+         */
+        private Collector(int batch) {
+            this.batch = batch;
+        }
+
+        public void onSubscribe(HashFlow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        public void onNext(Result item) {
+            inFlight.decrementAndGet();
+            results.add(item);
+            if (batch > 0 && results.size() % batch == 0) {
+                subscription.request(batch);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+
+        public void onComplete() {
+            terminated.countDown();
+        }
+    }
+}
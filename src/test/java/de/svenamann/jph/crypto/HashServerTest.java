@@ -0,0 +1,254 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.HashClient;
+import de.svenamann.jph.HashServer;
+import de.svenamann.jph.JPasswordHasher;
+
+/**
+ * Tests the {@link HashServer} and {@link HashClient}. Requests are expected to
+ * produce the same hashing results as the sole hasher, while invalid requests
+ * are expected to be rejected without closing the connection. Clients that do
+ * not know the server's token are expected to be rejected.
+ * 
+ * @author Sven Amann
+ */
+public class HashServerTest {
+
+    /**
+     * The server under test.
+     */
+    private HashServer server;
+
+    /**
+     * The client under test.
+     */
+    private HashClient client;
+
+    /**
+     * The file the server is published in.
+     */
+    private File file;
+
+    /**
+     * Starts a server on a free port, publishes it and connects a client.
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("jph-server", null);
+        server = new HashServer(0, 2);
+        server.publish(file);
+        server.warmUp();
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException ioe) {
+                    // test fails on the client side
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        client = new HashClient(file);
+    }
+
+    /**
+     * Disconnects the client, stops the server and deletes its file.
+     */
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        file.delete();
+    }
+
+    /**
+     * Tests hashing with default options and options given per request.
+     */
+    @Test
+    public void testHashing() throws IOException {
+        assertEquals("tLFCSJSpqQLc9/rt", client.hash("topsecret", "sven-amann.de"));
+        assertEquals("22639098972594023583506343",
+                client.hash("topsecret", "sven-amann.de --length=26 --onlyDigits=true"));
+        assertEquals("", client.hash("topsecret", ""));
+    }
+
+    /**
+     * Tests that invalid requests are rejected and the connection remains
+     * usable.
+     */
+    @Test
+    public void testInvalidRequest() throws IOException {
+        try {
+            client.hash("topsecret", "sven-amann.de --length=28");
+            fail("Expected request to be rejected");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("Illegal hash length requested: length = 28, required 0 < length <=27",
+                    iae.getMessage());
+        }
+        assertEquals("tLFCSJSpqQLc9/rt", client.hash("topsecret", "sven-amann.de"));
+    }
+
+    /**
+     * Tests that a request rejected by the server terminates the command line
+     * client gracefully. The expected message is not tested here.
+     */
+    @Test
+    public void testRejectedCommandLineRequest() {
+        JPasswordHasher.main(new String[] { "--client=" + file.getPath(), "--length=28",
+                "sven-amann.de", "topsecret" });
+    }
+
+    /**
+     * Tests that concurrent connections are served.
+     */
+    @Test
+    public void testConcurrentConnections() throws IOException {
+        HashClient other = new HashClient(file);
+        try {
+            assertEquals("tLFCSJSpqQLc9/rt", other.hash("topsecret", "sven-amann.de"));
+            assertEquals("tLFCSJSpqQLc9/rt", client.hash("topsecret", "sven-amann.de"));
+        } finally {
+            other.close();
+        }
+    }
+
+    /**
+     * Tests that idle connections, more than the threads kept warm, do not
+     * delay other connections.
+     */
+    @Test
+    public void testIdleConnections() throws IOException {
+        HashClient idle1 = new HashClient(file);
+        HashClient idle2 = new HashClient(file);
+        HashClient other = new HashClient(file);
+        try {
+            assertEquals("tLFCSJSpqQLc9/rt", other.hash("topsecret", "sven-amann.de"));
+        } finally {
+            idle1.close();
+            idle2.close();
+            other.close();
+        }
+    }
+
+    /**
+     * Tests that clients with a wrong token are rejected.
+     */
+    @Test
+    public void testWrongToken() throws IOException {
+        File forged = File.createTempFile("jph-server", null);
+        try {
+            Writer out = new FileWriter(forged);
+            try {
+                out.write("port=" + server.getPort() + "\ntoken=00000000000000000000000000000000\n");
+            } finally {
+                out.close();
+            }
+            try {
+                new HashClient(forged);
+                fail("Expected client to be rejected");
+            } catch (IOException ioe) {
+                assertEquals("Server failed to authenticate", ioe.getMessage());
+            }
+        } finally {
+            forged.delete();
+        }
+        assertEquals("tLFCSJSpqQLc9/rt", client.hash("topsecret", "sven-amann.de"));
+    }
+
+    /**
+     * Tests that closing the server terminates idle connections and deletes
+     * the published file.
+     */
+    @Test
+    public void testClose() throws IOException {
+        server.close();
+        assertFalse(file.exists());
+        try {
+            client.hash("topsecret", "sven-amann.de");
+            fail("Expected connection to be closed");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that connections beyond the maximum are closed, while those
+     * served remain usable.
+     */
+    @Test
+    public void testConnectionLimit() throws Exception {
+        final HashServer limited = new HashServer(0, 1, 1);
+        File limitedFile = File.createTempFile("jph-server", null);
+        limited.publish(limitedFile);
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    limited.serve();
+                } catch (IOException ioe) {
+                    // test fails on the client side
+                }
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        HashClient served = new HashClient(limitedFile);
+        try {
+            try {
+                new HashClient(limitedFile);
+                fail("Expected connection to be closed");
+            } catch (IOException ioe) {
+                // expected
+            }
+            assertEquals("tLFCSJSpqQLc9/rt", served.hash("topsecret", "sven-amann.de"));
+        } finally {
+            served.close();
+            limited.close();
+            limitedFile.delete();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.ConcurrentHasher;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HasherMetrics;
+
+/**
+ * Tests the metrics recorded by hashers.
+ * 
+ * @author Sven Amann
+ */
+public class HasherMetricsTest {
+
+    /**
+     * The metrics under test.
+     */
+    private HasherMetrics metrics;
+
+    /**
+     * A hasher recording to the metrics.
+     */
+    private Hasher hasher;
+
+    /**
+     * Creates the metrics and attaches a hasher.
+     */
+    @Before
+    public void setUp() {
+        metrics = new HasherMetrics();
+        hasher = new Hasher();
+        hasher.setMetrics(metrics);
+    }
+
+    @Test
+    public void testCalls() {
+        hasher.generateHashWord("topsecret", "sven-amann.de", 16, true, true, true, false,
+                false);
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        hasher.generateHashWords("topsecret", new String[] { "a", "b", "c" }, 26, false,
+                false, false, false, true);
+        assertEquals(5, metrics.getCalls());
+        Map<String, Long> callsPerPolicy = metrics.getCallsPerPolicy();
+        assertEquals(2, callsPerPolicy.size());
+        assertEquals(Long.valueOf(2), callsPerPolicy.get("requireDigit+requirePunct+requireMixed"));
+        assertEquals(Long.valueOf(3), callsPerPolicy.get("onlyDigits"));
+        assertTrue(metrics.getHmacNanos() > 0);
+        assertTrue(metrics.getConvertToDigitsNanos() > 0);
+        assertTrue(metrics.getLatencyP50Nanos() > 0);
+        assertTrue(metrics.getLatencyP50Nanos() <= metrics.getLatencyP999Nanos());
+        assertTrue(metrics.getLatencyP999Nanos() <= metrics.getLatencyMaxNanos());
+    }
+
+    @Test
+    public void testResultsUnchanged() {
+        assertEquals("tLFCSJSpqQLc9/rt", hasher.generateHashWord("topsecret",
+                "sven-amann.de", 16, true, true, true, false, false));
+    }
+
+    @Test
+    public void testErrors() {
+        try {
+            hasher.generateHashWord("topsecret", "sven-amann.de", 0, false, false, false,
+                    false, false);
+            fail("Exception expected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, metrics.getErrors());
+        assertEquals(0, metrics.getCalls());
+    }
+
+    @Test
+    public void testReset() {
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        metrics.reset();
+        assertEquals(0, metrics.getCalls());
+        assertEquals(0, metrics.getLatencyMaxNanos());
+        assertTrue(metrics.getCallsPerPolicy().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReset() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong done = new AtomicLong();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+                    done.incrementAndGet();
+                }
+            }
+        };
+        writer.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                long before = done.get();
+                metrics.reset();
+                long calls = metrics.getCalls();
+                // the hash in progress during the reset may or may not count
+                assertTrue(calls <= done.get() - before + 1);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testDetach() {
+        hasher.setMetrics(null);
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        assertEquals(0, metrics.getCalls());
+    }
+
+    @Test
+    public void testReattach() {
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        hasher.setMetrics(metrics);
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        hasher.setMetrics(null);
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        assertEquals(2, metrics.getCalls());
+        metrics.reset();
+        assertEquals(0, metrics.getCalls());
+    }
+
+    @Test
+    public void testCollectedHashers() {
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+        hasher = null;
+        for (int i = 0; i < 1000; i++) {
+            Hasher discarded = new Hasher();
+            discarded.setMetrics(metrics);
+            discarded.generateHashWord("topsecret", "tag" + i, HashPolicy.DEFAULT);
+            if (i % 100 == 0) {
+                System.gc();
+            }
+        }
+        System.gc();
+        assertEquals(1001, metrics.getCalls());
+        assertEquals(1001, metrics.getCalls());
+        assertEquals(Long.valueOf(1001), metrics.getCallsPerPolicy().get(
+                "requireDigit+requirePunct+requireMixed"));
+    }
+
+    @Test
+    public void testConcurrentHasher() throws Exception {
+        final ConcurrentHasher concurrent = new ConcurrentHasher(metrics);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        concurrent.generateHashWord("topsecret", "tag" + j, HashPolicy.DEFAULT);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400, metrics.getCalls());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        ObjectName name = metrics.register("HasherMetricsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT);
+            assertEquals(Long.valueOf(1), server.getAttribute(name, "Calls"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(Long.valueOf(0), server.getAttribute(name, "Calls"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -32,11 +32,18 @@
 package de.svenamann.jph.crypto;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import de.svenamann.jph.HashPolicy;
 import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HmacEngine;
 
 /**
  * Tests the {@link Hasher} implementation for compliance with the original
@@ -184,4 +191,183 @@ public class HasherTest {
                 hasher.generateHashWord("topsecret", "sven-amann.de", 16, true, true, true, false,
                         false));
     }
+
+    /**
+     * Tests that hashing into a buffer yields the same hash as the string
+     * based hashing and writes only the requested number of characters.
+     */
+    @Test
+    public void testHashingIntoBuffer() {
+        char[] buffer = new char[] { '-', '-', '-', '-', '-', '-', '-', '-', '-', '-', '-',
+                '-', '-', '-', '-', '-', '-', '-' };
+        hasher.generateHashWord("topsecret", "sven-amann.de", 16, true, true, true, false, false,
+                buffer);
+        assertEquals("tLFCSJSpqQLc9/rt--", new String(buffer));
+        hasher.generateHashWord("foobar", "sven-amann.de", 16, false, true, false, true, false,
+                buffer);
+        assertEquals("1TGVT8kUIYU3JoZk--", new String(buffer));
+        hasher.generateHashWord("test", "sven-amann.de", 10, true, true, true, true, true,
+                buffer);
+        assertEquals("5411977631U3JoZk--", new String(buffer));
+    }
+
+    /**
+     * Tests that hashing into a buffer that is too small is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashingIntoTooSmallBuffer() {
+        hasher.generateHashWord("topsecret", "sven-amann.de", 16, true, true, true, false, false,
+                new char[10]);
+    }
+
+    /**
+     * Tests that cached key state is used for the right keys only, when keys
+     * are evicted from the cache and after the cache was cleared.
+     */
+    @Test
+    public void testHashingWithKeyCache() {
+        Hasher cachingHasher = new Hasher(2);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("tLFCSJSpqQLc9/rt", cachingHasher.generateHashWord("topsecret",
+                    "sven-amann.de", 16, true, true, true, false, false));
+            assertEquals("JgPxvt7hpPw4D4CbbAzmYWeH*k", cachingHasher.generateHashWord("test",
+                    "sven-amann.de", 26, true, true, true, false, false));
+            assertEquals("1T+VT8kUIYU3JoZkbSbPRXfk9J", cachingHasher.generateHashWord("foobar",
+                    "sven-amann.de", 26, true, true, true, false, false));
+        }
+        cachingHasher.clearKeyCache();
+        assertEquals("tLFCSJSpqQLc9/rt", cachingHasher.generateHashWord("topsecret",
+                "sven-amann.de", 16, true, true, true, false, false));
+    }
+
+    /**
+     * Tests that a hasher requires a positive key cache size.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalKeyCacheSize() {
+        new Hasher(0);
+    }
+
+    /**
+     * Tests that hashing many tags at once yields the same hashes as hashing
+     * them one by one.
+     */
+    @Test
+    public void testBatchHashing() {
+        String[] hashes = hasher.generateHashWords("topsecret", new String[] { "sven-amann.de",
+                "sven-amann.de", "example.com" }, 16, true, true, true, false, false);
+        assertEquals(3, hashes.length);
+        assertEquals("tLFCSJSpqQLc9/rt", hashes[0]);
+        assertEquals("tLFCSJSpqQLc9/rt", hashes[1]);
+        assertEquals(hasher.generateHashWord("topsecret", "example.com", 16, true, true, true,
+                false, false), hashes[2]);
+        assertEquals(0, hasher.generateHashWords("topsecret", new String[0], 16, true, true,
+                true, false, false).length);
+    }
+
+    /**
+     * Tests that batch hashing checks the requested length even without tags.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchHashingIllegalLength() {
+        hasher.generateHashWords("topsecret", new String[0], 28, true, true, true, false, false);
+    }
+
+    /**
+     * Tests that hashing with a policy yields the same hashes as hashing with
+     * the respective flags.
+     */
+    @Test
+    public void testHashingWithPolicy() {
+        assertEquals("tLFCSJSpqQLc9/rt", hasher.generateHashWord("topsecret", "sven-amann.de",
+                HashPolicy.DEFAULT));
+        assertEquals("1TGVT8kUIYU3JoZkbSbPRXfk9J", hasher.generateHashWord("foobar",
+                "sven-amann.de", HashPolicy.of(26, false, true, false, true, false)));
+        assertEquals("54119776310434399630082398", hasher.generateHashWord("test",
+                "sven-amann.de", HashPolicy.of(26, true, true, true, true, true)));
+        char[] buffer = new char[16];
+        hasher.generateHashWord("topsecret", "sven-amann.de", HashPolicy.DEFAULT, buffer);
+        assertEquals("tLFCSJSpqQLc9/rt", new String(buffer));
+        assertEquals("JgPxvt7hpPw4D4CbbAzmYWeH*k", hasher.generateHashWords("test",
+                new String[] { "sven-amann.de" }, HashPolicy.of(26, true, true, true, false,
+                        false))[0]);
+    }
+
+    /**
+     * Tests that policies are shared and checked on creation.
+     */
+    @Test
+    public void testPolicyCreation() {
+        assertSame(HashPolicy.DEFAULT, HashPolicy.of(16, true, true, true, false, false));
+        assertEquals(16, HashPolicy.DEFAULT.getLength());
+        assertEquals("--length=16 --requireDigit=true --requirePunct=true --requireMixed=true"
+                + " --noSpecial=false --onlyDigits=false", HashPolicy.DEFAULT.toString());
+        try {
+            HashPolicy.of(0, true, true, true, false, false);
+            fail("Expected illegal length to be rejected");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that hashing bytes yields the same results as hashing the
+     * strings they encode.
+     */
+    @Test
+    public void testHashingBytes() throws Exception {
+        char[] buffer = new char[26];
+        hasher.generateHashWord("topsecret".getBytes(), "sven-amann.de".getBytes(),
+                HashPolicy.DEFAULT, buffer);
+        assertEquals("tLFCSJSpqQLc9/rt", new String(buffer, 0, 16));
+        ByteBuffer key = ByteBuffer.allocateDirect(16);
+        key.put("foobar".getBytes()).flip();
+        hasher.generateHashWord(key, ByteBuffer.wrap("sven-amann.de".getBytes()), HashPolicy
+                .of(26, false, true, false, true, false), buffer);
+        assertEquals("1TGVT8kUIYU3JoZkbSbPRXfk9J", new String(buffer));
+        assertEquals(0, key.position());
+        String umlauts = "s\u00fc\u00df.de";
+        hasher.generateHashWord("topsecret", umlauts, Charset.forName("UTF-8"),
+                HashPolicy.DEFAULT, buffer);
+        char[] expected = new char[16];
+        hasher.generateHashWord("topsecret".getBytes("UTF-8"), umlauts.getBytes("UTF-8"),
+                HashPolicy.DEFAULT, expected);
+        assertEquals(new String(expected), new String(buffer, 0, 16));
+        hasher.generateHashWord("topsecret", "sven-amann.de", Charset.forName("UTF-16"),
+                HashPolicy.DEFAULT, buffer);
+        hasher.generateHashWord("topsecret".getBytes("UTF-16"), "sven-amann.de"
+                .getBytes("UTF-16"), HashPolicy.DEFAULT, expected);
+        assertEquals(new String(expected), new String(buffer, 0, 16));
+    }
+
+    /**
+     * Tests that hashing the bump series of a tag yields the same hashes as
+     * hashing the tag and each bump one by one, with both HMAC engines.
+     */
+    @Test
+    public void testBumpSeries() {
+        for (HmacEngine engine : HmacEngine.values()) {
+            Hasher bumper = new Hasher(1, engine);
+            String[] series = bumper.generateBumpSeries("topsecret", "sven-amann.de", 12,
+                    HashPolicy.DEFAULT);
+            assertEquals(13, series.length);
+            assertEquals("tLFCSJSpqQLc9/rt", series[0]);
+            for (int i = 1; i < series.length; i++) {
+                assertEquals(hasher.generateHashWord("topsecret", "sven-amann.de:" + i,
+                        HashPolicy.DEFAULT), series[i]);
+            }
+            assertEquals("tLFCSJSpqQLc9/rt", bumper.generateHashWord("topsecret",
+                    "sven-amann.de", HashPolicy.DEFAULT));
+            assertEquals(1, bumper.generateBumpSeries("topsecret", "sven-amann.de", 0,
+                    HashPolicy.DEFAULT).length);
+        }
+    }
+
+    /**
+     * Tests that the number of bumps must not be negative.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBumpSeriesIllegalBumps() {
+        hasher.generateBumpSeries("topsecret", "sven-amann.de", -1, HashPolicy.DEFAULT);
+    }
 }
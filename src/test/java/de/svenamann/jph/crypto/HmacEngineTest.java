@@ -0,0 +1,209 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.MacSpi;
+
+import org.junit.Test;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.HmacEngine;
+
+/**
+ * Tests that the {@link HmacEngine#BUILT_IN built-in} HMAC implementation
+ * yields the same hash words as the one of the Java Cryptography Architecture.
+ * The unrestricted hash words of the maximum length encode the complete MAC.
+ * 
+ * @author Sven Amann
+ */
+public class HmacEngineTest {
+
+    /**
+     * The hash words that encode the complete MAC.
+     */
+    private static final HashPolicy COMPLETE = HashPolicy.of(Hasher.MAX_HASH_WORD_SIZE, false,
+            false, false, false, false);
+
+    /**
+     * Tests the built-in implementation on the reference vectors.
+     */
+    @Test
+    public void testReferenceVectors() {
+        Hasher hasher = new Hasher(Hasher.DEFAULT_KEY_CACHE_SIZE, HmacEngine.BUILT_IN);
+        assertEquals("tLFCSJSpqQLc9/rt", hasher.generateHashWord("topsecret",
+                "sven-amann.de", 16, true, true, true, false, false));
+        assertEquals("tLFCSJSpqQLcgNrtkEHCwhnCX/", hasher.generateHashWord("topsecret",
+                "sven-amann.de", 26, false, false, false, false, false));
+        assertEquals("22639098972594023583506343", hasher.generateHashWord("topsecret",
+                "sven-amann.de", 26, false, false, false, false, true));
+        assertEquals("1TGVT8kUIYU3JoZkbSbPRXfk9J", hasher.generateHashWord("foobar",
+                "sven-amann.de", 26, false, true, false, true, false));
+        assertEquals("JgPxvt7hpPw4D4CbbAzmYWeH*k", hasher.generateHashWords("test",
+                new String[] { "sven-amann.de" }, 26, true, true, true, false, false)[0]);
+    }
+
+    /**
+     * Tests the built-in implementation on random keys and data of lengths
+     * around the block boundaries, including keys longer than a block.
+     */
+    @Test
+    public void testRandomInputs() {
+        Random random = new Random(42);
+        Hasher jca = new Hasher(4, HmacEngine.JCA);
+        Hasher builtIn = new Hasher(4, HmacEngine.BUILT_IN);
+        char[] expected = new char[Hasher.MAX_HASH_WORD_SIZE];
+        char[] actual = new char[Hasher.MAX_HASH_WORD_SIZE];
+        for (int i = 0; i < 5000; i++) {
+            byte[] key = new byte[1 + random.nextInt(i % 10 == 0 ? 200 : 16)];
+            byte[] data = new byte[random.nextInt(200)];
+            random.nextBytes(key);
+            random.nextBytes(data);
+            jca.generateHashWord(key, data, COMPLETE, expected);
+            builtIn.generateHashWord(key, data, COMPLETE, actual);
+            assertEquals(new String(expected), new String(actual));
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+            builtIn.generateHashWord(ByteBuffer.wrap(key), direct, COMPLETE, actual);
+            assertEquals(new String(expected), new String(actual));
+        }
+    }
+
+    /**
+     * Tests that the JCA implementation yields the right hash words, if the
+     * MAC provider does not support cloning. The bump series continues
+     * hashing the tag after copying the MAC.
+     */
+    @Test
+    public void testUncloneableProvider() {
+        Provider provider = new UncloneableProvider();
+        Security.insertProviderAt(provider, 1);
+        try {
+            Hasher jca = new Hasher(4, HmacEngine.JCA);
+            Hasher builtIn = new Hasher(4, HmacEngine.BUILT_IN);
+            assertArrayEquals(builtIn.generateBumpSeries("topsecret", "sven-amann.de", 3,
+                    HashPolicy.DEFAULT), jca.generateBumpSeries("topsecret", "sven-amann.de", 3,
+                    HashPolicy.DEFAULT));
+            assertEquals("tLFCSJSpqQLc9/rt", jca.generateHashWord("topsecret",
+                    "sven-amann.de", HashPolicy.DEFAULT));
+            assertTrue(UncloneableMac.instances > 0);
+        } finally {
+            Security.removeProvider(provider.getName());
+        }
+    }
+
+    /**
+     * A provider of HMAC-SHA1, which does not support cloning.
+     */
+    public static final class UncloneableProvider extends Provider {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates the provider.
+         */
+        public UncloneableProvider() {
+            super("Uncloneable", 1.0, "HMAC-SHA1 without cloning");
+            put("Mac.HmacSHA1", UncloneableMac.class.getName());
+        }
+    }
+
+    /**
+     * HMAC-SHA1 of the default provider, which does not support cloning.
+     */
+    public static final class UncloneableMac extends MacSpi {
+
+        /**
+         * The number of instances created.
+         */
+        private static int instances;
+
+        /**
+         * The MAC of the default provider.
+         */
+        private final Mac mac;
+
+        /**
+         * Creates an instance.
+         */
+        public UncloneableMac() throws NoSuchAlgorithmException {
+            mac = Mac.getInstance("HmacSHA1", Security.getProvider("SunJCE"));
+            instances++;
+        }
+
+        @Override
+        protected int engineGetMacLength() {
+            return mac.getMacLength();
+        }
+
+        @Override
+        protected void engineInit(Key key, AlgorithmParameterSpec params)
+                throws InvalidKeyException, InvalidAlgorithmParameterException {
+            mac.init(key, params);
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            mac.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            mac.update(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDoFinal() {
+            return mac.doFinal();
+        }
+
+        @Override
+        protected void engineReset() {
+            mac.reset();
+        }
+    }
+}
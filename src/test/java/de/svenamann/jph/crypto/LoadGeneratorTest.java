@@ -0,0 +1,106 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.LatencyHistogram;
+import de.svenamann.jph.LoadGenerator;
+
+/**
+ * Tests the load generator.
+ * 
+ * @author Sven Amann
+ */
+public class LoadGeneratorTest {
+
+    /**
+     * The load generator under test.
+     */
+    private LoadGenerator load;
+
+    @Before
+    public void setUp() {
+        load = new LoadGenerator();
+        load.setWarmUp(0);
+    }
+
+    @Test
+    public void testRequests() throws InterruptedException {
+        load.setThreads(3);
+        load.setRequests(1000);
+        load.addPolicy(HashPolicy.DEFAULT, 3);
+        load.addPolicy(HashPolicy.of(8, false, false, false, true, false), 1);
+        load.setMasterReuse(0.5);
+        LoadGenerator.Result result = load.run();
+        assertEquals(3, result.getThreads());
+        assertEquals(1000, result.getRequests());
+        assertEquals(1000, result.getLatencies().getCount());
+        assertTrue(result.getThroughput() > 0);
+        for (int i = 0; i < result.getThreads(); i++) {
+            assertTrue(result.getThroughput(i) > 0);
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws InterruptedException {
+        load.setRequests(500);
+        LatencyHistogram latencies = load.run().getLatencies();
+        assertTrue(latencies.getPercentile(0.5) > 0);
+        assertTrue(latencies.getPercentile(0.5) <= latencies.getPercentile(0.99));
+        assertTrue(latencies.getPercentile(0.99) <= latencies.getMax());
+    }
+
+    @Test
+    public void testDuration() throws InterruptedException {
+        load.setThreads(2);
+        load.setDuration(100);
+        LoadGenerator.Result result = load.run();
+        assertTrue(result.getRequests() > 0);
+        assertEquals(result.getRequests(), result.getLatencies().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMasterReuse() {
+        load.setMasterReuse(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalTagLength() {
+        load.setTagLength(10, 5);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.MappedBulkHasher;
+
+/**
+ * Tests the {@link MappedBulkHasher}. It is expected to produce the same
+ * hashing results as the sole hasher, in the order of the input rows.
+ * 
+ * @author Sven Amann
+ */
+public class MappedBulkHasherTest {
+
+    /**
+     * The input file.
+     */
+    private File in;
+
+    /**
+     * The output file.
+     */
+    private File out;
+
+    /**
+     * Creates the files.
+     */
+    @Before
+    public void setUp() throws IOException {
+        in = File.createTempFile("jph-in", ".txt");
+        out = File.createTempFile("jph-out", ".txt");
+    }
+
+    /**
+     * Deletes the files.
+     */
+    @After
+    public void tearDown() {
+        in.delete();
+        out.delete();
+    }
+
+    /**
+     * Hashes the given input with a mapped bulk hasher.
+     * 
+     * @param bulk
+     *            the mapped bulk hasher
+     * @param input
+     *            the rows
+     * @return the output
+     */
+    private String hash(MappedBulkHasher bulk, String input) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(in));
+        writer.write(input);
+        writer.close();
+        FileOutputStream output = new FileOutputStream(out);
+        try {
+            bulk.hash("topsecret", HashPolicy.DEFAULT, in, output.getChannel());
+        } finally {
+            output.close();
+        }
+        StringBuilder result = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(out));
+        int c;
+        while ((c = reader.read()) >= 0) {
+            result.append((char) c);
+        }
+        reader.close();
+        return result.toString();
+    }
+
+    /**
+     * Tests hashing rows, empty rows, rows with carriage returns and a last
+     * row without line break.
+     */
+    @Test
+    public void testHashingRows() throws IOException {
+        assertEquals("tLFCSJSpqQLc9/rt\n\ntLFCSJSpqQLc9/rt\ntLFCSJSpqQLc9/rt\n", hash(
+                new MappedBulkHasher(2, 4, 16), "sven-amann.de\n\nsven-amann.de\r\n"
+                        + "sven-amann.de"));
+        assertEquals("", hash(new MappedBulkHasher(), ""));
+    }
+
+    /**
+     * Tests that the output preserves the order of many rows hashed
+     * concurrently in small chunks and windows.
+     */
+    @Test
+    public void testOrderPreserved() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        Hasher hasher = new Hasher();
+        for (int i = 0; i < 5000; i++) {
+            input.append("site").append(i).append('\n');
+            expected.append(hasher.generateHashWord("topsecret", "site" + i,
+                    HashPolicy.DEFAULT));
+            expected.append('\n');
+        }
+        assertEquals(expected.toString(), hash(new MappedBulkHasher(4, 50, 1000), input
+                .toString()));
+    }
+
+    /**
+     * Tests that rows must fit into a window.
+     */
+    @Test(expected = IOException.class)
+    public void testRowLongerThanWindow() throws IOException {
+        hash(new MappedBulkHasher(1, 4, 8), "sven-amann.de\nsven-amann.de\n");
+    }
+
+    /**
+     * Tests that windows must hold at least one chunk.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalConfiguration() {
+        new MappedBulkHasher(1, 16, 8);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.ProfileStore;
+import de.svenamann.jph.ProfileStore.Profile;
+
+/**
+ * Tests the persistence of profiles by the {@link ProfileStore}.
+ * 
+ * @author Sven Amann
+ */
+public class ProfileStoreTest {
+
+    /**
+     * The base file of the store under test.
+     */
+    private File file;
+
+    /**
+     * The journal file of the store under test.
+     */
+    private File journal;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("profiles", "");
+        file.delete();
+        journal = new File(file.getPath() + ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        journal.delete();
+        new File(file.getPath() + ".lock").delete();
+        new File(file.getPath() + ".old").delete();
+    }
+
+    @Test
+    public void testPutGetRemove() throws IOException {
+        ProfileStore store = new ProfileStore(file);
+        assertFalse(ProfileStore.exists(file));
+        Profile profile = new Profile(HashPolicy.of(8, false, true, false, true, false), 2);
+        store.put("sven-amann.de", profile);
+        assertEquals(profile, store.get("sven-amann.de"));
+        assertNull(store.get("example.com"));
+        assertEquals(1, store.size());
+        store.remove("sven-amann.de");
+        assertNull(store.get("sven-amann.de"));
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        ProfileStore store = new ProfileStore(file);
+        Profile profile = new Profile(HashPolicy.DEFAULT, 1);
+        store.put("sven-amann.de", profile);
+        store.put("example.com", profile);
+        store.remove("example.com");
+        store.close();
+        assertTrue(ProfileStore.exists(file));
+        store = new ProfileStore(file);
+        assertEquals(profile, store.get("sven-amann.de"));
+        assertNull(store.get("example.com"));
+        store.compact();
+        store.close();
+        assertEquals(0, journal.length());
+        store = new ProfileStore(file);
+        assertEquals(profile, store.get("sven-amann.de"));
+        assertNull(store.get("example.com"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        ProfileStore store = new ProfileStore(file, 100);
+        Map<String, Profile> expected = new HashMap<String, Profile>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            String tag = "tagä中" + random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                store.remove(tag);
+                expected.remove(tag);
+            } else {
+                Profile profile = new Profile(HashPolicy.of(1 + random.nextInt(27), random
+                        .nextBoolean(), random.nextBoolean(), random.nextBoolean(), random
+                        .nextBoolean(), random.nextBoolean()), random.nextInt(10));
+                store.put(tag, profile);
+                expected.put(tag, profile);
+            }
+        }
+        store.close();
+        assertTrue(journal.length() < 100 * 20);
+        store = new ProfileStore(file, 100);
+        assertEquals(expected.size(), store.size());
+        for (int i = 0; i < 500; i++) {
+            String tag = "tagä中" + i;
+            assertEquals(expected.get(tag), store.get(tag));
+        }
+        store.close();
+    }
+
+    @Test
+    public void testTruncatedJournal() throws IOException {
+        ProfileStore store = new ProfileStore(file);
+        store.put("sven-amann.de", new Profile(HashPolicy.DEFAULT, 1));
+        store.put("example.com", new Profile(HashPolicy.DEFAULT, 2));
+        store.close();
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        store = new ProfileStore(file);
+        assertNull(store.get("example.com"));
+        store.put("example.org", new Profile(HashPolicy.DEFAULT, 3));
+        store.close();
+        store = new ProfileStore(file);
+        assertEquals(1, store.get("sven-amann.de").getBump());
+        assertEquals(3, store.get("example.org").getBump());
+        store.close();
+    }
+
+    @Test
+    public void testSharedStore() throws IOException {
+        ProfileStore first = new ProfileStore(file, 10);
+        ProfileStore second = new ProfileStore(file, 10);
+        for (int i = 0; i < 25; i++) {
+            first.put("first" + i, new Profile(HashPolicy.DEFAULT, i));
+            second.put("second" + i, new Profile(HashPolicy.DEFAULT, i));
+        }
+        second.remove("first0");
+        assertNull(first.get("first0"));
+        assertEquals(24, first.get("second24").getBump());
+        assertEquals(49, first.size());
+        first.close();
+        second.close();
+        ProfileStore store = new ProfileStore(file);
+        assertEquals(49, store.size());
+        for (int i = 1; i < 25; i++) {
+            assertEquals(i, store.get("first" + i).getBump());
+            assertEquals(i, store.get("second" + i).getBump());
+        }
+        store.close();
+    }
+
+    @Test
+    public void testInterruptedReplace() throws IOException {
+        ProfileStore store = new ProfileStore(file);
+        store.put("sven-amann.de", new Profile(HashPolicy.DEFAULT, 1));
+        store.compact();
+        store.put("example.com", new Profile(HashPolicy.DEFAULT, 2));
+        store.close();
+        // crashed after moving the former base file aside
+        assertTrue(file.renameTo(new File(file.getPath() + ".old")));
+        assertTrue(ProfileStore.exists(file));
+        store = new ProfileStore(file);
+        assertEquals(1, store.get("sven-amann.de").getBump());
+        assertEquals(2, store.get("example.com").getBump());
+        store.close();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testCorruptStore() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("no profiles".getBytes());
+        out.close();
+        try {
+            new ProfileStore(file);
+            fail("Expected IOException.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBump() {
+        assertEquals("sven-amann.de", new Profile(HashPolicy.DEFAULT, 0).bump("sven-amann.de"));
+        assertEquals("sven-amann.de:2", new Profile(HashPolicy.DEFAULT, 2).bump("sven-amann.de"));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  ***** BEGIN LICENSE BLOCK ***** Version: MPL 1.1/GPL 2.0
+ * 
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ * 
+ * The Original Code is JPasswordHasher, released April 27, 2012.
+ * 
+ * The Initial Developer of the Original Code is Sven Amann.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ * 
+ * Contributor(s): Steve Cooper
+ * 
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License Version 2 or later (the "GPL"), in which case the
+ * provisions of the GPL are applicable instead of those above. If you wish to
+ * allow use of your version of this file only under the terms of the GPL and
+ * not to allow others to use your version of this file under the MPL, indicate
+ * your decision by deleting the provisions above and replacing them with the
+ * notice and other provisions required by the GPL. If you do not delete the
+ * provisions above, a recipient may use your version of this file under either
+ * the MPL or the GPL.
+ * 
+ * ***** END LICENSE BLOCK *****
+ */
+package de.svenamann.jph.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.svenamann.jph.BulkHasher;
+import de.svenamann.jph.HashPolicy;
+import de.svenamann.jph.Hasher;
+import de.svenamann.jph.RotationJob;
+
+/**
+ * Tests the {@link RotationJob}, in particular resuming it after a crash.
+ * 
+ * @author Sven Amann
+ */
+public class RotationJobTest {
+
+    /**
+     * The number of rows of the generated inventory.
+     */
+    private static final int ROWS = 1000;
+
+    private File inventory;
+
+    private File journal;
+
+    @Before
+    public void setUp() throws IOException {
+        inventory = File.createTempFile("inventory", "");
+        journal = File.createTempFile("journal", "");
+        journal.delete();
+        Writer out = new FileWriter(inventory);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                out.write("site" + i + ".example.com" + (i % 3 == 0 ? " --length=8" : "") + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        inventory.delete();
+        journal.delete();
+        RotationJob.checkpointFile(journal).delete();
+    }
+
+    /**
+     * Tests the journal lines of rows with and without options, empty and
+     * invalid rows.
+     */
+    @Test
+    public void testRotation() throws IOException {
+        Writer out = new FileWriter(inventory);
+        try {
+            out.write("sven-amann.de\n\nexample.com --length=26 --requireDigit=false"
+                    + " --requirePunct=false --requireMixed=false\nexample.com --nonsense\n");
+        } finally {
+            out.close();
+        }
+        assertEquals(4, new RotationJob(inventory, journal).run("topsecret", "newsecret",
+                HashPolicy.DEFAULT, log()));
+        Hasher hasher = new Hasher();
+        List<String> lines = lines(journal);
+        assertEquals(3, lines.size());
+        assertEquals("sven-amann.de\ttLFCSJSpqQLc9/rt\t"
+                + hasher.generateHashWord("newsecret", "sven-amann.de", HashPolicy.DEFAULT),
+                lines.get(0));
+        HashPolicy plain = HashPolicy.of(26, false, false, false, false, false);
+        assertEquals("example.com\t" + hasher.generateHashWord("topsecret", "example.com", plain)
+                + "\t" + hasher.generateHashWord("newsecret", "example.com", plain), lines.get(1));
+        assertEquals("example.com\t" + BulkHasher.ERROR + "Illegal option: --nonsense", lines
+                .get(2));
+    }
+
+    /**
+     * Tests that a job, which crashes after a checkpoint, resumes from the
+     * checkpoint and yields the same journal as a job without crash, although
+     * lines were appended after the checkpoint.
+     */
+    @Test
+    public void testResume() throws IOException {
+        File expected = File.createTempFile("expected", "");
+        expected.delete();
+        try {
+            new RotationJob(inventory, expected, 2, 10, 0).run("old", "new", HashPolicy.DEFAULT,
+                    log());
+            try {
+                new RotationJob(inventory, journal, 2, 10, 0).run("old", "new",
+                        HashPolicy.DEFAULT, new PrintStream(new OutputStream() {
+                            @Override
+                            public void write(int b) {
+                                throw new IllegalStateException("crash");
+                            }
+                        }));
+                fail("Expected crash.");
+            } catch (IllegalStateException e) {
+                // crashed after the first checkpoint
+            }
+            List<String> partial = lines(journal);
+            assertTrue(partial.size() < ROWS);
+            Writer out = new FileWriter(journal, true);
+            try {
+                out.write("torn line");
+            } finally {
+                out.close();
+            }
+
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            assertEquals(ROWS, new RotationJob(inventory, journal, 2, 10, 0).run("old", "new",
+                    HashPolicy.DEFAULT, new PrintStream(log)));
+            assertTrue(log.toString().startsWith("Resuming rotation at row "));
+            assertEquals(lines(expected), lines(journal));
+        } finally {
+            expected.delete();
+            RotationJob.checkpointFile(expected).delete();
+        }
+    }
+
+    /**
+     * Tests that a completed job is not run again.
+     */
+    @Test
+    public void testCompleted() throws IOException {
+        new RotationJob(inventory, journal).run("old", "new", HashPolicy.DEFAULT, log());
+        long length = journal.length();
+        assertEquals(ROWS, new RotationJob(inventory, journal).run("old", "new",
+                HashPolicy.DEFAULT, log()));
+        assertEquals(length, journal.length());
+    }
+
+    /**
+     * Tests that a job does not resume with other masters.
+     */
+    @Test(expected = IOException.class)
+    public void testOtherMasters() throws IOException {
+        new RotationJob(inventory, journal).run("old", "new", HashPolicy.DEFAULT, log());
+        new RotationJob(inventory, journal).run("old", "other", HashPolicy.DEFAULT, log());
+    }
+
+    /**
+     * Tests that a job does not append to a foreign file.
+     */
+    @Test(expected = IOException.class)
+    public void testJournalWithoutCheckpoint() throws IOException {
+        Writer out = new FileWriter(journal);
+        try {
+            out.write("foreign\n");
+        } finally {
+            out.close();
+        }
+        new RotationJob(inventory, journal).run("old", "new", HashPolicy.DEFAULT, log());
+    }
+
+    /**
+     * @return a log that is discarded
+     */
+    private static PrintStream log() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+
+    /**
+     * Reads the lines of a file.
+     */
+    private static List<String> lines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+}